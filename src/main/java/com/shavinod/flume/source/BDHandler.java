@@ -1,9 +1,15 @@
 package com.shavinod.flume.source;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
@@ -12,13 +18,37 @@ import org.apache.flume.source.http.HTTPSourceHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Turns each line of an HTTP request body into an event, or every
+ * linesPerEvent lines into one.
+ *
+ * Lines end at \n, \r or \r\n, as for BufferedReader.readLine, but are
+ * found by scanning the body's bytes: nothing is decoded, and event bodies
+ * are the bytes sent, in the request's charset. Lines packed into one event
+ * keep the terminators between them. UTF-16 and UTF-32 bodies are scanned by
+ * code unit, in the order given by a leading byte order mark, which is
+ * dropped, or big-endian without one; their events name the charset, with
+ * its byte order, in a charset header. All state lives in the request, so
+ * concurrent requests do not interfere, and any read error fails the
+ * request rather than returning the lines read so far.
+ *
+ * Bodies sent with a gzip or deflate Content-Encoding are decompressed as
+ * they are read; see {@link ContentDecoder}. The handler's counter is
+ * registered with JMX under the name option, BDHandler by default.
+ */
 public class BDHandler implements HTTPSourceHandler {
 
 	private static final Logger LOG = LoggerFactory.getLogger(BDHandler.class);
-	private String sCurrentLine;
+	public static final String NAME_KEY = "name";
+	public static final String LINES_PER_EVENT_KEY = "linesPerEvent";
+	public static final int LINES_PER_EVENT_DEFAULT = 1;
+	public static final String CHARSET_HEADER = "charset";
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private HttpSourceCounter counter = new HttpSourceCounter("BDHandler");
+	private ContentDecoder decoder = new ContentDecoder(ContentDecoder.MAX_RATIO_DEFAULT, counter);
+	private int linesPerEvent = LINES_PER_EVENT_DEFAULT;
 
 	public List<Event> getEvents(HttpServletRequest request) throws Exception {
-		BufferedReader reader = request.getReader();
 		String charset = request.getCharacterEncoding();
 
 		if (charset == null) {
@@ -31,31 +61,166 @@ public class BDHandler implements HTTPSourceHandler {
 			throw new UnsupportedCharsetException("BDhandler supports UTF-8, " + "UTF-16 and UTF-32 only.");
 		}
 
-		List<Event> eventList = new ArrayList<Event>(0);
-
+		InputStream in = decoder.open(request);
 		try {
-			while ((sCurrentLine = reader.readLine()) != null) {
-				System.out.println(sCurrentLine);
-				Event event = EventBuilder.withBody(sCurrentLine.getBytes());
-				eventList.add(event);
-			}
-		} catch (Exception ex) {
-			System.out.println("Exception in Reading File" + ex.getMessage());
+			List<Event> eventList = new LineSplitter(charset.toUpperCase(Locale.ENGLISH), linesPerEvent).split(in);
+			LOG.debug("No of events in the request : " + eventList.size());
+			return eventList;
+		} finally {
+			in.close();
 		}
-
-		LOG.debug("No of events in the request : " + eventList.size());
-		System.out.println("No of events in the request : " + eventList.size());
-		return getSimpleEvents(eventList);
 	}
 
 	public void configure(Context context) {
+		linesPerEvent = context.getInteger(LINES_PER_EVENT_KEY, LINES_PER_EVENT_DEFAULT);
+		if (linesPerEvent <= 0) {
+			throw new IllegalArgumentException(LINES_PER_EVENT_KEY + " must be greater than 0: " + linesPerEvent);
+		}
+		counter = new HttpSourceCounter(context.getString(NAME_KEY, "BDHandler"));
+		counter.start();
+		decoder = new ContentDecoder(context.getInteger(ContentDecoder.MAX_RATIO_KEY, ContentDecoder.MAX_RATIO_DEFAULT),
+				counter);
 	}
 
-	private List<Event> getSimpleEvents(List<Event> events) {
-		List<Event> newEvents = new ArrayList<Event>(events.size());
-		for (Event e : events) {
-			newEvents.add(EventBuilder.withBody(e.getBody(), e.getHeaders()));
+	/**
+	 * Splits one body into events. Bytes of an event that started in an
+	 * earlier read are kept in pending; an event that lies within one read
+	 * is copied straight out of the read buffer.
+	 */
+	private static class LineSplitter {
+		private final String charset;
+		private final int width;
+		private final int linesPerEvent;
+		private final List<Event> events = new ArrayList<Event>();
+		private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+		private Map<String, String> headers = Collections.emptyMap();
+		private boolean bigEndian = true;
+		private boolean afterCR;
+		private int lines;
+		private int lastContentEnd;
+		private int lastTerminatorEnd;
+
+		LineSplitter(String charset, int linesPerEvent) {
+			this.charset = charset;
+			this.width = charset.equals("UTF-16") ? 2 : charset.equals("UTF-32") ? 4 : 1;
+			this.linesPerEvent = linesPerEvent;
+		}
+
+		List<Event> split(InputStream in) throws IOException {
+			byte[] buf = new byte[BUFFER_SIZE];
+			boolean first = true;
+			int carry = 0;
+			int bytesRead;
+			while ((bytesRead = in.read(buf, carry, buf.length - carry)) >= 0) {
+				int limit = carry + bytesRead;
+				// a code unit split between reads waits for the next one
+				int whole = limit - limit % width;
+				if (first && whole > 0) {
+					first = false;
+					scan(buf, byteOrderMark(buf), whole);
+				} else {
+					scan(buf, 0, whole);
+				}
+				carry = limit - whole;
+				System.arraycopy(buf, whole, buf, 0, carry);
+			}
+			// a truncated last code unit is kept as sent
+			pending.write(buf, 0, carry);
+			finish();
+			return events;
+		}
+
+		/**
+		 * Sets the byte order and headers of a UTF-16 or UTF-32 body.
+		 *
+		 * @return the length of the byte order mark, if any
+		 */
+		private int byteOrderMark(byte[] buf) {
+			if (width == 1) {
+				return 0;
+			}
+			int mark = 0;
+			if (unit(buf, 0) == 0xfeff) {
+				mark = width;
+			} else {
+				bigEndian = false;
+				if (unit(buf, 0) == 0xfeff) {
+					mark = width;
+				} else {
+					bigEndian = true;
+				}
+			}
+			headers = Collections.singletonMap(CHARSET_HEADER, charset + (bigEndian ? "BE" : "LE"));
+			return mark;
+		}
+
+		private int unit(byte[] buf, int i) {
+			int value = 0;
+			for (int k = 0; k < width; k++) {
+				value = value << 8 | buf[bigEndian ? i + k : i + width - 1 - k] & 0xff;
+			}
+			return value;
+		}
+
+		private void scan(byte[] buf, int from, int to) {
+			int eventStart = from;
+			for (int i = from; i < to; i += width) {
+				int unit = width == 1 ? buf[i] : unit(buf, i);
+				if (unit == '\n') {
+					if (afterCR) {
+						afterCR = false;
+						if (lines == 0 && eventStart == i && pending.size() == 0) {
+							// the rest of the \r\n ending the last event
+							eventStart = i + width;
+						} else {
+							lastTerminatorEnd = pending.size() + i + width - eventStart;
+						}
+						continue;
+					}
+				} else if (unit == '\r') {
+					afterCR = true;
+				} else {
+					afterCR = false;
+					continue;
+				}
+
+				if (++lines == linesPerEvent) {
+					emit(buf, eventStart, i);
+					lines = 0;
+					eventStart = i + width;
+				} else {
+					lastContentEnd = pending.size() + i - eventStart;
+					lastTerminatorEnd = lastContentEnd + width;
+				}
+			}
+			pending.write(buf, eventStart, to - eventStart);
+		}
+
+		private void emit(byte[] buf, int start, int end) {
+			byte[] body;
+			if (pending.size() == 0) {
+				body = Arrays.copyOfRange(buf, start, end);
+			} else {
+				pending.write(buf, start, end - start);
+				body = pending.toByteArray();
+				pending.reset();
+			}
+			events.add(EventBuilder.withBody(body, headers));
+		}
+
+		/**
+		 * Emits the lines left at the end of the body, without the terminator
+		 * of the last one.
+		 */
+		private void finish() {
+			if (pending.size() == 0 && lines == 0) {
+				return;
+			}
+			byte[] body = pending.toByteArray();
+			if (lines > 0 && body.length == lastTerminatorEnd) {
+				body = Arrays.copyOf(body, lastContentEnd);
+			}
+			events.add(EventBuilder.withBody(body, headers));
 		}
-		return newEvents;
 	}
 }
@@ -0,0 +1,136 @@
+package com.shavinod.flume.source;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of equally sized read buffers, shared by the connections
+ * of one source.
+ * 
+ * At most capacity buffers are ever allocated, lazily, and they are kept
+ * for reuse once returned. They are direct unless the pool is built for
+ * heap buffers, which readers of a stream rather than a channel need for
+ * their arrays. When all of them are leased, a lease gets a plain heap
+ * buffer instead; a direct pool drops it on return, a heap pool keeps it
+ * only if fewer than capacity buffers are free. Thread-safe.
+ */
+class BufferPool {
+
+  private final int bufferSize;
+  private final int capacity;
+  private final boolean direct;
+
+  private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+  private final AtomicInteger freeCount = new AtomicInteger();
+  private final AtomicInteger allocated = new AtomicInteger();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong inUseBytes = new AtomicLong();
+
+  BufferPool(int bufferSize, int capacity) {
+    this(bufferSize, capacity, true);
+  }
+
+  BufferPool(int bufferSize, int capacity, boolean direct) {
+    this.bufferSize = bufferSize;
+    this.capacity = capacity;
+    this.direct = direct;
+  }
+
+  /**
+   * Leases a cleared buffer, which must be returned through
+   * {@link #release} exactly once.
+   */
+  ByteBuffer lease() {
+    ByteBuffer buffer = free.poll();
+    if (buffer != null) {
+      freeCount.decrementAndGet();
+      hits.incrementAndGet();
+      buffer.clear();
+    } else {
+      misses.incrementAndGet();
+      if (allocated.incrementAndGet() <= capacity) {
+        buffer = direct ? ByteBuffer.allocateDirect(bufferSize)
+            : ByteBuffer.allocate(bufferSize);
+      } else {
+        allocated.decrementAndGet();
+        buffer = ByteBuffer.allocate(bufferSize);
+      }
+    }
+    inUseBytes.addAndGet(bufferSize);
+    return buffer;
+  }
+
+  void release(ByteBuffer buffer) {
+    inUseBytes.addAndGet(-bufferSize);
+    if (buffer.isDirect() != direct) {
+      return;
+    }
+    if (freeCount.incrementAndGet() > capacity) {
+      freeCount.decrementAndGet();
+      return;
+    }
+    free.offer(buffer);
+  }
+
+  int getBufferSize() {
+    return bufferSize;
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * Pooled buffers allocated so far, leased or not.
+   */
+  int getAllocated() {
+    return Math.min(allocated.get(), capacity);
+  }
+
+  /**
+   * Pooled buffers waiting to be leased.
+   */
+  int getFreeCount() {
+    return freeCount.get();
+  }
+
+  /**
+   * Leases served from the pool.
+   */
+  long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Leases that had to allocate, directly or, with the pool exhausted, on
+   * the heap.
+   */
+  long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Fraction of leases served from the pool, 0 before the first lease.
+   */
+  double getHitRate() {
+    long h = hits.get();
+    long total = h + misses.get();
+    return total == 0 ? 0 : (double) h / total;
+  }
+
+  /**
+   * Bytes of all currently leased buffers.
+   */
+  long getInUseBytes() {
+    return inUseBytes.get();
+  }
+}
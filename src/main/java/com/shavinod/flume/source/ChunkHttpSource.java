@@ -1,62 +1,212 @@
 package com.shavinod.flume.source;
 
-import org.apache.flume.instrumentation.SourceCounter;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDrivenSource;
+import org.apache.flume.FlumeException;
 import org.apache.flume.conf.Configurable;
-import org.apache.flume.conf.ConfigurationException;
 import org.apache.flume.event.EventBuilder;
 import org.apache.flume.source.AbstractSource;
+import org.apache.flume.source.http.HTTPBadRequestException;
 import org.apache.flume.source.http.HTTPSourceHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
+
+/**
+ * Turns HTTP uploads into events of at most blobLength bytes each, through
+ * its {@link BDMPHandler}.
+ * 
+ * By default the handler returns all of an upload's chunks at once, so the
+ * whole upload is held in memory. With streaming enabled it instead commits
+ * every batchSize chunks to the channel as they are read and returns
+ * nothing, so an upload of any size takes at most batchSize chunks of
+ * memory. Chunks are read into buffers reused across requests, up to
+ * bufferPoolSize of them, and each event gets a copy of exactly its own
+ * bytes.
+ * 
+ * With a delimiter configured, chunks end after the last delimiter that
+ * fits in blobLength bytes, so records such as CSV rows or JSON lines are
+ * never split, and the rest is carried over to the next chunk. A record
+ * longer than blobLength still has to be cut. Every event carries the
+ * chunk's sequence number in the upload, from 0, and the offset of its
+ * first byte in the upload, so consumers can process chunks out of order.
+ * 
+ * With a spill directory configured, each upload is streamed to a file
+ * there instead, and the events are empty references to its chunks, cut
+ * the same way, which a {@link SpillResolver} on the sink side resolves and
+ * eventually deletes. Only the last reference of an upload tells how many
+ * chunks its file holds, so the file of an upload that fails after some
+ * of its references were committed is left to the resolver's sweep.
+ * 
+ * Bodies sent with a gzip or deflate Content-Encoding are decompressed as
+ * they are read, and chunked after decompression; see
+ * {@link ContentDecoder}.
+ * 
+ * With an upload index configured, which needs streaming, a request with an
+ * Upload-Id header belongs to a resumable upload. The index records, on
+ * local disk, how far each upload has been committed to the channel, after
+ * every batch. A later request for the same upload continues it: its body
+ * starts at the Upload-Offset header (0 if absent), bytes already committed
+ * are skipped rather than sent to the channel again, and chunk offsets and
+ * sequence numbers carry on from where the upload stopped. A request
+ * starting past the committed offset leaves a gap and is rejected with the
+ * committed offset in the message. Each request's tail is a chunk of its
+ * own, so with a delimiter a record may span two requests' chunks. Should
+ * the agent die between a channel commit and the index write, the batch is
+ * delivered again on resume.
+ */
 public class ChunkHttpSource extends AbstractSource implements EventDrivenSource, Configurable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ChunkHttpSource.class);
-	private SourceCounter counter;
+	private HttpSourceCounter counter;
 	private int blobLength = BLOB_LENGTH_DEFAULT;
 	public static final String BLOB_LENGTH_KEY = "blobLength";
 	public static final int BLOB_LENGTH_DEFAULT = 1 * 1000 * 1000; // 100 mb
+	public static final String STREAMING_KEY = "streaming";
+	public static final String BATCH_SIZE_KEY = "batchSize";
+	public static final int BATCH_SIZE_DEFAULT = 10;
+	public static final String BUFFER_POOL_SIZE_KEY = "bufferPoolSize";
+	public static final int BUFFER_POOL_SIZE_DEFAULT = 4;
+	/**
+	 * Byte sequence, in UTF-8, that ends a record; unset or empty to cut
+	 * chunks at exactly blobLength bytes.
+	 */
+	public static final String DELIMITER_KEY = "delimiter";
+	public static final String SEQUENCE_HEADER = "chunk.sequence";
+	public static final String OFFSET_HEADER = "chunk.offset";
+	/**
+	 * Directory to spill upload bodies to, in place of carrying them in
+	 * events; see {@link SpillResolver}. Unset to keep bodies in events.
+	 */
+	public static final String SPILL_DIRECTORY_KEY = "spillDirectory";
+	/**
+	 * File of the index of resumable uploads; unset to ignore Upload-Id.
+	 */
+	public static final String UPLOAD_INDEX_KEY = "uploadIndex";
+	/**
+	 * Hours an upload stays resumable after its last commit.
+	 */
+	public static final String UPLOAD_RETENTION_KEY = "uploadRetentionHours";
+	public static final int UPLOAD_RETENTION_DEFAULT = 7 * 24;
+	public static final String UPLOAD_ID_HEADER = "Upload-Id";
+	public static final String UPLOAD_OFFSET_HEADER = "Upload-Offset";
 	public TimeZone timeZone;
+	private boolean streaming;
+	private int batchSize = BATCH_SIZE_DEFAULT;
+	private byte[] delimiter;
+	private File spillDirectory;
+	private ContentDecoder decoder;
+	private File uploadIndexFile;
+	private long uploadRetentionMillis;
+	private volatile UploadIndex uploadIndex;
+	private BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(BUFFER_POOL_SIZE_DEFAULT);
 
 	public void configure(Context context) {
 		// intialize the counter
-		this.counter = new SourceCounter(this.getName());
+		this.counter = new HttpSourceCounter(this.getName());
 		this.blobLength = context.getInteger(BLOB_LENGTH_KEY, BLOB_LENGTH_DEFAULT);
 		LOGGER.debug(" ############ TimeZone actual: " + new Date());
 		String tzName = "UTC";
 		this.timeZone = (tzName == null) ? null : TimeZone.getTimeZone(tzName);
 		LOGGER.debug(" ############ TimeZone new : " + new Date());
 
-		if (this.blobLength <= 0) {
-			try {
-				throw new ConfigurationException(
-						"Configuration parameter " + BLOB_LENGTH_KEY + " must be greater than 0 : " + blobLength);
-			} catch (ConfigurationException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+		if (blobLength <= 0) {
+			throw new IllegalArgumentException(BLOB_LENGTH_KEY + " must be greater than 0: " + blobLength);
 		}
 
 		LOGGER.info(" ########### Current blobLength : " + blobLength);
 
+		this.streaming = context.getBoolean(STREAMING_KEY, false);
+		this.batchSize = context.getInteger(BATCH_SIZE_KEY, BATCH_SIZE_DEFAULT);
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException(BATCH_SIZE_KEY + " must be greater than 0: " + batchSize);
+		}
+		int bufferPoolSize = context.getInteger(BUFFER_POOL_SIZE_KEY, BUFFER_POOL_SIZE_DEFAULT);
+		if (bufferPoolSize <= 0) {
+			throw new IllegalArgumentException(BUFFER_POOL_SIZE_KEY + " must be greater than 0: " + bufferPoolSize);
+		}
+		String delimiter = context.getString(DELIMITER_KEY, "");
+		this.delimiter = delimiter.length() == 0 ? null : delimiter.getBytes(Charsets.UTF_8);
+		String spillDirectory = context.getString(SPILL_DIRECTORY_KEY, "");
+		if (spillDirectory.length() == 0) {
+			this.spillDirectory = null;
+		} else {
+			this.spillDirectory = new File(spillDirectory);
+			if (!this.spillDirectory.isDirectory() && !this.spillDirectory.mkdirs()) {
+				throw new IllegalArgumentException(SPILL_DIRECTORY_KEY + " is not a directory: " + spillDirectory);
+			}
+		}
+		String uploadIndex = context.getString(UPLOAD_INDEX_KEY, "");
+		if (uploadIndex.length() == 0) {
+			this.uploadIndexFile = null;
+		} else {
+			if (!streaming) {
+				throw new IllegalArgumentException(UPLOAD_INDEX_KEY + " needs " + STREAMING_KEY + " enabled");
+			}
+			this.uploadIndexFile = new File(uploadIndex);
+		}
+		int retentionHours = context.getInteger(UPLOAD_RETENTION_KEY, UPLOAD_RETENTION_DEFAULT);
+		if (retentionHours <= 0) {
+			throw new IllegalArgumentException(UPLOAD_RETENTION_KEY + " must be greater than 0: " + retentionHours);
+		}
+		this.uploadRetentionMillis = retentionHours * 3600L * 1000;
+		this.decoder = new ContentDecoder(context.getInteger(ContentDecoder.MAX_RATIO_KEY,
+				ContentDecoder.MAX_RATIO_DEFAULT), counter);
+		// buffers of a previous blobLength are dropped with the old pool
+		this.buffers = new ArrayBlockingQueue<byte[]>(bufferPoolSize);
+	}
+
+	/**
+	 * A read buffer of blobLength bytes, reused if one is free.
+	 */
+	private byte[] leaseBuffer() {
+		byte[] buf = buffers.poll();
+		return buf != null && buf.length == blobLength ? buf : new byte[blobLength];
+	}
+
+	/**
+	 * Keeps the buffer for another request, unless the pool is full.
+	 */
+	private void releaseBuffer(byte[] buf) {
+		buffers.offer(buf);
 	}
 
 	@Override
 	public synchronized void start() {
 		// TODO Auto-generated method stub
 		this.counter.start();
+		if (uploadIndexFile != null) {
+			File parent = uploadIndexFile.getAbsoluteFile().getParentFile();
+			if (!parent.isDirectory() && !parent.mkdirs()) {
+				throw new FlumeException("Unable to create directory " + parent);
+			}
+			try {
+				this.uploadIndex = new UploadIndex(uploadIndexFile, uploadRetentionMillis);
+			} catch (IOException e) {
+				throw new FlumeException("Unable to load upload index " + uploadIndexFile, e);
+			}
+		}
 		super.start();
 		this.counter.setOpenConnectionCount(1);
 
@@ -67,6 +217,14 @@ public class ChunkHttpSource extends AbstractSource implements EventDrivenSource
 		// TODO Auto-generated method stub
 		this.counter.setOpenConnectionCount(0);
 		super.stop();
+		if (uploadIndex != null) {
+			try {
+				uploadIndex.close();
+			} catch (IOException e) {
+				LOGGER.warn("Unable to close upload index " + uploadIndexFile, e);
+			}
+			uploadIndex = null;
+		}
 		this.counter.stop();
 	}
 
@@ -78,53 +236,265 @@ public class ChunkHttpSource extends AbstractSource implements EventDrivenSource
 
 		}
 
+		/**
+		 * Splits the request body into events of blobLength bytes, the last
+		 * one possibly shorter, or up to the last record delimiter within
+		 * blobLength bytes. In streaming mode the events are committed to the
+		 * channel batchSize at a time and none are returned.
+		 */
 		@Override
-		// using chunks
 		public List<Event> getEvents(HttpServletRequest request) throws IOException {
-			InputStream in = null;
 			List<Event> eventList = new ArrayList<Event>();
-
-			LOGGER.info("################# Intialize byte array buf of size (bytes) : " + blobLength);
+			String uploadId = uploadIndexFile == null ? null : request.getHeader(UPLOAD_ID_HEADER);
+			UploadIndex index = uploadIndex;
+			UploadIndex.Entry committed = null;
+			if (uploadId != null) {
+				if (index == null) {
+					throw new IllegalStateException("Source " + getName() + " is not started");
+				}
+				committed = index.begin(uploadId);
+			}
 
 			try {
+				InputStream in = decoder.open(request);
+				try {
+					Map<String, String> headers = extractHTTPHeaders(request);
+
+					validateCharset(request.getCharacterEncoding());
+
+					long offset = committed == null ? 0 : committed.offset;
+					int sequence = committed == null ? 0 : committed.sequence;
+					if (uploadId != null) {
+						long from = uploadOffset(request);
+						if (from > offset) {
+							throw new HTTPBadRequestException("Upload " + uploadId + " is committed up to offset "
+									+ offset + ", not " + from);
+						}
+						skip(in, offset - from);
+					}
+
+					if (spillDirectory != null) {
+						spill(in, headers, eventList, uploadId, index, offset, sequence);
+					} else {
+						chunk(in, headers, eventList, uploadId, index, offset, sequence);
+					}
+					if (streaming) {
+						commit(eventList, uploadId, index);
+					}
+
+					LOGGER.debug("############# eventList final size : " + eventList.size());
+				} finally {
+					in.close();
+				}
+			} finally {
+				if (uploadId != null) {
+					index.end(uploadId);
+				}
+			}
 
-				in = request.getInputStream();
-
-				Map<String, String> headers = extractHTTPHeaders(request);
-
-				String charset = request.getCharacterEncoding();
-
-				charset = validateCharset(charset);
-
-				byte[] buf = new byte[blobLength];
-
-				int bytesRead = -1;
-				do {
-					int index = 0;
-
-					for (; (bytesRead = in.read(buf, index, blobLength - index)) > 0; index += bytesRead)
-						;
-
-					Event event = EventBuilder.withBody(buf, headers);
+			return eventList;
+		}
 
-					LOGGER.info("############# index: " + index);
+		private long uploadOffset(HttpServletRequest request) {
+			String value = request.getHeader(UPLOAD_OFFSET_HEADER);
+			if (value == null) {
+				return 0;
+			}
+			try {
+				long offset = Long.parseLong(value.trim());
+				if (offset >= 0) {
+					return offset;
+				}
+			} catch (NumberFormatException e) {
+				// handled below
+			}
+			throw new HTTPBadRequestException("Malformed " + UPLOAD_OFFSET_HEADER + ": " + value);
+		}
 
-					eventList.add(event);
+		/**
+		 * Skips bytes already committed, or the whole body if it ends first.
+		 */
+		private void skip(InputStream in, long count) throws IOException {
+			while (count > 0) {
+				long skipped = in.skip(count);
+				if (skipped <= 0) {
+					if (in.read() < 0) {
+						return;
+					}
+					skipped = 1;
+				}
+				count -= skipped;
+			}
+		}
 
-					LOGGER.info("############# eventList tmp size : " + eventList.size());
+		/**
+		 * Chunks the body, numbering chunks from sequence and counting offsets
+		 * from offset, where the body starts in the upload.
+		 */
+		private void chunk(InputStream in, Map<String, String> headers, List<Event> eventList, String uploadId,
+				UploadIndex index, long offset, int sequence) throws IOException {
+			byte[] buf = leaseBuffer();
+			try {
+				int carry = 0;
+				int filled;
+				while ((filled = readChunk(in, buf, carry)) > 0) {
+					// a short read means the upload ended: the rest is the last record
+					int length = filled < buf.length || delimiter == null ? filled : recordsEnd(ByteBuffer.wrap(buf));
+					// the buffer is reused for the next chunk, so each event
+					// gets a copy of its own bytes
+					Event event = EventBuilder.withBody(Arrays.copyOf(buf, length), headers);
+					event.getHeaders().put(SEQUENCE_HEADER, String.valueOf(sequence++));
+					event.getHeaders().put(OFFSET_HEADER, String.valueOf(offset));
+					add(eventList, event, uploadId, index);
+					offset += length;
+					carry = filled - length;
+					System.arraycopy(buf, length, buf, 0, carry);
+				}
+			} finally {
+				releaseBuffer(buf);
+			}
+		}
 
-				} while (bytesRead >= 0);
+		/**
+		 * Streams the body into a new spill file and adds a reference event
+		 * for each of its chunks, cut as in memory. Each chunk is looked at
+		 * through a read-only mapping of the file, to find its last delimiter
+		 * and compute its checksum. The last reference is held back until the
+		 * upload ends, to mark it with the number of chunks.
+		 */
+		private void spill(InputStream in, Map<String, String> headers, List<Event> eventList, String uploadId,
+				UploadIndex index, long offset, int firstSequence) throws IOException {
+			File file = File.createTempFile(SpillResolver.FILE_PREFIX, SpillResolver.FILE_SUFFIX, spillDirectory);
+			RandomAccessFile out = new RandomAccessFile(file, "rw");
+			int sequence = firstSequence;
+			Event pending = null;
+			boolean done = false;
+			try {
+				FileChannel channel = out.getChannel();
+				ReadableByteChannel body = Channels.newChannel(in);
+				byte[] scratch = new byte[8192];
+				long start = 0;
+				long written = 0;
+				boolean eof = false;
+				while (true) {
+					while (!eof && written < start + blobLength) {
+						long transferred = channel.transferFrom(body, written, start + blobLength - written);
+						if (transferred <= 0) {
+							eof = true;
+						} else {
+							written += transferred;
+						}
+					}
+					if (written == start) {
+						break;
+					}
+					ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, written - start);
+					int length = eof || delimiter == null ? chunk.limit() : recordsEnd(chunk);
+					chunk.limit(length);
+
+					Event reference = EventBuilder.withBody(new byte[0], headers);
+					Map<String, String> referenceHeaders = reference.getHeaders();
+					referenceHeaders.put(SpillResolver.PATH_HEADER, file.getAbsolutePath());
+					referenceHeaders.put(SpillResolver.OFFSET_HEADER, String.valueOf(start));
+					referenceHeaders.put(SpillResolver.LENGTH_HEADER, String.valueOf(length));
+					referenceHeaders.put(SpillResolver.CHECKSUM_HEADER,
+							String.valueOf(SpillResolver.checksum(chunk, scratch)));
+					referenceHeaders.put(SEQUENCE_HEADER, String.valueOf(sequence++));
+					referenceHeaders.put(OFFSET_HEADER, String.valueOf(offset + start));
+					if (pending != null) {
+						add(eventList, pending, uploadId, index);
+					}
+					pending = reference;
+					start += length;
+				}
+				if (pending != null) {
+					pending.getHeaders().put(SpillResolver.CHUNKS_HEADER, String.valueOf(sequence - firstSequence));
+					Event last = pending;
+					pending = null;
+					add(eventList, last, uploadId, index);
+				}
+				done = true;
+			} finally {
+				out.close();
+				int committed = sequence - firstSequence - eventList.size() - (pending == null ? 0 : 1);
+				if (sequence == firstSequence || !done && (!streaming || committed == 0)) {
+					// nothing refers to the file; references already committed keep
+					// it until SpillResolver.sweep
+					eventList.clear();
+					file.delete();
+				}
+			}
+		}
 
-				LOGGER.info("############# eventList final size : " + eventList.size());
+		/**
+		 * Adds the event, committing the list first if streaming and it is
+		 * full.
+		 */
+		private void add(List<Event> eventList, Event event, String uploadId, UploadIndex index) throws IOException {
+			eventList.add(event);
+			if (streaming && eventList.size() >= batchSize) {
+				commit(eventList, uploadId, index);
+			}
+		}
 
-			} catch (Exception e) {
-				e.printStackTrace();
-			} finally {
+		/**
+		 * Reads until the buffer, which already holds carry bytes, is full or
+		 * the stream ends.
+		 * 
+		 * @return the number of bytes in the buffer, 0 at the end of the stream
+		 */
+		private int readChunk(InputStream in, byte[] buf, int carry) throws IOException {
+			int index = carry;
+			int bytesRead;
+			while (index < buf.length && (bytesRead = in.read(buf, index, buf.length - index)) >= 0) {
+				index += bytesRead;
+			}
+			return index;
+		}
 
-				in.close();
+		/**
+		 * The length of the full chunk up to and including its last
+		 * delimiter, or the whole chunk if a record fills it.
+		 */
+		private int recordsEnd(ByteBuffer chunk) {
+			for (int end = chunk.limit(); end >= delimiter.length; end--) {
+				int i = 0;
+				while (i < delimiter.length && chunk.get(end - delimiter.length + i) == delimiter[i]) {
+					i++;
+				}
+				if (i == delimiter.length) {
+					return end;
+				}
 			}
+			LOGGER.warn("Record longer than " + blobLength + " bytes, splitting it");
+			return chunk.limit();
+		}
 
-			return eventList;
+		/**
+		 * Puts the events in the channel in one transaction and empties the
+		 * list. A ChannelException leaves the upload failed midway: the chunks
+		 * committed before stay in the channel, and in the upload index if the
+		 * request has an upload id, which then moves past the last event. The
+		 * index is the one the request began with, even if the source has
+		 * stopped since.
+		 */
+		private void commit(List<Event> events, String uploadId, UploadIndex index) throws IOException {
+			if (events.isEmpty()) {
+				return;
+			}
+			counter.addToEventReceivedCount(events.size());
+			counter.incrementAppendBatchReceivedCount();
+			getChannelProcessor().processEventBatch(events);
+			counter.addToEventAcceptedCount(events.size());
+			counter.incrementAppendBatchAcceptedCount();
+			if (uploadId != null) {
+				Map<String, String> last = events.get(events.size() - 1).getHeaders();
+				String spilled = last.get(SpillResolver.LENGTH_HEADER);
+				long length = spilled == null ? events.get(events.size() - 1).getBody().length : Long.parseLong(spilled);
+				index.commit(uploadId, Long.parseLong(last.get(OFFSET_HEADER)) + length,
+						Integer.parseInt(last.get(SEQUENCE_HEADER)) + 1);
+			}
+			events.clear();
 		}
 
 		private Map<String, String> extractHTTPHeaders(HttpServletRequest request) {
@@ -134,7 +504,10 @@ public class ChunkHttpSource extends AbstractSource implements EventDrivenSource
 
 			while (headerNames.hasMoreElements()) {
 				String hName = headerNames.nextElement();
-				httpHeaders.put(hName, request.getHeader(hName));
+				// clients may not forge spill references
+				if (!hName.toLowerCase(Locale.ENGLISH).startsWith("spill.")) {
+					httpHeaders.put(hName, request.getHeader(hName));
+				}
 			}
 			return httpHeaders;
 		}
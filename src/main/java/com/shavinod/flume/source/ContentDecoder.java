@@ -0,0 +1,287 @@
+package com.shavinod.flume.source;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.flume.source.http.HTTPBadRequestException;
+
+/**
+ * Opens HTTP request bodies, decompressing those with a gzip or deflate
+ * Content-Encoding as they are read.
+ *
+ * Each thread keeps its own inflaters and input buffer and reuses them for
+ * every request it serves, so decompressing allocates nothing per request
+ * but the stream itself. To stop decompression bombs, a body that inflates
+ * to more than maxRatio times the compressed bytes read so far (counting at
+ * least one buffer's worth) fails with an HTTPBadRequestException, as do
+ * corrupt and truncated bodies, so all are answered with a 400. Compressed and
+ * uncompressed byte counts, and rejected bodies, are added to the counter
+ * when the stream is closed.
+ */
+class ContentDecoder {
+
+	public static final String MAX_RATIO_KEY = "maxDecompressionRatio";
+	public static final int MAX_RATIO_DEFAULT = 100;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final ThreadLocal<Inflaters> INFLATERS = new ThreadLocal<Inflaters>() {
+		@Override
+		protected Inflaters initialValue() {
+			return new Inflaters();
+		}
+	};
+
+	private final int maxRatio;
+	private final HttpSourceCounter counter;
+
+	ContentDecoder(int maxRatio, HttpSourceCounter counter) {
+		if (maxRatio <= 0) {
+			throw new IllegalArgumentException(MAX_RATIO_KEY + " must be greater than 0: " + maxRatio);
+		}
+		this.maxRatio = maxRatio;
+		this.counter = counter;
+	}
+
+	/**
+	 * The request's body, decompressed if need be. The returned stream must
+	 * be read on the calling thread only and closed before that thread opens
+	 * another.
+	 *
+	 * @throws HTTPBadRequestException
+	 *             for an encoding other than gzip, deflate and identity
+	 */
+	InputStream open(HttpServletRequest request) throws IOException {
+		String encoding = request.getHeader("Content-Encoding");
+		encoding = encoding == null ? "identity" : encoding.trim().toLowerCase(Locale.ENGLISH);
+		if (encoding.equals("identity") || encoding.length() == 0) {
+			return request.getInputStream();
+		}
+		boolean gzip = encoding.equals("gzip") || encoding.equals("x-gzip");
+		if (!gzip && !encoding.equals("deflate")) {
+			throw new HTTPBadRequestException("Unsupported Content-Encoding: " + encoding);
+		}
+		Inflaters inflaters = INFLATERS.get();
+		Inflater inflater = gzip ? inflaters.raw : inflaters.zlib;
+		inflater.reset();
+		InflatingInputStream in = new InflatingInputStream(request.getInputStream(), inflater, inflaters.buffer,
+				gzip);
+		if (gzip) {
+			try {
+				in.readHeader(in.readByte());
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			} catch (RuntimeException e) {
+				in.close();
+				throw e;
+			}
+		}
+		return in;
+	}
+
+	/**
+	 * The per-thread state reused across requests.
+	 */
+	private static class Inflaters {
+		private final Inflater raw = new Inflater(true);
+		private final Inflater zlib = new Inflater();
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+	}
+
+	/**
+	 * Inflates a zlib stream, or a gzip stream of one or more members whose
+	 * headers and trailers it checks, from a borrowed inflater and buffer.
+	 */
+	private class InflatingInputStream extends InputStream {
+
+		private final InputStream in;
+		private final Inflater inflater;
+		private final byte[] buffer;
+		private final boolean gzip;
+		private final CRC32 crc = new CRC32();
+		private int position;
+		private int limit;
+		private long compressed;
+		private long uncompressed;
+		private long memberBytes;
+		private boolean eof;
+		private boolean closed;
+
+		InflatingInputStream(InputStream in, Inflater inflater, byte[] buffer, boolean gzip) {
+			this.in = in;
+			this.inflater = inflater;
+			this.buffer = buffer;
+			this.gzip = gzip;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (!eof) {
+				if (inflater.finished()) {
+					position = limit - inflater.getRemaining();
+					endMember();
+					continue;
+				}
+				if (inflater.needsInput()) {
+					if (position == limit && fill() < 0) {
+						throw new HTTPBadRequestException("Compressed body ends early");
+					}
+					inflater.setInput(buffer, position, limit - position);
+					position = limit;
+				}
+				int inflated;
+				try {
+					inflated = inflater.inflate(b, off, len);
+				} catch (DataFormatException e) {
+					throw new HTTPBadRequestException("Invalid compressed body: " + e.getMessage());
+				}
+				if (inflated > 0) {
+					count(b, off, inflated);
+					return inflated;
+				}
+				if (inflater.needsDictionary()) {
+					throw new HTTPBadRequestException("Compressed body needs a preset dictionary");
+				}
+			}
+			return -1;
+		}
+
+		private void count(byte[] b, int off, int inflated) throws IOException {
+			uncompressed += inflated;
+			if (gzip) {
+				crc.update(b, off, inflated);
+				memberBytes += inflated;
+			}
+			if (uncompressed > (long) maxRatio * Math.max(compressed, buffer.length)) {
+				if (counter != null) {
+					counter.incrementDecompressionRejectedCount();
+				}
+				throw new HTTPBadRequestException("Compressed body inflates more than " + maxRatio + " times");
+			}
+		}
+
+		/**
+		 * Checks the gzip trailer and moves on to the next member, if any.
+		 */
+		private void endMember() throws IOException {
+			if (!gzip) {
+				eof = true;
+				return;
+			}
+			long expectedCrc = readInt();
+			long expectedSize = readInt();
+			if (expectedCrc != crc.getValue() || expectedSize != (memberBytes & 0xffffffffL)) {
+				throw new HTTPBadRequestException("Corrupt gzip trailer");
+			}
+			int next = readByte();
+			if (next < 0) {
+				eof = true;
+				return;
+			}
+			inflater.reset();
+			crc.reset();
+			memberBytes = 0;
+			readHeader(next);
+		}
+
+		/**
+		 * Skips a gzip member header whose first byte has been read.
+		 */
+		void readHeader(int first) throws IOException {
+			if (first != 0x1f || nextByte() != 0x8b) {
+				throw new HTTPBadRequestException("Not in gzip format");
+			}
+			if (nextByte() != 8) {
+				throw new HTTPBadRequestException("Unsupported gzip compression method");
+			}
+			int flags = nextByte();
+			skip(6); // modification time, extra flags, operating system
+			if ((flags & 4) != 0) {
+				skip(nextByte() | nextByte() << 8);
+			}
+			if ((flags & 8) != 0) {
+				skipString();
+			}
+			if ((flags & 16) != 0) {
+				skipString();
+			}
+			if ((flags & 2) != 0) {
+				skip(2);
+			}
+		}
+
+		private void skip(int count) throws IOException {
+			for (int i = 0; i < count; i++) {
+				nextByte();
+			}
+		}
+
+		private void skipString() throws IOException {
+			while (nextByte() != 0) {
+				// zero-terminated
+			}
+		}
+
+		private long readInt() throws IOException {
+			return nextByte() | nextByte() << 8 | nextByte() << 16 | (long) nextByte() << 24;
+		}
+
+		private int nextByte() throws IOException {
+			int next = readByte();
+			if (next < 0) {
+				throw new HTTPBadRequestException("Compressed body ends early");
+			}
+			return next;
+		}
+
+		/**
+		 * The next compressed byte, -1 at the end of the body, which is only
+		 * allowed between gzip members.
+		 */
+		int readByte() throws IOException {
+			if (position == limit && fill() < 0) {
+				return -1;
+			}
+			return buffer[position++] & 0xff;
+		}
+
+		private int fill() throws IOException {
+			int bytesRead = in.read(buffer, 0, buffer.length);
+			if (bytesRead > 0) {
+				compressed += bytesRead;
+				position = 0;
+				limit = bytesRead;
+			}
+			return bytesRead;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (counter != null) {
+				counter.addToCompressedBytesCount(compressed);
+				counter.addToUncompressedBytesCount(uncompressed);
+			}
+			in.close();
+		}
+	}
+}
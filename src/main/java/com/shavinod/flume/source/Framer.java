@@ -0,0 +1,37 @@
+package com.shavinod.flume.source;
+
+import java.nio.ByteBuffer;
+
+import org.apache.flume.Event;
+
+/**
+ * Cuts the byte stream of one netcat connection into events.
+ * 
+ * The input buffer holds unconsumed data between position and limit; a
+ * framer consumes what it has used and leaves the rest for the next call.
+ * Framers keep per-connection state and are not thread-safe.
+ */
+interface Framer {
+
+  /**
+   * Capacity of the read buffer the framer needs.
+   */
+  int getBufferSize();
+
+  /**
+   * Returns the next complete event, advancing the buffer past it, or null
+   * when more data is needed.
+   */
+  Event next(ByteBuffer buffer);
+
+  /**
+   * Whether the stream can no longer be framed, e.g. an event exceeds the
+   * maximum length. Call after {@link #next} returned null.
+   */
+  boolean overflowed(ByteBuffer buffer);
+
+  /**
+   * Why the stream overflowed, sent to the client after "FAILED: ".
+   */
+  String getOverflowMessage();
+}
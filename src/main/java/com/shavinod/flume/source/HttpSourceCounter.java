@@ -0,0 +1,49 @@
+package com.shavinod.flume.source;
+
+import org.apache.flume.instrumentation.SourceCounter;
+
+/**
+ * SourceCounter of the HTTP handlers, which also counts the bytes of
+ * compressed request bodies before and after decompression and the bodies
+ * rejected as decompression bombs.
+ */
+public class HttpSourceCounter extends SourceCounter implements HttpSourceCounterMBean {
+
+	private static final String COUNTER_BYTES_COMPRESSED = "src.http.bytes.compressed";
+	private static final String COUNTER_BYTES_UNCOMPRESSED = "src.http.bytes.uncompressed";
+	private static final String COUNTER_DECOMPRESSION_REJECTED = "src.http.decompression.rejected";
+
+	private static final String[] ATTRIBUTES = { COUNTER_BYTES_COMPRESSED, COUNTER_BYTES_UNCOMPRESSED,
+			COUNTER_DECOMPRESSION_REJECTED };
+
+	public HttpSourceCounter(String name) {
+		super(name, ATTRIBUTES);
+	}
+
+	public long addToCompressedBytesCount(long bytes) {
+		return addAndGet(COUNTER_BYTES_COMPRESSED, bytes);
+	}
+
+	public long addToUncompressedBytesCount(long bytes) {
+		return addAndGet(COUNTER_BYTES_UNCOMPRESSED, bytes);
+	}
+
+	public long incrementDecompressionRejectedCount() {
+		return increment(COUNTER_DECOMPRESSION_REJECTED);
+	}
+
+	@Override
+	public long getCompressedBytesCount() {
+		return get(COUNTER_BYTES_COMPRESSED);
+	}
+
+	@Override
+	public long getUncompressedBytesCount() {
+		return get(COUNTER_BYTES_UNCOMPRESSED);
+	}
+
+	@Override
+	public long getDecompressionRejectedCount() {
+		return get(COUNTER_DECOMPRESSION_REJECTED);
+	}
+}
@@ -0,0 +1,15 @@
+package com.shavinod.flume.source;
+
+import org.apache.flume.instrumentation.SourceCounterMBean;
+
+/**
+ * The JMX view of an {@link HttpSourceCounter}.
+ */
+public interface HttpSourceCounterMBean extends SourceCounterMBean {
+
+	long getCompressedBytesCount();
+
+	long getUncompressedBytesCount();
+
+	long getDecompressionRejectedCount();
+}
@@ -0,0 +1,180 @@
+package com.shavinod.flume.source;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Frames binary events that carry their length up front, so bodies are
+ * copied into exactly sized arrays as they arrive, without scanning.
+ * 
+ * A frame is the body length followed by the body. With headers enabled it
+ * is preceded by a header block: the block's length, then for each header
+ * the key length, key, value length and value, all UTF-8. Lengths are
+ * either unsigned LEB128 varints or 4-byte big-endian ints.
+ * 
+ * Bodies may be larger than the read buffer; header blocks must fit in it.
+ */
+class LengthPrefixFramer implements Framer {
+
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int INCOMPLETE = -1;
+  private static final int MALFORMED = -2;
+
+  private final boolean varint;
+  private final boolean headers;
+  private final int maxFrameLength;
+
+  private Map<String, String> frameHeaders;
+  private byte[] body;
+  private int filled;
+  private String error;
+
+  /**
+   * @param varint varint lengths, else 4-byte big-endian ones
+   * @param headers whether frames start with a header block
+   * @param maxFrameLength maximum body length in bytes
+   */
+  LengthPrefixFramer(boolean varint, boolean headers, int maxFrameLength) {
+    this.varint = varint;
+    this.headers = headers;
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  @Override
+  public int getBufferSize() {
+    return BUFFER_SIZE;
+  }
+
+  @Override
+  public Event next(ByteBuffer buffer) {
+    if (body == null && (error != null || !readHead(buffer))) {
+      return null;
+    }
+    int n = Math.min(buffer.remaining(), body.length - filled);
+    buffer.get(body, filled, n);
+    filled += n;
+    if (filled < body.length) {
+      return null;
+    }
+    Event event = frameHeaders == null ? EventBuilder.withBody(body)
+        : EventBuilder.withBody(body, frameHeaders);
+    body = null;
+    frameHeaders = null;
+    filled = 0;
+    return event;
+  }
+
+  /**
+   * Consumes the header block and body length once all of them are
+   * buffered, and prepares the body array.
+   */
+  private boolean readHead(ByteBuffer buffer) {
+    int start = buffer.position();
+    Map<String, String> parsed = null;
+    if (headers) {
+      long headerLength = readLength(buffer);
+      if (headerLength == INCOMPLETE) {
+        buffer.position(start);
+        return false;
+      }
+      // the block and both lengths have to fit in the buffer at once
+      if (headerLength == MALFORMED || headerLength > BUFFER_SIZE - 10) {
+        error = "Header block exceeds the maximum length ("
+            + (BUFFER_SIZE - 10) + " bytes)";
+        return false;
+      }
+      if (buffer.remaining() < headerLength) {
+        buffer.position(start);
+        return false;
+      }
+      parsed = parseHeaders(buffer, (int) headerLength);
+      if (parsed == null) {
+        error = "Malformed header block";
+        return false;
+      }
+    }
+    long bodyLength = readLength(buffer);
+    if (bodyLength == INCOMPLETE) {
+      buffer.position(start);
+      return false;
+    }
+    if (bodyLength == MALFORMED || bodyLength > maxFrameLength) {
+      error = "Frame exceeds the maximum length (" + maxFrameLength
+          + " bytes)";
+      return false;
+    }
+    frameHeaders = parsed;
+    body = new byte[(int) bodyLength];
+    return true;
+  }
+
+  /**
+   * Reads a length, or returns INCOMPLETE, after which the caller rewinds,
+   * or MALFORMED.
+   */
+  private long readLength(ByteBuffer buffer) {
+    if (!varint) {
+      return buffer.remaining() < 4 ? INCOMPLETE
+          : buffer.getInt() & 0xffffffffL;
+    }
+    long value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      if (!buffer.hasRemaining()) {
+        return INCOMPLETE;
+      }
+      byte b = buffer.get();
+      value |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    return MALFORMED;
+  }
+
+  /**
+   * Parses a header block of the given length, or returns null if it is
+   * malformed. Consumes the block either way.
+   */
+  private Map<String, String> parseHeaders(ByteBuffer buffer, int length) {
+    ByteBuffer block = buffer.slice();
+    block.limit(length);
+    buffer.position(buffer.position() + length);
+    Map<String, String> parsed = new HashMap<String, String>();
+    while (block.hasRemaining()) {
+      String key = readString(block);
+      String value = key == null ? null : readString(block);
+      if (value == null) {
+        return null;
+      }
+      parsed.put(key, value);
+    }
+    return parsed;
+  }
+
+  private String readString(ByteBuffer block) {
+    long length = readLength(block);
+    if (length < 0 || length > block.remaining()) {
+      return null;
+    }
+    byte[] bytes = new byte[(int) length];
+    block.get(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  @Override
+  public boolean overflowed(ByteBuffer buffer) {
+    return error != null;
+  }
+
+  @Override
+  public String getOverflowMessage() {
+    return error;
+  }
+}
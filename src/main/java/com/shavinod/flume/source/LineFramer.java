@@ -0,0 +1,82 @@
+package com.shavinod.flume.source;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Splits newline separated text into events, working on the raw bytes.
+ * 
+ * The input buffer holds unconsumed data between position and limit. Each
+ * byte is scanned for the newline once, however many reads a line arrives
+ * in, and bodies are copied straight out of the buffer. Bodies are UTF-8:
+ * lines in another source encoding are transcoded, which requires that
+ * encoding to represent '\n' as the single byte 0x0A (true of UTF-8,
+ * ASCII and the ISO-8859 family); NetcatSource rejects other encodings
+ * for line framing.
+ * 
+ * One framer serves one connection; it is not thread-safe.
+ */
+class LineFramer implements Framer {
+
+  private final int maxLineLength;
+  private final Charset charset;
+
+  /** Bytes after the buffer's position already known to hold no newline. */
+  private int scanned;
+
+  /**
+   * @param maxLineLength maximum line length in bytes, including newline
+   * @param charset encoding of the incoming text
+   */
+  LineFramer(int maxLineLength, Charset charset) {
+    this.maxLineLength = maxLineLength;
+    this.charset = charset;
+  }
+
+  @Override
+  public int getBufferSize() {
+    return maxLineLength;
+  }
+
+  /**
+   * Returns the next complete line without its newline, advancing the
+   * buffer's position past it, or null when no complete line is buffered.
+   */
+  @Override
+  public Event next(ByteBuffer buffer) {
+    int start = buffer.position();
+    int limit = buffer.limit();
+    for (int pos = start + scanned; pos < limit; pos++) {
+      if (buffer.get(pos) == '\n') {
+        byte[] body = new byte[pos - start];
+        buffer.get(body);
+        buffer.get(); // skip newline
+        scanned = 0;
+        return EventBuilder.withBody(Charsets.UTF_8.equals(charset) ? body
+            : new String(body, charset).getBytes(Charsets.UTF_8));
+      }
+    }
+    scanned = limit - start;
+    return null;
+  }
+
+  /**
+   * Whether the unconsumed data is a line that can no longer end within
+   * the maximum length. Call after {@link #next} returned null.
+   */
+  @Override
+  public boolean overflowed(ByteBuffer buffer) {
+    return buffer.remaining() >= maxLineLength;
+  }
+
+  @Override
+  public String getOverflowMessage() {
+    return "Event exceeds the maximum length (" + maxLineLength
+        + " bytes, including newline)";
+  }
+}
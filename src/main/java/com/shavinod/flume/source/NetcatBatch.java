@@ -0,0 +1,199 @@
+package com.shavinod.flume.source;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.flume.ChannelException;
+import org.apache.flume.Event;
+import org.apache.flume.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lines of one connection waiting to be committed to the channel together.
+ * 
+ * A batch is due once it holds batchSize lines or its oldest line has
+ * waited batchLinger milliseconds. Committing yields the whole batch's
+ * responses as one write: an OK (or FAILED) line per event, in order, as
+ * with per-event commits, or a single "OK n" / "FAILED n: reason" line when
+ * batch acknowledgement is enabled.
+ * 
+ * With backpressure enabled, callers retry a failed commit via
+ * {@link #tryCommit} after the delays from {@link #nextBackoff}, which
+ * double from the minimum up to the maximum, instead of failing the lines.
+ * 
+ * Commits are timed and counted in the source's counter, along with the
+ * events they carry. One batch serves one connection; it is not
+ * thread-safe.
+ */
+class NetcatBatch {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(NetcatBatch.class);
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private final Source source;
+  private final NetcatSourceCounter sourceCounter;
+  private final int batchSize;
+  private final long lingerMillis;
+  private final boolean ackEveryEvent;
+  private final boolean batchAck;
+  private final Charset charset;
+
+  private final List<Event> events;
+  private long deadline;
+  private long accepted;
+
+  private boolean backpressure;
+  private long minBackoff;
+  private long maxBackoff;
+  private long backoff;
+  private ChannelException failure;
+
+  NetcatBatch(Source source, NetcatSourceCounter sourceCounter, int batchSize,
+      long lingerMillis, boolean ackEveryEvent, boolean batchAck,
+      Charset charset) {
+    this.source = source;
+    this.sourceCounter = sourceCounter;
+    this.batchSize = batchSize;
+    this.lingerMillis = lingerMillis;
+    this.ackEveryEvent = ackEveryEvent;
+    this.batchAck = batchAck;
+    this.charset = charset;
+    this.events = new ArrayList<Event>(batchSize);
+  }
+
+  /**
+   * Makes callers retry failed commits, waiting between minBackoff and
+   * maxBackoff milliseconds between attempts.
+   */
+  void enableBackpressure(long minBackoff, long maxBackoff) {
+    this.backpressure = true;
+    this.minBackoff = minBackoff;
+    this.maxBackoff = maxBackoff;
+    this.backoff = minBackoff;
+  }
+
+  boolean isBackpressure() {
+    return backpressure;
+  }
+
+  /**
+   * The delay before the next retry; each call doubles the following one,
+   * up to the maximum.
+   */
+  long nextBackoff() {
+    long delay = backoff;
+    backoff = Math.min(backoff * 2, maxBackoff);
+    return delay;
+  }
+
+  /**
+   * Adds an event and returns whether the batch is now full.
+   */
+  boolean add(Event event, long nowMillis) {
+    if (events.isEmpty()) {
+      deadline = nowMillis + lingerMillis;
+    }
+    events.add(event);
+    sourceCounter.incrementEventReceivedCount();
+    return events.size() >= batchSize;
+  }
+
+  boolean isEmpty() {
+    return events.isEmpty();
+  }
+
+  /**
+   * The number of events of this batch the channel has taken so far.
+   */
+  long getAcceptedCount() {
+    return accepted;
+  }
+
+  /**
+   * When the oldest pending line's linger expires. Only meaningful while
+   * the batch is not empty.
+   */
+  long getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * Whether the batch should be committed now rather than wait for more
+   * lines.
+   */
+  boolean isDue(long nowMillis) {
+    return !events.isEmpty()
+        && (events.size() >= batchSize || nowMillis >= deadline);
+  }
+
+  /**
+   * Commits the pending lines in one channel transaction and returns the
+   * responses to send, possibly none. A failed commit drops the lines and
+   * answers FAILED for them.
+   */
+  byte[] commit() {
+    byte[] responses = tryCommit();
+    if (responses != null) {
+      return responses;
+    }
+    int size = events.size();
+    events.clear();
+    sourceCounter.addToEventFailedCount(size);
+    logger.warn("Error processing event. Exception follows.", failure);
+    String reason = failure.getMessage();
+    failure = null;
+    if (batchAck) {
+      return ("FAILED " + size + ": " + reason + "\n").getBytes(charset);
+    }
+    return repeat(("FAILED: " + reason + "\n").getBytes(charset), size);
+  }
+
+  /**
+   * Commits the pending lines in one channel transaction and returns the
+   * responses to send, possibly none, or returns null and keeps the lines
+   * for another attempt when the channel refuses them.
+   */
+  byte[] tryCommit() {
+    int size = events.size();
+    if (size == 0) {
+      return EMPTY;
+    }
+    long start = System.nanoTime();
+    try {
+      if (size == 1) {
+        source.getChannelProcessor().processEvent(events.get(0));
+      } else {
+        source.getChannelProcessor().processEventBatch(events);
+      }
+    } catch (ChannelException ex) {
+      sourceCounter.recordCommit(size, System.nanoTime() - start, false);
+      failure = ex;
+      return null;
+    }
+    sourceCounter.recordCommit(size, System.nanoTime() - start, true);
+    events.clear();
+    failure = null;
+    backoff = minBackoff;
+    accepted += size;
+
+    if (!ackEveryEvent) {
+      return EMPTY;
+    }
+    if (batchAck) {
+      return ("OK " + size + "\n").getBytes(charset);
+    }
+    return repeat("OK\n".getBytes(charset), size);
+  }
+
+  private static byte[] repeat(byte[] line, int times) {
+    byte[] lines = new byte[line.length * times];
+    for (int i = 0; i < times; i++) {
+      System.arraycopy(line, 0, lines, i * line.length, line.length);
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,510 @@
+package com.shavinod.flume.source;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.flume.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves many netcat connections from one thread with a {@link Selector}.
+ * 
+ * The accept thread hands each new connection over through
+ * {@link #register}; from then on the loop does non-blocking reads, frames
+ * events into per-connection batches, commits them to the channel and queues
+ * the responses, writing them out as the socket accepts them. Batches left
+ * partial by a read are committed when their linger expires, which bounds
+ * the selector's wait, as do the retries of connections paused by
+ * backpressure. Commits run on the source's commit threads, since a full
+ * channel can hold one for its keep-alive: the connection is not read
+ * meanwhile, and the loop picks up the outcome when
+ * the commit thread wakes it, so its other connections keep being served.
+ * Responses and line length limits are the same as in the
+ * blocking handler. A client that does not read its responses stops being
+ * read once MAX_QUEUED_RESPONSE_BYTES of them are queued, much as the
+ * blocking handler blocks on its writes.
+ */
+class NetcatEventLoop implements Runnable {
+
+  private static final Logger logger = LoggerFactory
+      .getLogger(NetcatEventLoop.class);
+
+  /** Queued response bytes beyond which a connection is not read. */
+  static final int MAX_QUEUED_RESPONSE_BYTES = 64 * 1024;
+
+  private final NetcatSource source;
+  private final NetcatSourceCounter sourceCounter;
+  private final Charset charset;
+  private final BufferPool bufferPool;
+  private final ExecutorService commitService;
+
+  private final Selector selector;
+  private final Queue<SocketChannel> pending =
+      new ConcurrentLinkedQueue<SocketChannel>();
+  /** Connections holding a partial batch, all owned by this loop's thread. */
+  private final List<SelectionKey> lingering = new ArrayList<SelectionKey>();
+  /** Connections not read while their batch waits to be retried. */
+  private final List<SelectionKey> paused = new ArrayList<SelectionKey>();
+  /** Outcomes of commits run on the commit threads, not yet picked up. */
+  private final Queue<Commit> committed = new ConcurrentLinkedQueue<Commit>();
+  private volatile boolean shouldStop;
+
+  NetcatEventLoop(NetcatSource source, NetcatSourceCounter sourceCounter,
+      Charset charset) throws IOException {
+    this.source = source;
+    this.sourceCounter = sourceCounter;
+    this.charset = charset;
+    this.bufferPool = source.getBufferPool();
+    this.commitService = source.getCommitService();
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Hands a freshly accepted connection to this loop. Thread-safe.
+   */
+  void register(SocketChannel socketChannel) {
+    pending.add(socketChannel);
+    selector.wakeup();
+  }
+
+  /**
+   * Makes the loop close its connections and exit. Thread-safe.
+   */
+  void stop() {
+    shouldStop = true;
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    logger.debug("Starting event loop");
+    try {
+      while (!shouldStop) {
+        long timeout = selectTimeout();
+        if (timeout < 0) {
+          selector.select();
+        } else if (timeout == 0) {
+          selector.selectNow();
+        } else {
+          selector.select(timeout);
+        }
+        registerPending();
+        finishCommits();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          Connection connection = (Connection) key.attachment();
+          try {
+            if (key.isValid() && key.isReadable()) {
+              read(key, connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+              write(key, connection);
+            }
+          } catch (IOException e) {
+            sourceCounter.incrementSessionBrokenCount();
+            close(key);
+          } catch (RuntimeException e) {
+            // one broken connection must not take the loop's others down
+            logger.error("Unable to serve connection. Exception follows.", e);
+            sourceCounter.incrementSessionBrokenCount();
+            close(key);
+          }
+        }
+        commitLingering();
+        retryPaused();
+      }
+    } catch (IOException e) {
+      logger.error("Event loop failed. Exception follows.", e);
+    } catch (ClosedSelectorException e) {
+      // closed underneath us; nothing left to serve
+    } finally {
+      closeAll();
+    }
+    logger.debug("Event loop exiting");
+  }
+
+  private void registerPending() {
+    SocketChannel socketChannel;
+    while ((socketChannel = pending.poll()) != null) {
+      try {
+        socketChannel.configureBlocking(false);
+        socketChannel.register(selector, SelectionKey.OP_READ,
+            new Connection(source.newFramer(), source.newBatch()));
+        sourceCounter.connectionOpened();
+      } catch (IOException e) {
+        sourceCounter.incrementSessionBrokenCount();
+        closeQuietly(socketChannel);
+      }
+    }
+  }
+
+  private void read(SelectionKey key, Connection connection)
+      throws IOException {
+    if (connection.in == null) {
+      connection.in = bufferPool.lease();
+    }
+    SocketChannel socketChannel = (SocketChannel) key.channel();
+    int bytesRead = socketChannel.read(connection.in);
+    if (bytesRead > 0) {
+      connection.bytes += bytesRead;
+      sourceCounter.addToBytesReceivedCount(bytesRead);
+    } else if (bytesRead == -1) {
+      connection.eof = true;
+    }
+    process(key, connection);
+  }
+
+  /**
+   * Frames and commits the buffered lines, stopping early if the channel
+   * pushes back, then answers the client.
+   */
+  private void process(SelectionKey key, Connection connection)
+      throws IOException {
+    connection.in.flip();
+    long now = System.currentTimeMillis();
+    NetcatBatch batch = connection.batch;
+    Event event;
+    while (!connection.isBlocked()
+        && (event = connection.framer.next(connection.in)) != null) {
+      if (batch.add(event, now)) {
+        commit(key, connection, now);
+      }
+    }
+    boolean overflowed = !connection.isBlocked()
+        && connection.framer.overflowed(connection.in);
+    connection.in.compact();
+
+    if (!connection.isBlocked()) {
+      if (overflowed || connection.eof || batch.isDue(now)) {
+        commit(key, connection, now);
+      } else if (!batch.isEmpty() && !connection.lingering) {
+        connection.lingering = true;
+        lingering.add(key);
+      }
+    }
+    if (connection.isBlocked()) {
+      // the rest, EOF and overflow included, is handled on resume
+      write(key, connection);
+      return;
+    }
+    if (connection.in.position() == 0) {
+      // idle: nothing buffered, so give the buffer back until the next read
+      bufferPool.release(connection.in);
+      connection.in = null;
+    }
+
+    if (overflowed) {
+      logger.warn("Client sent an unframeable stream: {}",
+          connection.framer.getOverflowMessage());
+      sourceCounter.addToEventFailedCount(1);
+      connection.queue(("FAILED: " + connection.framer.getOverflowMessage()
+          + "\n").getBytes(charset));
+      connection.closing = true;
+    } else if (connection.eof) {
+      sourceCounter.incrementSessionCompletedCount();
+      connection.closing = true;
+    }
+    write(key, connection);
+  }
+
+  /**
+   * Commits the connection's batch. The commit is handed to a commit thread
+   * and the connection is not read until it completes. Under backpressure a
+   * refused batch then pauses the connection instead of failing: it stays
+   * unread, so TCP flow control slows the sender, until a retry gets the
+   * batch in.
+   */
+  private void commit(SelectionKey key, Connection connection, long now) {
+    if (!connection.batch.isEmpty()) {
+      submit(key, connection);
+    }
+  }
+
+  /**
+   * Runs the connection's batch commit on a commit thread, which queues the
+   * outcome for {@link #finishCommits} and wakes the loop. The batch is left
+   * to that thread until then.
+   */
+  private void submit(final SelectionKey key, final Connection connection) {
+    connection.committing = true;
+    try {
+      commitService.submit(new Runnable() {
+        @Override
+        public void run() {
+          NetcatBatch batch = connection.batch;
+          committed.add(new Commit(key, batch.isBackpressure()
+              ? batch.tryCommit() : batch.commit()));
+          selector.wakeup();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the source is stopping; the connection is closed with the others
+    }
+  }
+
+  /**
+   * Answers the connections whose commit got in and carries on with their
+   * buffered lines; pauses those whose batch was refused until their next
+   * retry.
+   */
+  private void finishCommits() {
+    long now = System.currentTimeMillis();
+    Commit commit;
+    while ((commit = committed.poll()) != null) {
+      SelectionKey key = commit.key;
+      Connection connection = (Connection) key.attachment();
+      connection.committing = false;
+      if (!key.isValid()) {
+        continue;
+      }
+      if (commit.responses == null) {
+        if (!connection.paused) {
+          connection.paused = true;
+          connection.pausedAt = now;
+          paused.add(key);
+          sourceCounter.connectionPaused();
+        }
+        connection.retryAt = now + connection.batch.nextBackoff();
+        continue;
+      }
+      if (connection.paused) {
+        paused.remove(key);
+        resume(connection, now);
+      }
+      connection.queue(commit.responses);
+      try {
+        if (connection.in == null) {
+          // a lingering batch: its buffer went back to the pool when idle
+          connection.in = bufferPool.lease();
+        }
+        process(key, connection);
+      } catch (IOException e) {
+        sourceCounter.incrementSessionBrokenCount();
+        close(key);
+      } catch (RuntimeException e) {
+        logger.error("Unable to serve connection. Exception follows.", e);
+        sourceCounter.incrementSessionBrokenCount();
+        close(key);
+      }
+    }
+  }
+
+  private void resume(Connection connection, long now) {
+    connection.paused = false;
+    sourceCounter.connectionResumed(now - connection.pausedAt);
+  }
+
+  /**
+   * Milliseconds until the earliest pending batch is due or paused
+   * connection retries, 0 if one already is, or -1 when there is none;
+   * commits in progress wake the loop themselves.
+   */
+  private long selectTimeout() {
+    if (lingering.isEmpty() && paused.isEmpty()) {
+      return -1;
+    }
+    long earliest = Long.MAX_VALUE;
+    for (SelectionKey key : lingering) {
+      earliest = Math.min(earliest,
+          ((Connection) key.attachment()).batch.getDeadline());
+    }
+    for (SelectionKey key : paused) {
+      Connection connection = (Connection) key.attachment();
+      if (!connection.committing) {
+        earliest = Math.min(earliest, connection.retryAt);
+      }
+    }
+    if (earliest == Long.MAX_VALUE) {
+      return -1;
+    }
+    return Math.max(0, earliest - System.currentTimeMillis());
+  }
+
+  /**
+   * Commits the partial batches whose linger has expired. Blocked
+   * connections are dropped from the list; they rejoin it, if need be, when
+   * they resume.
+   */
+  private void commitLingering() {
+    long now = System.currentTimeMillis();
+    for (int i = lingering.size() - 1; i >= 0; i--) {
+      SelectionKey key = lingering.get(i);
+      Connection connection = (Connection) key.attachment();
+      if (key.isValid() && !connection.isBlocked()
+          && !connection.batch.isEmpty() && !connection.batch.isDue(now)) {
+        continue;
+      }
+      lingering.remove(i);
+      connection.lingering = false;
+      if (key.isValid() && !connection.isBlocked()
+          && !connection.batch.isEmpty()) {
+        commit(key, connection, now);
+        try {
+          write(key, connection);
+        } catch (IOException e) {
+          sourceCounter.incrementSessionBrokenCount();
+          close(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Retries the batches of paused connections whose backoff has elapsed;
+   * {@link #finishCommits} resumes those that get in.
+   */
+  private void retryPaused() {
+    long now = System.currentTimeMillis();
+    for (int i = paused.size() - 1; i >= 0; i--) {
+      SelectionKey key = paused.get(i);
+      Connection connection = (Connection) key.attachment();
+      if (!key.isValid()) {
+        paused.remove(i);
+        continue;
+      }
+      if (!connection.committing && now >= connection.retryAt) {
+        submit(key, connection);
+      }
+    }
+  }
+
+  /**
+   * Writes as much queued response data as the socket takes, waiting for
+   * writability when some is left, and closes a closing connection once
+   * everything has been written. Paused or committing connections are not
+   * read, nor are those with too many responses still queued.
+   */
+  private void write(SelectionKey key, Connection connection)
+      throws IOException {
+    connection.out.flip();
+    if (connection.out.hasRemaining()) {
+      ((SocketChannel) key.channel()).write(connection.out);
+    }
+    boolean drained = !connection.out.hasRemaining();
+    connection.out.compact();
+
+    if (drained && connection.closing) {
+      close(key);
+      return;
+    }
+    int ops = connection.closing || connection.isBlocked()
+        || connection.out.position() > MAX_QUEUED_RESPONSE_BYTES ? 0
+        : SelectionKey.OP_READ;
+    key.interestOps(drained ? ops : ops | SelectionKey.OP_WRITE);
+  }
+
+  private void close(SelectionKey key) {
+    Connection connection = (Connection) key.attachment();
+    if (connection != null && connection.paused) {
+      resume(connection, System.currentTimeMillis());
+    }
+    if (connection != null && connection.in != null) {
+      bufferPool.release(connection.in);
+      connection.in = null;
+    }
+    if (connection != null) {
+      sourceCounter.connectionClosed(connection.bytes,
+          connection.batch.getAcceptedCount());
+    }
+    key.cancel();
+    closeQuietly(key.channel());
+  }
+
+  private void closeAll() {
+    SocketChannel socketChannel;
+    while ((socketChannel = pending.poll()) != null) {
+      closeQuietly(socketChannel);
+    }
+    try {
+      for (SelectionKey key : selector.keys()) {
+        close(key);
+      }
+      selector.close();
+    } catch (ClosedSelectorException e) {
+      // already closed
+    } catch (IOException e) {
+      logger.error("Unable to close selector. Exception follows.", e);
+    }
+  }
+
+  private static void closeQuietly(Channel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      logger.error("Unable to close socket channel. Exception follows.", e);
+    }
+  }
+
+  /**
+   * Per-connection read buffer, framer, batch, pending responses and byte
+   * count.
+   */
+  private static class Connection {
+
+    /** Leased from the pool while the connection has unconsumed data. */
+    private ByteBuffer in;
+    private final Framer framer;
+    private final NetcatBatch batch;
+    private ByteBuffer out = ByteBuffer.allocate(64);
+    private boolean closing;
+    private boolean eof;
+    private boolean lingering;
+    private boolean paused;
+    private boolean committing;
+    private long pausedAt;
+    private long retryAt;
+    private long bytes;
+
+    Connection(Framer framer, NetcatBatch batch) {
+      this.framer = framer;
+      this.batch = batch;
+    }
+
+    /** Whether reading and framing wait for a commit or a retry. */
+    boolean isBlocked() {
+      return paused || committing;
+    }
+
+    void queue(byte[] response) {
+      if (out.remaining() < response.length) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2,
+            out.position() + response.length));
+        out.flip();
+        grown.put(out);
+        out = grown;
+      }
+      out.put(response);
+    }
+  }
+
+  /**
+   * The outcome of a commit run on a commit thread: the responses, or null
+   * if the channel refused the batch.
+   */
+  private static class Commit {
+
+    private final SelectionKey key;
+    private final byte[] responses;
+
+    Commit(SelectionKey key, byte[] responses) {
+      this.key = key;
+      this.responses = responses;
+    }
+  }
+}
@@ -1,38 +1,36 @@
 package com.shavinod.flume.source;
 import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
-import java.net.SocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.channels.Channels;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.apache.flume.ChannelException;
 import org.apache.flume.Context;
-import org.apache.flume.CounterGroup;
 import org.apache.flume.Event;
 import org.apache.flume.EventDrivenSource;
 import org.apache.flume.FlumeException;
-import org.apache.flume.Source;
-import org.apache.flume.channel.ChannelProcessor;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.conf.Configurables;
-import org.apache.flume.event.EventBuilder;
-import org.apache.flume.lifecycle.LifecycleState;
 import org.apache.flume.source.AbstractSource;
 import org.apache.flume.source.NetcatSourceConfigurationConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Charsets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
@@ -73,16 +71,117 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * 
  * 
  * max-line-length
- * The maximum # of chars a line can be per event (including newline).
- * Number of UTF-8 characters / int
+ * The maximum # of bytes a line can be per event (including newline).
+ * Number of bytes / int
  * 512
  * 
  * 
+ * mode
+ * blocking serves each connection on its own pooled thread; virtual does
+ * the same on a virtual thread per connection where the JVM (21+) has
+ * them, falling back to blocking; selector serves all connections from a
+ * fixed set of non-blocking event loops.
+ * blocking, virtual or selector / String
+ * blocking
+ * 
+ * 
+ * selector-threads
+ * Number of event loop threads in selector mode.
+ * Threads / int
+ * number of available processors
+ * 
+ * 
+ * batchSize
+ * Maximum number of lines committed to the channel in one transaction
+ * and acknowledged with one write.
+ * Lines / int
+ * 1
+ * 
+ * 
+ * batchLinger
+ * How long a partial batch waits for more lines before it is committed.
+ * 0 commits whatever a read delivered.
+ * Milliseconds / int
+ * 0
+ * 
+ * 
+ * batchAck
+ * Acknowledge each batch with one "OK n" line instead of one "OK" per
+ * event; failures likewise become one "FAILED n: reason" line.
+ * Boolean
+ * false
+ * 
+ * 
+ * backpressure
+ * When the channel is full, stop reading the connection and retry the
+ * batch after backoffMin, doubling up to backoffMax, instead of answering
+ * FAILED. Paused connections, pauses and their duration are counted.
+ * In selector mode the commits run on a pool of commit threads, one per
+ * event loop, so a commit waiting on a full channel does not hold up the
+ * loop's other connections.
+ * Boolean
+ * false
+ * 
+ * 
+ * backoffMin / backoffMax
+ * Delays between backpressure retries.
+ * Milliseconds / int
+ * 10 / 1000
+ * 
+ * 
+ * acceptors
+ * Number of listening sockets, each with its own accept thread and, in
+ * selector mode, its own share of the event loops. More than one needs
+ * SO_REUSEPORT (Java 9+ on Linux and the BSDs) and falls back to one
+ * otherwise.
+ * Sockets / int
+ * 1
+ * 
+ * 
+ * framing
+ * line: newline separated text. varint or int32: binary frames, each a
+ * length (unsigned LEB128 varint or 4-byte big-endian int) followed by
+ * that many body bytes, read without scanning.
+ * line, varint or int32 / String
+ * line
+ * 
+ * 
+ * frameHeaders
+ * Binary frames start with a header block: its length, then the length
+ * and UTF-8 bytes of each key and value. The block must fit in 64 KiB.
+ * Boolean
+ * false
+ * 
+ * 
+ * maxFrameLength
+ * The maximum body length of a binary frame.
+ * Number of bytes / int
+ * 1048576
+ * 
+ * 
+ * bufferPoolSize
+ * The most read buffers kept for connections to lease while they have
+ * unread data. Each is max-line-length bytes for line framing, else
+ * 64 KiB. They are direct, except in the blocking and virtual modes with a
+ * batchLinger, whose timed reads go through the socket's stream and so use
+ * pooled heap buffers. Connections beyond that use unpooled heap buffers.
+ * Buffers / int
+ * 256
+ * 
+ * 
  * 
  * Metrics
  * 
  * 
- * TODO
+ * A {@link NetcatSourceCounter}, registered with JMX as
+ * org.apache.flume.source:type=&lt;source name&gt;, holds the standard
+ * source counters (one-event commits count as appends, larger ones as append
+ * batches, and OpenConnectionCount is the number of connections being
+ * served) along with bytes received, failed events, accepted connections,
+ * completed and broken sessions, backpressure pauses and their duration,
+ * the 50th and 99th percentile and maximum of the channel commit latency
+ * and of the bytes and events per connection, and the buffer pool's
+ * allocated buffers, bytes in use and hit rate.
  * 
  */
 public class NetcatSource extends AbstractSource implements Configurable,
@@ -96,18 +195,35 @@ public class NetcatSource extends AbstractSource implements Configurable,
   private int maxLineLength;
   private boolean ackEveryEvent;
   private String sourceEncoding;
-
-  private CounterGroup counterGroup;
-  private ServerSocketChannel serverSocket;
+  private Charset charset;
+  private boolean selectorMode;
+  private boolean virtualMode;
+  private int selectorThreads;
+  private int batchSize;
+  private int batchLinger;
+  private boolean batchAck;
+  private boolean backpressure;
+  private int minBackoff;
+  private int maxBackoff;
+  private int acceptors;
+  private String framing;
+  private int bufferPoolSize;
+  private BufferPool bufferPool;
+  private boolean frameHeaders;
+  private int maxFrameLength;
+
+  private NetcatSourceCounter sourceCounter;
+  private ServerSocketChannel[] serverSockets;
   private AtomicBoolean acceptThreadShouldStop;
-  private Thread acceptThread;
+  private Thread[] acceptThreads;
   private ExecutorService handlerService;
+  private ExecutorService commitService;
+  private NetcatEventLoop[] eventLoops;
 
   public NetcatSource() {
     super();
 
     port = 0;
-    counterGroup = new CounterGroup();
     acceptThreadShouldStop = new AtomicBoolean(false);
   }
 
@@ -119,6 +235,10 @@ public class NetcatSource extends AbstractSource implements Configurable,
 
     Configurables.ensureRequiredNonNull(context, hostKey, portKey);
 
+    if (sourceCounter == null) {
+      sourceCounter = new NetcatSourceCounter(getName());
+    }
+
     hostName = context.getString(hostKey);
     port = context.getInteger(portKey);
     ackEveryEvent = context.getBoolean(ackEventKey, true);
@@ -129,6 +249,145 @@ public class NetcatSource extends AbstractSource implements Configurable,
         NetcatSourceConfigurationConstants.CONFIG_SOURCE_ENCODING,
         NetcatSourceConfigurationConstants.DEFAULT_ENCODING
     );
+    charset = Charset.forName(sourceEncoding);
+
+    String mode = context.getString(NetcatSourceConstants.CONFIG_MODE,
+        NetcatSourceConstants.DEFAULT_MODE);
+    if (!NetcatSourceConstants.MODE_BLOCKING.equals(mode)
+        && !NetcatSourceConstants.MODE_VIRTUAL.equals(mode)
+        && !NetcatSourceConstants.MODE_SELECTOR.equals(mode)) {
+      throw new IllegalArgumentException(NetcatSourceConstants.CONFIG_MODE
+          + " must be " + NetcatSourceConstants.MODE_BLOCKING + ", "
+          + NetcatSourceConstants.MODE_VIRTUAL + " or "
+          + NetcatSourceConstants.MODE_SELECTOR + ": " + mode);
+    }
+    selectorMode = NetcatSourceConstants.MODE_SELECTOR.equals(mode);
+    virtualMode = NetcatSourceConstants.MODE_VIRTUAL.equals(mode);
+    selectorThreads = context.getInteger(
+        NetcatSourceConstants.CONFIG_SELECTOR_THREADS,
+        Runtime.getRuntime().availableProcessors());
+    if (selectorThreads <= 0) {
+      throw new IllegalArgumentException(
+          NetcatSourceConstants.CONFIG_SELECTOR_THREADS
+          + " must be greater than 0: " + selectorThreads);
+    }
+
+    batchSize = context.getInteger(NetcatSourceConstants.CONFIG_BATCH_SIZE,
+        NetcatSourceConstants.DEFAULT_BATCH_SIZE);
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException(
+          NetcatSourceConstants.CONFIG_BATCH_SIZE
+          + " must be greater than 0: " + batchSize);
+    }
+    batchLinger = context.getInteger(NetcatSourceConstants.CONFIG_BATCH_LINGER,
+        NetcatSourceConstants.DEFAULT_BATCH_LINGER);
+    if (batchLinger < 0) {
+      throw new IllegalArgumentException(
+          NetcatSourceConstants.CONFIG_BATCH_LINGER
+          + " must not be negative: " + batchLinger);
+    }
+    batchAck = context.getBoolean(NetcatSourceConstants.CONFIG_BATCH_ACK,
+        false);
+
+    backpressure = context.getBoolean(NetcatSourceConstants.CONFIG_BACKPRESSURE,
+        false);
+    minBackoff = context.getInteger(NetcatSourceConstants.CONFIG_MIN_BACKOFF,
+        NetcatSourceConstants.DEFAULT_MIN_BACKOFF);
+    maxBackoff = context.getInteger(NetcatSourceConstants.CONFIG_MAX_BACKOFF,
+        NetcatSourceConstants.DEFAULT_MAX_BACKOFF);
+    if (minBackoff <= 0 || maxBackoff < minBackoff) {
+      throw new IllegalArgumentException(
+          NetcatSourceConstants.CONFIG_MIN_BACKOFF + " must be greater than 0"
+          + " and no more than " + NetcatSourceConstants.CONFIG_MAX_BACKOFF
+          + ": " + minBackoff + ", " + maxBackoff);
+    }
+
+    acceptors = context.getInteger(NetcatSourceConstants.CONFIG_ACCEPTORS,
+        NetcatSourceConstants.DEFAULT_ACCEPTORS);
+    if (acceptors <= 0) {
+      throw new IllegalArgumentException(NetcatSourceConstants.CONFIG_ACCEPTORS
+          + " must be greater than 0: " + acceptors);
+    }
+
+    framing = context.getString(NetcatSourceConstants.CONFIG_FRAMING,
+        NetcatSourceConstants.FRAMING_LINE);
+    if (!NetcatSourceConstants.FRAMING_LINE.equals(framing)
+        && !NetcatSourceConstants.FRAMING_VARINT.equals(framing)
+        && !NetcatSourceConstants.FRAMING_INT32.equals(framing)) {
+      throw new IllegalArgumentException(NetcatSourceConstants.CONFIG_FRAMING
+          + " must be " + NetcatSourceConstants.FRAMING_LINE + ", "
+          + NetcatSourceConstants.FRAMING_VARINT + " or "
+          + NetcatSourceConstants.FRAMING_INT32 + ": " + framing);
+    }
+    frameHeaders = context.getBoolean(
+        NetcatSourceConstants.CONFIG_FRAME_HEADERS, false);
+    if (NetcatSourceConstants.FRAMING_LINE.equals(framing)
+        && !Arrays.equals("\n".getBytes(charset), new byte[] { '\n' })) {
+      // LineFramer scans the raw bytes for 0x0A
+      throw new IllegalArgumentException(
+          NetcatSourceConfigurationConstants.CONFIG_SOURCE_ENCODING
+          + " must encode a newline as the single byte 0x0A for line"
+          + " framing: " + sourceEncoding);
+    }
+    maxFrameLength = context.getInteger(
+        NetcatSourceConstants.CONFIG_MAX_FRAME_LENGTH,
+        NetcatSourceConstants.DEFAULT_MAX_FRAME_LENGTH);
+    if (maxFrameLength < 0) {
+      throw new IllegalArgumentException(
+          NetcatSourceConstants.CONFIG_MAX_FRAME_LENGTH
+          + " must not be negative: " + maxFrameLength);
+    }
+
+    bufferPoolSize = context.getInteger(
+        NetcatSourceConstants.CONFIG_BUFFER_POOL_SIZE,
+        NetcatSourceConstants.DEFAULT_BUFFER_POOL_SIZE);
+    if (bufferPoolSize < 0) {
+      throw new IllegalArgumentException(
+          NetcatSourceConstants.CONFIG_BUFFER_POOL_SIZE
+          + " must not be negative: " + bufferPoolSize);
+    }
+  }
+
+  NetcatSourceCounter getSourceCounter() {
+    return sourceCounter;
+  }
+
+  /**
+   * A framer for one connection, as configured.
+   */
+  Framer newFramer() {
+    if (NetcatSourceConstants.FRAMING_LINE.equals(framing)) {
+      return new LineFramer(maxLineLength, charset);
+    }
+    return new LengthPrefixFramer(
+        NetcatSourceConstants.FRAMING_VARINT.equals(framing), frameHeaders,
+        maxFrameLength);
+  }
+
+  /**
+   * The read buffers connections lease while they hold data.
+   */
+  BufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * Where event loops run their commits, or null outside selector mode.
+   */
+  ExecutorService getCommitService() {
+    return commitService;
+  }
+
+  /**
+   * A batch for one connection, as configured.
+   */
+  NetcatBatch newBatch() {
+    NetcatBatch batch = new NetcatBatch(this, sourceCounter, batchSize,
+        batchLinger, ackEveryEvent, batchAck, charset);
+    if (backpressure) {
+      batch.enableBackpressure(minBackoff, maxBackoff);
+    }
+    return batch;
   }
 
   @Override
@@ -136,41 +395,218 @@ public class NetcatSource extends AbstractSource implements Configurable,
 
     logger.info("Source starting");
 
-    counterGroup.incrementAndGet("open.attempts");
+    sourceCounter.start();
+
+    // timed reads in the handlers need the buffer's array
+    bufferPool = new BufferPool(newFramer().getBufferSize(), bufferPoolSize,
+        selectorMode || batchLinger == 0);
+    sourceCounter.setBufferPool(bufferPool);
+
+    if (selectorMode) {
+      handlerService = Executors.newFixedThreadPool(Math.max(selectorThreads,
+          acceptors),
+          new ThreadFactoryBuilder().setNameFormat("netcat-selector-%d")
+          .build());
+      commitService = Executors.newFixedThreadPool(Math.max(selectorThreads,
+          acceptors),
+          new ThreadFactoryBuilder().setNameFormat("netcat-commit-%d")
+          .build());
+    } else {
+      handlerService = virtualMode ? newVirtualThreadExecutor() : null;
+      if (virtualMode && handlerService == null) {
+        logger.warn("Virtual threads are not available in this JVM, using"
+            + " pooled threads");
+      }
+      if (handlerService == null) {
+        handlerService = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("netcat-handler-%d")
+            .build());
+      }
+    }
+
+    bind();
+
+    NetcatEventLoop[][] groups = new NetcatEventLoop[serverSockets.length][];
+    if (selectorMode) {
+      eventLoops = new NetcatEventLoop[Math.max(selectorThreads,
+          serverSockets.length)];
+      try {
+        for (int i = 0; i < eventLoops.length; i++) {
+          eventLoops[i] = new NetcatEventLoop(this, sourceCounter,
+              charset);
+          handlerService.submit(eventLoops[i]);
+        }
+      } catch (IOException e) {
+        logger.error("Unable to open selector. Exception follows.", e);
+        stop();
+        throw new FlumeException(e);
+      }
+      // each acceptor feeds its own share of the event loops
+      for (int i = 0; i < groups.length; i++) {
+        groups[i] = new NetcatEventLoop[(eventLoops.length - i - 1)
+            / groups.length + 1];
+        for (int j = 0; j < groups[i].length; j++) {
+          groups[i][j] = eventLoops[i + j * groups.length];
+        }
+      }
+    }
+
+    acceptThreadShouldStop.set(false);
+    acceptThreads = new Thread[serverSockets.length];
+    for (int i = 0; i < acceptThreads.length; i++) {
+      AcceptHandler acceptRunnable = new AcceptHandler();
+      acceptRunnable.sourceCounter = sourceCounter;
+      acceptRunnable.handlerService = handlerService;
+      acceptRunnable.shouldStop = acceptThreadShouldStop;
+      acceptRunnable.source = this;
+      acceptRunnable.serverSocket = serverSockets[i];
+      acceptRunnable.charset = charset;
+      acceptRunnable.eventLoops = groups[i];
+
+      acceptThreads[i] = new Thread(acceptRunnable, "netcat-acceptor-" + i);
+      acceptThreads[i].start();
+    }
 
-    handlerService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
-        .setNameFormat("netcat-handler-%d").build());
+    logger.debug("Source started");
+    super.start();
+  }
 
+  /**
+   * Opens the listening sockets: one, or with several acceptors as many
+   * sharing the port through SO_REUSEPORT, so that the kernel spreads new
+   * connections across them. Falls back to one socket where the JVM (before
+   * 9) or the platform lacks SO_REUSEPORT. The option is set reflectively,
+   * as socket options only exist from Java 7.
+   */
+  private void bind() {
+    List<ServerSocketChannel> sockets = new ArrayList<ServerSocketChannel>();
     try {
-      SocketAddress bindPoint = new InetSocketAddress(hostName, port);
+      ServerSocketChannel first = ServerSocketChannel.open();
+      sockets.add(first);
+      Object reusePort = null;
+      if (acceptors > 1) {
+        reusePort = reusePortOption(first);
+        if (reusePort == null) {
+          logger.warn("SO_REUSEPORT is not supported, using one acceptor"
+              + " instead of " + acceptors);
+          reusePort = null;
+        }
+      }
 
-      serverSocket = ServerSocketChannel.open();
-      serverSocket.socket().setReuseAddress(true);
-      serverSocket.socket().bind(bindPoint);
+      int bindPort = port;
+      for (int i = 0; i < (reusePort == null ? 1 : acceptors); i++) {
+        ServerSocketChannel serverSocket = i == 0 ? first
+            : ServerSocketChannel.open();
+        if (i > 0) {
+          sockets.add(serverSocket);
+        }
+        serverSocket.socket().setReuseAddress(true);
+        if (reusePort != null) {
+          setOption(serverSocket, reusePort, true);
+        }
+        // later sockets join the port the first one got, even if ephemeral
+        serverSocket.socket().bind(new InetSocketAddress(hostName, bindPort));
+        bindPort = serverSocket.socket().getLocalPort();
 
-      logger.info("Created serverSocket:{}", serverSocket);
+        logger.info("Created serverSocket:{}", serverSocket);
+      }
     } catch (IOException e) {
-      counterGroup.incrementAndGet("open.errors");
+      sourceCounter.incrementOpenErrorCount();
       logger.error("Unable to bind to socket. Exception follows.", e);
+      for (ServerSocketChannel serverSocket : sockets) {
+        try {
+          serverSocket.close();
+        } catch (IOException ex) {
+          logger.error("Unable to close socket. Exception follows.", ex);
+        }
+      }
       throw new FlumeException(e);
     }
+    serverSockets = sockets.toArray(new ServerSocketChannel[sockets.size()]);
+  }
+
+  /**
+   * StandardSocketOptions.SO_REUSEPORT, looked up reflectively since it
+   * only exists from Java 9, or null if it is missing or the socket does
+   * not support it.
+   */
+  private static Object reusePortOption(ServerSocketChannel serverSocket) {
+    try {
+      Object option = Class.forName("java.net.StandardSocketOptions")
+          .getField("SO_REUSEPORT").get(null);
+      Method supportedOptions = Class.forName(
+          "java.nio.channels.NetworkChannel").getMethod("supportedOptions");
+      return ((Set<?>) supportedOptions.invoke(serverSocket))
+          .contains(option) ? option : null;
+    } catch (ClassNotFoundException e) {
+      return null;
+    } catch (NoSuchFieldException e) {
+      return null;
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (IllegalAccessException e) {
+      return null;
+    } catch (InvocationTargetException e) {
+      return null;
+    }
+  }
 
-    AcceptHandler acceptRunnable = new AcceptHandler(maxLineLength);
-    acceptThreadShouldStop.set(false);
-    acceptRunnable.counterGroup = counterGroup;
-    acceptRunnable.handlerService = handlerService;
-    acceptRunnable.shouldStop = acceptThreadShouldStop;
-    acceptRunnable.ackEveryEvent = ackEveryEvent;
-    acceptRunnable.source = this;
-    acceptRunnable.serverSocket = serverSocket;
-    acceptRunnable.sourceEncoding = sourceEncoding;
+  /**
+   * NetworkChannel.setOption, called reflectively since it only exists
+   * from Java 7.
+   */
+  private static void setOption(ServerSocketChannel serverSocket,
+      Object option, Object value) throws IOException {
+    try {
+      Class.forName("java.nio.channels.NetworkChannel")
+          .getMethod("setOption",
+              Class.forName("java.net.SocketOption"), Object.class)
+          .invoke(serverSocket, option, value);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    } catch (NoSuchMethodException e) {
+      throw new IOException(e);
+    } catch (IllegalAccessException e) {
+      throw new IOException(e);
+    }
+  }
 
-    acceptThread = new Thread(acceptRunnable);
+  /**
+   * Executors.newVirtualThreadPerTaskExecutor(), looked up reflectively
+   * since it only exists from Java 21 (19 and 20 with preview features
+   * enabled), or null.
+   */
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (IllegalAccessException e) {
+      return null;
+    } catch (InvocationTargetException e) {
+      // preview features disabled
+      return null;
+    }
+  }
 
-    acceptThread.start();
+  /**
+   * Whether connections are handled on virtual threads, once started.
+   */
+  boolean isVirtual() {
+    return virtualMode && !(handlerService instanceof ThreadPoolExecutor);
+  }
 
-    logger.debug("Source started");
-    super.start();
+  /**
+   * The number of listening sockets in use.
+   */
+  int getAcceptorCount() {
+    return serverSockets == null ? 0 : serverSockets.length;
   }
 
   @Override
@@ -179,31 +615,46 @@ public class NetcatSource extends AbstractSource implements Configurable,
 
     acceptThreadShouldStop.set(true);
 
-    if (acceptThread != null) {
-      logger.debug("Stopping accept handler thread");
+    if (acceptThreads != null) {
+      logger.debug("Stopping accept handler threads");
+
+      for (Thread acceptThread : acceptThreads) {
+        while (acceptThread.isAlive()) {
+          try {
+            logger.debug("Waiting for accept handler to finish");
+            acceptThread.interrupt();
+            acceptThread.join(500);
+          } catch (InterruptedException e) {
+            logger
+                .debug("Interrupted while waiting for accept handler to finish");
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+      acceptThreads = null;
+
+      logger.debug("Stopped accept handler threads");
+    }
 
-      while (acceptThread.isAlive()) {
+    if (serverSockets != null) {
+      for (ServerSocketChannel serverSocket : serverSockets) {
         try {
-          logger.debug("Waiting for accept handler to finish");
-          acceptThread.interrupt();
-          acceptThread.join(500);
-        } catch (InterruptedException e) {
-          logger
-              .debug("Interrupted while waiting for accept handler to finish");
-          Thread.currentThread().interrupt();
+          serverSocket.close();
+        } catch (IOException e) {
+          // keep going: the rest of the source must still be stopped
+          logger.error("Unable to close socket. Exception follows.", e);
         }
       }
-
-      logger.debug("Stopped accept handler thread");
+      serverSockets = null;
     }
 
-    if (serverSocket != null) {
-      try {
-        serverSocket.close();
-      } catch (IOException e) {
-        logger.error("Unable to close socket. Exception follows.", e);
-        return;
+    if (eventLoops != null) {
+      for (NetcatEventLoop eventLoop : eventLoops) {
+        if (eventLoop != null) {
+          eventLoop.stop();
+        }
       }
+      eventLoops = null;
     }
 
     if (handlerService != null) {
@@ -211,41 +662,52 @@ public class NetcatSource extends AbstractSource implements Configurable,
 
       logger.debug("Waiting for handler service to stop");
 
-      // wait 500ms for threads to stop
+      // wait 500ms for threads to stop, then interrupt them, which also
+      // ends the waits of handlers paused by backpressure
       try {
-        handlerService.awaitTermination(500, TimeUnit.MILLISECONDS);
+        if (!handlerService.awaitTermination(500, TimeUnit.MILLISECONDS)) {
+          handlerService.shutdownNow();
+        }
       } catch (InterruptedException e) {
         logger
             .debug("Interrupted while waiting for netcat handler service to stop");
-        Thread.currentThread().interrupt();
-      }
-
-      if (!handlerService.isShutdown()) {
         handlerService.shutdownNow();
+        Thread.currentThread().interrupt();
       }
 
       logger.debug("Handler service stopped");
     }
 
-    logger.debug("Source stopped. Event metrics:{}", counterGroup);
+    if (commitService != null) {
+      // interrupts commits still waiting on the channel
+      commitService.shutdownNow();
+      commitService = null;
+    }
+
+    if (bufferPool != null) {
+      logger.debug("Buffer pool: {} of {} {} buffers allocated, hit rate"
+          + " {}, {} bytes in use", new Object[] { bufferPool.getAllocated(),
+          bufferPool.getCapacity(), bufferPool.isDirect() ? "direct" : "heap",
+          bufferPool.getHitRate(),
+          bufferPool.getInUseBytes() });
+    }
+    if (sourceCounter != null) {
+      sourceCounter.stop();
+    }
+    logger.debug("Source stopped. Event metrics:{}", sourceCounter);
     super.stop();
   }
 
   private static class AcceptHandler implements Runnable {
 
     private ServerSocketChannel serverSocket;
-    private CounterGroup counterGroup;
+    private NetcatSourceCounter sourceCounter;
     private ExecutorService handlerService;
-    private EventDrivenSource source;
+    private NetcatSource source;
     private AtomicBoolean shouldStop;
-    private boolean ackEveryEvent;
-    private String sourceEncoding;
-
-    private final int maxLineLength;
-
-    public AcceptHandler(int maxLineLength) {
-      this.maxLineLength = maxLineLength;
-    }
+    private Charset charset;
+    private NetcatEventLoop[] eventLoops;
+    private int nextEventLoop;
 
     @Override
     public void run() {
@@ -255,22 +717,28 @@ public class NetcatSource extends AbstractSource implements Configurable,
         try {
           SocketChannel socketChannel = serverSocket.accept();
 
-          NetcatSocketHandler request = new NetcatSocketHandler(maxLineLength);
+          if (eventLoops != null) {
+            eventLoops[nextEventLoop].register(socketChannel);
+            nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+            sourceCounter.incrementConnectionAcceptedCount();
+            continue;
+          }
+
+          NetcatSocketHandler request = new NetcatSocketHandler();
 
           request.socketChannel = socketChannel;
-          request.counterGroup = counterGroup;
+          request.sourceCounter = sourceCounter;
           request.source = source;
-          request.ackEveryEvent = ackEveryEvent;
-          request.sourceEncoding = sourceEncoding;
+          request.charset = charset;
 
           handlerService.submit(request);
 
-          counterGroup.incrementAndGet("accept.succeeded");
+          sourceCounter.incrementConnectionAcceptedCount();
         } catch (ClosedByInterruptException e) {
           // Parent is canceling us.
         } catch (IOException e) {
           logger.error("Unable to accept connection. Exception follows.", e);
-          counterGroup.incrementAndGet("accept.failed");
+          sourceCounter.incrementConnectionAcceptFailedCount();
         }
       }
 
@@ -280,207 +748,186 @@ public class NetcatSource extends AbstractSource implements Configurable,
 
   private static class NetcatSocketHandler implements Runnable {
 
-    private Source source;
-    private CounterGroup counterGroup;
+    private NetcatSource source;
+    private NetcatSourceCounter sourceCounter;
     private SocketChannel socketChannel;
-    private boolean ackEveryEvent;
-    private String sourceEncoding;
+    private Charset charset;
 
-    private final int maxLineLength;
-
-    public NetcatSocketHandler(int maxLineLength) {
-      this.maxLineLength = maxLineLength;
-    }
+    private ByteBuffer buffer;
 
     @Override
     public void run() {
       logger.debug("Starting connection handler");
-      Event event = null;
 
+      Framer framer = source.newFramer();
+      NetcatBatch batch = source.newBatch();
+      long bytes = 0;
+      sourceCounter.connectionOpened();
       try {
-        Reader reader = Channels.newReader(socketChannel, sourceEncoding);
-        Writer writer = Channels.newWriter(socketChannel, sourceEncoding);
-        CharBuffer buffer = CharBuffer.allocate(maxLineLength);
-        buffer.flip(); // flip() so fill() sees buffer as initially empty
 
         while (true) {
-          // this method blocks until new data is available in the socket
-          int charsRead = fill(buffer, reader);
-          logger.debug("Chars read = {}", charsRead);
+          if (buffer == null) {
+            // leased on the first read rather than on accept
+            buffer = source.getBufferPool().lease();
+          }
+
+          // this method blocks until new data is available in the socket or
+          // the pending batch has lingered long enough
+          int bytesRead = fill(buffer, batch);
+          if (logger.isDebugEnabled()) {
+            logger.debug("Bytes read = {}", bytesRead);
+          }
+          if (bytesRead > 0) {
+            bytes += bytesRead;
+            sourceCounter.addToBytesReceivedCount(bytesRead);
+          }
 
           // attempt to process all the events in the buffer
-          int eventsProcessed = processEvents(buffer, writer);
-          logger.debug("Events processed = {}", eventsProcessed);
+          buffer.flip();
+          int eventsProcessed = processEvents(buffer, framer, batch);
+          if (logger.isDebugEnabled()) {
+            logger.debug("Events processed = {}", eventsProcessed);
+          }
+          boolean overflowed = framer.overflowed(buffer);
+          buffer.compact();
 
-          if (charsRead == -1) {
+          if (bytesRead == -1 || overflowed
+              || batch.isDue(System.currentTimeMillis())) {
+            commit(batch);
+          }
+
+          if (bytesRead == -1) {
             // if we received EOF before last event processing attempt, then we
             // have done everything we can
             break;
-          } else if (charsRead == 0 && eventsProcessed == 0) {
-            if (buffer.remaining() == buffer.capacity()) {
-              // If we get here it means:
-              // 1. Last time we called fill(), no new chars were buffered
-              // 2. After that, we failed to process any events => no newlines
-              // 3. The unread data in the buffer == the size of the buffer
-              // Therefore, we are stuck because the client sent a line longer
-              // than the size of the buffer. Response: Drop the connection.
-              logger.warn("Client sent event exceeding the maximum length");
-              counterGroup.incrementAndGet("events.failed");
-              writer.write("FAILED: Event exceeds the maximum length (" +
-                  buffer.capacity() + " chars, including newline)\n");
-              writer.flush();
-              break;
-            }
+          } else if (overflowed) {
+            // The client sent a line longer than the maximum, or a frame
+            // that cannot be read: drop the connection.
+            logger.warn("Client sent an unframeable stream: {}",
+                framer.getOverflowMessage());
+            sourceCounter.addToEventFailedCount(1);
+            write(("FAILED: " + framer.getOverflowMessage() + "\n")
+                .getBytes(charset));
+            break;
           }
         }
 
         socketChannel.close();
 
-        counterGroup.incrementAndGet("sessions.completed");
+        sourceCounter.incrementSessionCompletedCount();
       } catch (IOException e) {
-        counterGroup.incrementAndGet("sessions.broken");
+        sourceCounter.incrementSessionBrokenCount();
         try {
           socketChannel.close();
         } catch (IOException ex) {
           logger.error("Unable to close socket channel. Exception follows.", ex);
         }
+      } finally {
+        if (buffer != null) {
+          source.getBufferPool().release(buffer);
+          buffer = null;
+        }
+        sourceCounter.connectionClosed(bytes, batch.getAcceptedCount());
       }
 
       logger.debug("Connection handler exiting");
     }
 
     /**
-     * Consume some number of events from the buffer into the system.
+     * Frame all complete events in the buffer into the batch, committing it
+     * whenever it fills up.
      *
      * Invariants (pre- and post-conditions): 
      *   buffer should have position @ beginning of unprocessed data. 
      *   buffer should have limit @ end of unprocessed data. 
      *
      * @param buffer The buffer containing data to process
-     * @param writer The channel back to the client
-     * @return number of events successfully processed
+     * @return number of events framed
      * @throws IOException
      */
-    private int processEvents(CharBuffer buffer, Writer writer)
-        throws IOException {
+    private int processEvents(ByteBuffer buffer, Framer framer,
+        NetcatBatch batch) throws IOException {
 
       int numProcessed = 0;
+      long now = System.currentTimeMillis();
 
-      boolean foundNewLine = true;
-      while (foundNewLine) {
-        foundNewLine = false;
-
-        int limit = buffer.limit();
-        for (int pos = buffer.position(); pos < limit; pos++) {
-          if (buffer.get(pos) == '\n') {
-
-            // parse event body bytes out of CharBuffer
-            buffer.limit(pos); // temporary limit
-            ByteBuffer bytes = Charsets.UTF_8.encode(buffer);
-            buffer.limit(limit); // restore limit
-
-            // build event object
-            byte[] body = new byte[bytes.remaining()];
-            bytes.get(body);
-            Event event = EventBuilder.withBody(body);
-
-            // process event
-            ChannelException ex = null;
-            try {
-              source.getChannelProcessor().processEvent(event);
-            } catch (ChannelException chEx) {
-              ex = chEx;
-            }
-
-            if (ex == null) {
-              counterGroup.incrementAndGet("events.processed");
-              numProcessed++;
-              if (true == ackEveryEvent) {
-                writer.write("OK\n");
-              }
-            } else {
-              counterGroup.incrementAndGet("events.failed");
-              logger.warn("Error processing event. Exception follows.", ex);
-              writer.write("FAILED: " + ex.getMessage() + "\n");
-            }
-            writer.flush();
-
-            // advance position after data is consumed
-            buffer.position(pos + 1); // skip newline
-            foundNewLine = true;
-
-            break;
-          }
+      Event event;
+      while ((event = framer.next(buffer)) != null) {
+        numProcessed++;
+        if (batch.add(event, now)) {
+          commit(batch);
         }
-
       }
 
       return numProcessed;
     }
 
     /**
-     * Refill the buffer read from the socket.
-     *
-     * Preconditions: 
-     *   buffer should have position @ beginning of unprocessed data. 
-     *   buffer should have limit @ end of unprocessed data. 
-     *
-     * Postconditions: 
-     *   buffer should have position @ beginning of buffer (pos=0). 
-     *   buffer should have limit @ end of unprocessed data. 
+     * Commit the batch and answer the client. Under backpressure a refused
+     * batch is retried with growing delays until it gets in, and meanwhile
+     * the socket is not read, so TCP flow control slows the sender down.
+     * Stopping the source interrupts the wait and fails the batch.
      *
-     * Note: this method blocks on new data arriving.
-     *
-     * @param buffer The buffer to fill
-     * @param reader The Reader to read the data from
-     * @return number of characters read
      * @throws IOException
      */
-    private int fill(CharBuffer buffer, Reader reader)
-        throws IOException {
-
-      // move existing data to the front of the buffer
-      buffer.compact();
+    private void commit(NetcatBatch batch) throws IOException {
+      byte[] responses = batch.isBackpressure() ? batch.tryCommit()
+          : batch.commit();
+      if (responses == null) {
+        long pausedAt = System.currentTimeMillis();
+        sourceCounter.connectionPaused();
+        try {
+          while (responses == null) {
+            Thread.sleep(batch.nextBackoff());
+            responses = batch.tryCommit();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          responses = batch.commit();
+        } finally {
+          sourceCounter.connectionResumed(System.currentTimeMillis()
+              - pausedAt);
+        }
+      }
+      write(responses);
+    }
 
-      // pull in as much data as we can from the socket
-      int charsRead = reader.read(buffer);
-      counterGroup.addAndGet("characters.received", Long.valueOf(charsRead));
+    /**
+     * Read from the socket into the buffer, waiting no longer than the
+     * pending batch may linger.
+     *
+     * @return number of bytes read, 0 when the linger expired first, or -1
+     *         on EOF
+     * @throws IOException
+     */
+    private int fill(ByteBuffer buffer, NetcatBatch batch) throws IOException {
+      if (batch.isEmpty()) {
+        return socketChannel.read(buffer);
+      }
 
-      // flip so the data can be consumed
-      buffer.flip();
+      // the socket's stream, unlike the channel, honours a read timeout; with
+      // a linger the pool hands out heap buffers, so read into the array
+      Socket socket = socketChannel.socket();
+      socket.setSoTimeout((int) Math.max(1,
+          batch.getDeadline() - System.currentTimeMillis()));
+      try {
+        int bytesRead = socket.getInputStream().read(buffer.array(),
+            buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (bytesRead > 0) {
+          buffer.position(buffer.position() + bytesRead);
+        }
+        return bytesRead;
+      } catch (SocketTimeoutException e) {
+        return 0;
+      }
+    }
 
-      return charsRead;
+    private void write(byte[] response) throws IOException {
+      ByteBuffer out = ByteBuffer.wrap(response);
+      while (out.hasRemaining()) {
+        socketChannel.write(out);
+      }
     }
 
   }
-
-@Override
-public ChannelProcessor getChannelProcessor() {
-	// TODO Auto-generated method stub
-	return null;
-}
-
-@Override
-public void setChannelProcessor(ChannelProcessor arg0) {
-	// TODO Auto-generated method stub
-	
-}
-
-@Override
-public LifecycleState getLifecycleState() {
-	// TODO Auto-generated method stub
-	return null;
-}
-
-@Override
-public String getName() {
-	// TODO Auto-generated method stub
-	return null;
-}
-
-@Override
-public void setName(String arg0) {
-	// TODO Auto-generated method stub
-	
-}
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.shavinod.flume.source;
+
+/**
+ * Configuration keys of {@link NetcatSource} beyond those it shares with
+ * Flume's own netcat source ({@code NetcatSourceConfigurationConstants}).
+ */
+public class NetcatSourceConstants {
+
+  /**
+   * How connections are served: blocking (one pooled thread per connection),
+   * virtual (one virtual thread per connection, or blocking where the JVM
+   * has none) or selector (a fixed set of non-blocking event loops).
+   */
+  public static final String CONFIG_MODE = "mode";
+  public static final String MODE_BLOCKING = "blocking";
+  public static final String MODE_VIRTUAL = "virtual";
+  public static final String MODE_SELECTOR = "selector";
+  public static final String DEFAULT_MODE = MODE_BLOCKING;
+
+  /**
+   * Number of event loop threads in selector mode. Defaults to the number of
+   * available processors.
+   */
+  public static final String CONFIG_SELECTOR_THREADS = "selector-threads";
+
+  /**
+   * Maximum number of lines committed in one channel transaction and
+   * acknowledged with one write.
+   */
+  public static final String CONFIG_BATCH_SIZE = "batchSize";
+  public static final int DEFAULT_BATCH_SIZE = 1;
+
+  /**
+   * Milliseconds a partial batch waits for more lines before it is
+   * committed anyway.
+   */
+  public static final String CONFIG_BATCH_LINGER = "batchLinger";
+  public static final int DEFAULT_BATCH_LINGER = 0;
+
+  /**
+   * Whether a batch is acknowledged with one "OK n" line rather than one
+   * "OK" line per event.
+   */
+  public static final String CONFIG_BATCH_ACK = "batchAck";
+
+  /**
+   * Whether a full channel pauses reading from the connection and retries
+   * the batch, rather than answering FAILED and dropping it.
+   */
+  public static final String CONFIG_BACKPRESSURE = "backpressure";
+
+  /**
+   * Milliseconds before the first backpressure retry; the delay doubles on
+   * each further retry up to the maximum.
+   */
+  public static final String CONFIG_MIN_BACKOFF = "backoffMin";
+  public static final int DEFAULT_MIN_BACKOFF = 10;
+  public static final String CONFIG_MAX_BACKOFF = "backoffMax";
+  public static final int DEFAULT_MAX_BACKOFF = 1000;
+
+  /**
+   * Number of listening sockets sharing the port through SO_REUSEPORT, each
+   * with its own accept thread and worker group.
+   */
+  public static final String CONFIG_ACCEPTORS = "acceptors";
+  public static final int DEFAULT_ACCEPTORS = 1;
+
+  /**
+   * How the byte stream is cut into events: line (newline separated text),
+   * varint or int32 (binary frames carrying their length up front).
+   */
+  public static final String CONFIG_FRAMING = "framing";
+  public static final String FRAMING_LINE = "line";
+  public static final String FRAMING_VARINT = "varint";
+  public static final String FRAMING_INT32 = "int32";
+
+  /**
+   * Whether binary frames start with a block of event headers.
+   */
+  public static final String CONFIG_FRAME_HEADERS = "frameHeaders";
+
+  /**
+   * Maximum body length of a binary frame, in bytes.
+   */
+  public static final String CONFIG_MAX_FRAME_LENGTH = "maxFrameLength";
+  public static final int DEFAULT_MAX_FRAME_LENGTH = 1024 * 1024;
+
+  /**
+   * Maximum number of pooled read buffers.
+   */
+  public static final String CONFIG_BUFFER_POOL_SIZE = "bufferPoolSize";
+  public static final int DEFAULT_BUFFER_POOL_SIZE = 256;
+}
@@ -0,0 +1,265 @@
+package com.shavinod.flume.source;
+
+import org.apache.flume.instrumentation.SourceCounter;
+
+import com.shavinod.flume.stats.LogHistogram;
+
+/**
+ * Flume's SourceCounter for {@link NetcatSource}, registered with JMX as
+ * org.apache.flume.source:type=&lt;source name&gt;.
+ * 
+ * Besides the standard source counters, where an append is a one-event
+ * commit and an append batch a larger one, it counts bytes, failed events,
+ * sessions and backpressure pauses, keeps histograms of the channel commit
+ * latency and of the bytes and events per closed connection, and reports
+ * the state of the read buffer pool. The open connection count is the
+ * number of connections being served. Everything is recorded with atomic
+ * updates of preallocated counters and buckets, so recording allocates
+ * nothing and is safe from any thread. Histograms cover the time since the
+ * counter was started.
+ */
+public class NetcatSourceCounter extends SourceCounter implements
+    NetcatSourceCounterMBean {
+
+  private static final String COUNTER_OPEN_CONNECTION_COUNT =
+      "src.open-connection.count";
+  private static final String COUNTER_BYTES_RECEIVED =
+      "src.netcat.bytes.received";
+  private static final String COUNTER_EVENTS_FAILED =
+      "src.netcat.events.failed";
+  private static final String COUNTER_CONNECTIONS_ACCEPTED =
+      "src.netcat.connections.accepted";
+  private static final String COUNTER_CONNECTIONS_ACCEPT_FAILED =
+      "src.netcat.connections.accept-failed";
+  private static final String COUNTER_SESSIONS_COMPLETED =
+      "src.netcat.sessions.completed";
+  private static final String COUNTER_SESSIONS_BROKEN =
+      "src.netcat.sessions.broken";
+  private static final String COUNTER_OPEN_ERRORS = "src.netcat.open.errors";
+  private static final String COUNTER_CONNECTIONS_PAUSED =
+      "src.netcat.connections.paused";
+  private static final String COUNTER_PAUSES = "src.netcat.pauses";
+  private static final String COUNTER_PAUSE_TIME =
+      "src.netcat.pause.time.ms";
+
+  private static final String[] ATTRIBUTES = { COUNTER_BYTES_RECEIVED,
+      COUNTER_EVENTS_FAILED, COUNTER_CONNECTIONS_ACCEPTED,
+      COUNTER_CONNECTIONS_ACCEPT_FAILED, COUNTER_SESSIONS_COMPLETED,
+      COUNTER_SESSIONS_BROKEN, COUNTER_OPEN_ERRORS,
+      COUNTER_CONNECTIONS_PAUSED, COUNTER_PAUSES, COUNTER_PAUSE_TIME };
+
+  private final LogHistogram commitLatencies = new LogHistogram();
+  private final LogHistogram connectionBytes = new LogHistogram();
+  private final LogHistogram connectionEvents = new LogHistogram();
+  private volatile BufferPool bufferPool;
+
+  public NetcatSourceCounter(String name) {
+    super(name, ATTRIBUTES);
+  }
+
+  /**
+   * Registers the MBean on first use and resets every counter and
+   * histogram.
+   */
+  @Override
+  public void start() {
+    super.start();
+    commitLatencies.reset();
+    connectionBytes.reset();
+    connectionEvents.reset();
+  }
+
+  /**
+   * The pool whose state is reported, or null for none.
+   */
+  void setBufferPool(BufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+  }
+
+  void addToBytesReceivedCount(long bytes) {
+    addAndGet(COUNTER_BYTES_RECEIVED, bytes);
+  }
+
+  void addToEventFailedCount(long events) {
+    addAndGet(COUNTER_EVENTS_FAILED, events);
+  }
+
+  void incrementConnectionAcceptedCount() {
+    increment(COUNTER_CONNECTIONS_ACCEPTED);
+  }
+
+  void incrementConnectionAcceptFailedCount() {
+    increment(COUNTER_CONNECTIONS_ACCEPT_FAILED);
+  }
+
+  void incrementSessionCompletedCount() {
+    increment(COUNTER_SESSIONS_COMPLETED);
+  }
+
+  void incrementSessionBrokenCount() {
+    increment(COUNTER_SESSIONS_BROKEN);
+  }
+
+  void incrementOpenErrorCount() {
+    increment(COUNTER_OPEN_ERRORS);
+  }
+
+  /**
+   * Records a channel commit of the given number of events, whether the
+   * channel took them or not.
+   */
+  void recordCommit(int events, long latencyNanos, boolean accepted) {
+    commitLatencies.record(Math.max(0, latencyNanos) / 1000);
+    if (events == 1) {
+      incrementAppendReceivedCount();
+      if (accepted) {
+        incrementAppendAcceptedCount();
+      }
+    } else {
+      incrementAppendBatchReceivedCount();
+      if (accepted) {
+        incrementAppendBatchAcceptedCount();
+      }
+    }
+    if (accepted) {
+      addToEventAcceptedCount(events);
+    }
+  }
+
+  void connectionOpened() {
+    addAndGet(COUNTER_OPEN_CONNECTION_COUNT, 1);
+  }
+
+  /**
+   * Records a connection that is no longer served, with the bytes it sent
+   * and the events of it that the channel accepted.
+   */
+  void connectionClosed(long bytes, long events) {
+    addAndGet(COUNTER_OPEN_CONNECTION_COUNT, -1);
+    connectionBytes.record(bytes);
+    connectionEvents.record(events);
+  }
+
+  void connectionPaused() {
+    increment(COUNTER_CONNECTIONS_PAUSED);
+    increment(COUNTER_PAUSES);
+  }
+
+  void connectionResumed(long pausedMillis) {
+    addAndGet(COUNTER_CONNECTIONS_PAUSED, -1);
+    addAndGet(COUNTER_PAUSE_TIME, pausedMillis);
+  }
+
+  @Override
+  public long getBytesReceivedCount() {
+    return get(COUNTER_BYTES_RECEIVED);
+  }
+
+  @Override
+  public long getEventFailedCount() {
+    return get(COUNTER_EVENTS_FAILED);
+  }
+
+  @Override
+  public long getConnectionAcceptedCount() {
+    return get(COUNTER_CONNECTIONS_ACCEPTED);
+  }
+
+  @Override
+  public long getConnectionAcceptFailedCount() {
+    return get(COUNTER_CONNECTIONS_ACCEPT_FAILED);
+  }
+
+  @Override
+  public long getSessionCompletedCount() {
+    return get(COUNTER_SESSIONS_COMPLETED);
+  }
+
+  @Override
+  public long getSessionBrokenCount() {
+    return get(COUNTER_SESSIONS_BROKEN);
+  }
+
+  @Override
+  public long getOpenErrorCount() {
+    return get(COUNTER_OPEN_ERRORS);
+  }
+
+  @Override
+  public long getPausedConnectionCount() {
+    return get(COUNTER_CONNECTIONS_PAUSED);
+  }
+
+  @Override
+  public long getPauseCount() {
+    return get(COUNTER_PAUSES);
+  }
+
+  @Override
+  public long getPauseTimeMillis() {
+    return get(COUNTER_PAUSE_TIME);
+  }
+
+  @Override
+  public long getCommitLatencyMicros50th() {
+    return commitLatencies.valueAtPercentile(50);
+  }
+
+  @Override
+  public long getCommitLatencyMicros99th() {
+    return commitLatencies.valueAtPercentile(99);
+  }
+
+  @Override
+  public long getCommitLatencyMicrosMax() {
+    return commitLatencies.getMax();
+  }
+
+  @Override
+  public long getConnectionBytes50th() {
+    return connectionBytes.valueAtPercentile(50);
+  }
+
+  @Override
+  public long getConnectionBytes99th() {
+    return connectionBytes.valueAtPercentile(99);
+  }
+
+  @Override
+  public long getConnectionBytesMax() {
+    return connectionBytes.getMax();
+  }
+
+  @Override
+  public long getConnectionEvents50th() {
+    return connectionEvents.valueAtPercentile(50);
+  }
+
+  @Override
+  public long getConnectionEvents99th() {
+    return connectionEvents.valueAtPercentile(99);
+  }
+
+  @Override
+  public long getConnectionEventsMax() {
+    return connectionEvents.getMax();
+  }
+
+  @Override
+  public long getBufferPoolAllocatedCount() {
+    BufferPool pool = bufferPool;
+    return pool == null ? 0 : pool.getAllocated();
+  }
+
+  @Override
+  public long getBufferPoolInUseBytes() {
+    BufferPool pool = bufferPool;
+    return pool == null ? 0 : pool.getInUseBytes();
+  }
+
+  @Override
+  public double getBufferPoolHitRate() {
+    BufferPool pool = bufferPool;
+    return pool == null ? 0 : pool.getHitRate();
+  }
+}
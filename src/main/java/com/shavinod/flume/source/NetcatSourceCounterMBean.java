@@ -0,0 +1,54 @@
+package com.shavinod.flume.source;
+
+import org.apache.flume.instrumentation.SourceCounterMBean;
+
+/**
+ * The JMX view of a {@link NetcatSourceCounter}: Flume's source attributes
+ * plus those specific to netcat connections.
+ */
+public interface NetcatSourceCounterMBean extends SourceCounterMBean {
+
+  long getBytesReceivedCount();
+
+  long getEventFailedCount();
+
+  long getConnectionAcceptedCount();
+
+  long getConnectionAcceptFailedCount();
+
+  long getSessionCompletedCount();
+
+  long getSessionBrokenCount();
+
+  long getOpenErrorCount();
+
+  long getPausedConnectionCount();
+
+  long getPauseCount();
+
+  long getPauseTimeMillis();
+
+  long getCommitLatencyMicros50th();
+
+  long getCommitLatencyMicros99th();
+
+  long getCommitLatencyMicrosMax();
+
+  long getConnectionBytes50th();
+
+  long getConnectionBytes99th();
+
+  long getConnectionBytesMax();
+
+  long getConnectionEvents50th();
+
+  long getConnectionEvents99th();
+
+  long getConnectionEventsMax();
+
+  long getBufferPoolAllocatedCount();
+
+  long getBufferPoolInUseBytes();
+
+  double getBufferPoolHitRate();
+}
@@ -0,0 +1,205 @@
+package com.shavinod.flume.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.flume.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sink-side companion of {@link ChunkHttpSource}'s spill mode: resolves the
+ * reference events it emits to the bytes in its spill files, and deletes
+ * each file once every chunk in it has been acknowledged.
+ *
+ * A reference names its file, the chunk's offset and length in it, the
+ * CRC32 of the chunk and, on the last chunk of an upload only, the number
+ * of chunks in the file. Chunks are read without copying, either mapped
+ * into memory or transferred straight to another channel, and only from
+ * files in the spill directory, since reference headers could otherwise
+ * name any file. Acknowledgements may come in any order and more than once,
+ * as redelivered events do, but are only tracked in memory.
+ *
+ * Some files never see their last reference acknowledged: those of uploads
+ * that failed, or were resumed in a new file, after some of their chunks
+ * were committed, whose last reference never reached the channel, and
+ * those whose chunks were partly acknowledged before a restart. Calling
+ * {@link #sweep} now and then deletes them once they are old enough.
+ */
+public class SpillResolver {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SpillResolver.class);
+
+	public static final String PATH_HEADER = "spill.path";
+	public static final String OFFSET_HEADER = "spill.offset";
+	public static final String LENGTH_HEADER = "spill.length";
+	public static final String CHECKSUM_HEADER = "spill.checksum";
+	public static final String CHUNKS_HEADER = "spill.chunks";
+	static final String FILE_PREFIX = "chunk-";
+	static final String FILE_SUFFIX = ".spill";
+
+	private final File directory;
+	private final Map<String, BitSet> acknowledged = new HashMap<String, BitSet>();
+	private final Map<String, Integer> chunks = new HashMap<String, Integer>();
+
+	public SpillResolver(File directory) throws IOException {
+		this.directory = directory.getCanonicalFile();
+	}
+
+	public static boolean isReference(Event event) {
+		return event.getHeaders().containsKey(PATH_HEADER);
+	}
+
+	/**
+	 * The chunk's bytes, mapped read-only from its spill file.
+	 */
+	public ByteBuffer resolve(Event event) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileOf(event), "r");
+		try {
+			// the mapping stays valid once the file is closed
+			return file.getChannel().map(FileChannel.MapMode.READ_ONLY, offsetOf(event), lengthOf(event));
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Writes the chunk's bytes to the target, letting the operating system
+	 * copy them directly where it can.
+	 *
+	 * @return the number of bytes written
+	 */
+	public long transferTo(Event event, WritableByteChannel target) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileOf(event), "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long position = offsetOf(event);
+			long end = position + lengthOf(event);
+			while (position < end) {
+				long transferred = channel.transferTo(position, end - position, target);
+				if (transferred <= 0) {
+					throw new IOException("Spill file " + event.getHeaders().get(PATH_HEADER) + " ends before "
+							+ end);
+				}
+				position += transferred;
+			}
+			return lengthOf(event);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Whether the chunk still has the checksum it was spilled with.
+	 */
+	public boolean verify(Event event) throws IOException {
+		return checksum(resolve(event), new byte[8192]) == Long.parseLong(event.getHeaders().get(CHECKSUM_HEADER));
+	}
+
+	/**
+	 * The CRC32 of the buffer's remaining bytes, read through the scratch
+	 * array. The buffer's position is left unchanged.
+	 */
+	static long checksum(ByteBuffer data, byte[] scratch) {
+		ByteBuffer view = data.duplicate();
+		CRC32 crc = new CRC32();
+		while (view.hasRemaining()) {
+			int length = Math.min(scratch.length, view.remaining());
+			view.get(scratch, 0, length);
+			crc.update(scratch, 0, length);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Records that the chunk has been consumed, deleting its spill file once
+	 * all of the file's chunks have been.
+	 *
+	 * @return whether the file was deleted
+	 */
+	public synchronized boolean acknowledge(Event event) throws IOException {
+		File file = fileOf(event);
+		String path = file.getPath();
+		BitSet seen = acknowledged.get(path);
+		if (seen == null) {
+			seen = new BitSet();
+			acknowledged.put(path, seen);
+		}
+		seen.set(Integer.parseInt(event.getHeaders().get(ChunkHttpSource.SEQUENCE_HEADER)));
+		String count = event.getHeaders().get(CHUNKS_HEADER);
+		if (count != null) {
+			chunks.put(path, Integer.valueOf(count));
+		}
+
+		Integer total = chunks.get(path);
+		if (total == null || seen.cardinality() < total) {
+			return false;
+		}
+		acknowledged.remove(path);
+		chunks.remove(path);
+		if (!file.delete() && file.exists()) {
+			LOG.warn("Unable to delete spill file " + path);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes the spill files last written more than maxAgeMillis ago,
+	 * forgetting their acknowledgements. References to them can no longer
+	 * be resolved, so the age must exceed the longest a reference may wait
+	 * to be consumed.
+	 *
+	 * @return the number of files deleted
+	 */
+	public synchronized int sweep(long maxAgeMillis) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		long cutoff = System.currentTimeMillis() - maxAgeMillis;
+		int deleted = 0;
+		for (File file : files) {
+			String name = file.getName();
+			if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX) || file.lastModified() >= cutoff) {
+				continue;
+			}
+			acknowledged.remove(file.getPath());
+			chunks.remove(file.getPath());
+			if (file.delete()) {
+				deleted++;
+			} else if (file.exists()) {
+				LOG.warn("Unable to delete spill file " + file.getPath());
+			}
+		}
+		return deleted;
+	}
+
+	private File fileOf(Event event) throws IOException {
+		String path = event.getHeaders().get(PATH_HEADER);
+		if (path == null) {
+			throw new IllegalArgumentException("Not a spill reference: no " + PATH_HEADER + " header");
+		}
+		File file = new File(path).getCanonicalFile();
+		if (!directory.equals(file.getParentFile())) {
+			throw new IllegalArgumentException("Spill reference outside " + directory + ": " + path);
+		}
+		return file;
+	}
+
+	private static long offsetOf(Event event) {
+		return Long.parseLong(event.getHeaders().get(OFFSET_HEADER));
+	}
+
+	private static long lengthOf(Event event) {
+		return Long.parseLong(event.getHeaders().get(LENGTH_HEADER));
+	}
+}
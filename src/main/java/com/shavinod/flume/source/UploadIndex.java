@@ -0,0 +1,184 @@
+package com.shavinod.flume.source;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.flume.source.http.HTTPBadRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * How far each resumable upload to {@link ChunkHttpSource} has been
+ * committed to the channel, kept in a small file on local disk.
+ *
+ * The file is a log of "id offset sequence time" lines, one per commit,
+ * synced to disk before the commit returns; the last line for an id wins.
+ * When the log holds many more lines than uploads it is compacted into a
+ * fresh file, dropping uploads not updated within the retention time. A
+ * line torn by a crash is ignored on load. At most one request per upload
+ * may be in progress at a time.
+ */
+class UploadIndex {
+
+	private static final Logger LOG = LoggerFactory.getLogger(UploadIndex.class);
+
+	private static final Pattern UPLOAD_ID = Pattern.compile("[A-Za-z0-9._:-]{1,128}");
+	private static final int COMPACTION_SLACK = 1000;
+
+	private final File file;
+	private final long retentionMillis;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private final Set<String> active = new HashSet<String>();
+	private FileOutputStream log;
+	private int lines;
+
+	/**
+	 * The committed position of an upload: the offset of its first byte not
+	 * yet in the channel and the sequence number of its next chunk.
+	 */
+	static class Entry {
+		final long offset;
+		final int sequence;
+		final long updated;
+
+		Entry(long offset, int sequence, long updated) {
+			this.offset = offset;
+			this.sequence = sequence;
+			this.updated = updated;
+		}
+	}
+
+	UploadIndex(File file, long retentionMillis) throws IOException {
+		this.file = file;
+		this.retentionMillis = retentionMillis;
+		load();
+		compact(System.currentTimeMillis());
+	}
+
+	private void load() throws IOException {
+		BufferedReader reader;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+		} catch (FileNotFoundException e) {
+			return;
+		}
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(" ");
+				try {
+					if (fields.length == 4) {
+						entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Integer.parseInt(fields[2]),
+								Long.parseLong(fields[3])));
+						continue;
+					}
+				} catch (NumberFormatException e) {
+					// handled below
+				}
+				LOG.warn("Ignoring malformed line in upload index " + file + ": " + line);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Starts a request for the upload, returning its committed position, or
+	 * null for a new upload.
+	 *
+	 * @throws HTTPBadRequestException
+	 *             if the id is malformed or a request for it is in progress
+	 */
+	synchronized Entry begin(String uploadId) {
+		if (!UPLOAD_ID.matcher(uploadId).matches()) {
+			throw new HTTPBadRequestException("Malformed upload id: " + uploadId);
+		}
+		if (!active.add(uploadId)) {
+			throw new HTTPBadRequestException("Upload " + uploadId + " is already in progress");
+		}
+		return entries.get(uploadId);
+	}
+
+	/**
+	 * Ends a request started by {@link #begin}.
+	 */
+	synchronized void end(String uploadId) {
+		active.remove(uploadId);
+	}
+
+	/**
+	 * Records that the upload is committed up to the offset, with the next
+	 * chunk numbered sequence, once it is on disk.
+	 *
+	 * @throws IOException
+	 *             if the index is closed or cannot be written
+	 */
+	synchronized void commit(String uploadId, long offset, int sequence) throws IOException {
+		if (log == null) {
+			throw new IOException("Upload index " + file + " is closed");
+		}
+		long now = System.currentTimeMillis();
+		entries.put(uploadId, new Entry(offset, sequence, now));
+		log.write((uploadId + " " + offset + " " + sequence + " " + now + "\n").getBytes(Charsets.UTF_8));
+		log.getChannel().force(false);
+		if (++lines > 2 * entries.size() + COMPACTION_SLACK) {
+			compact(now);
+		}
+	}
+
+	/**
+	 * Rewrites the log with one line per upload still retained, replacing
+	 * the old one atomically where the file system allows.
+	 */
+	private void compact(long now) throws IOException {
+		for (Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<String, Entry> entry = i.next();
+			if (now - entry.getValue().updated > retentionMillis && !active.contains(entry.getKey())) {
+				i.remove();
+			}
+		}
+
+		File compacted = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(compacted);
+		try {
+			StringBuilder text = new StringBuilder();
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				Entry value = entry.getValue();
+				text.append(entry.getKey()).append(' ').append(value.offset).append(' ').append(value.sequence)
+						.append(' ').append(value.updated).append('\n');
+			}
+			out.write(text.toString().getBytes(Charsets.UTF_8));
+			out.getChannel().force(false);
+		} finally {
+			out.close();
+		}
+		if (log != null) {
+			log.close();
+		}
+		if (!compacted.renameTo(file) && !(file.delete() && compacted.renameTo(file))) {
+			throw new IOException("Unable to replace upload index " + file);
+		}
+		log = new FileOutputStream(file, true);
+		lines = entries.size();
+	}
+
+	synchronized void close() throws IOException {
+		if (log != null) {
+			log.close();
+			log = null;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.shavinod.flume.stats;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable pair of event and byte totals read from a StripedCounter,
+ * optionally broken down by dimension value.
+ */
+public class CountSnapshot {
+
+	public static final CountSnapshot EMPTY = new CountSnapshot(0, 0);
+
+	private final long events;
+	private final long bytes;
+	private final Map<String, CountSnapshot> dimensions;
+
+	public CountSnapshot(long events, long bytes) {
+		this(events, bytes, Collections.<String, CountSnapshot> emptyMap());
+	}
+
+	public CountSnapshot(long events, long bytes, Map<String, CountSnapshot> dimensions) {
+		this.events = events;
+		this.bytes = bytes;
+		this.dimensions = Collections.unmodifiableMap(dimensions);
+	}
+
+	public long getEvents() {
+		return events;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Counts per dimension value, including DimensionTable.OVERFLOW when the
+	 * cardinality cap was hit. Empty when no dimension is configured.
+	 */
+	public Map<String, CountSnapshot> getDimensions() {
+		return dimensions;
+	}
+
+	public CountSnapshot plus(CountSnapshot other) {
+		if (other.dimensions.isEmpty()) {
+			return new CountSnapshot(events + other.events, bytes + other.bytes, dimensions);
+		}
+		Map<String, CountSnapshot> merged = new LinkedHashMap<String, CountSnapshot>(dimensions);
+		for (Map.Entry<String, CountSnapshot> entry : other.dimensions.entrySet()) {
+			CountSnapshot mine = merged.get(entry.getKey());
+			merged.put(entry.getKey(), mine == null ? entry.getValue() : mine.plus(entry.getValue()));
+		}
+		return new CountSnapshot(events + other.events, bytes + other.bytes, merged);
+	}
+
+	@Override
+	public String toString() {
+		return "CountSnapshot[events=" + events + ", bytes=" + bytes + "]";
+	}
+}
@@ -1,44 +1,171 @@
 package com.shavinod.flume.stats;
 
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.interceptor.Interceptor;
 
 /**
- * This interceptor counts flume events.
+ * This interceptor counts flume events and their body bytes.
  * 
- * The count is collected by PeriodicCountingSource,
- * which publishes the count as a new event.
+ * When a dimension header is configured, the counts are also broken down by
+ * the value of that header, keeping at most maxDimensions distinct values per
+ * collection; the rest are folded into an overflow bucket. Events without
+ * the header only count towards the totals.
+ * 
+ * Totals are never reset. Once a second they are sampled into a
+ * SlidingWindowRates store, so any number of readers can ask for rates()
+ * without disturbing each other. collect() remains for the per-interval
+ * counts and dimension breakdown that PeriodicCountingSource publishes.
  * 
  */
 public class CountingInterceptor implements Interceptor {
 
-	private AtomicInteger count = new AtomicInteger();
+	public static final String DIMENSION_KEY = "dimension";
+	public static final String MAX_DIMENSIONS_KEY = "maxDimensions";
+	public static final int MAX_DIMENSIONS_DEFAULT = 1000;
+
+	private final String component;
+	private final String dimension;
+	private final StripedCounter counter;
+	private final SlidingWindowRates windows = new SlidingWindowRates();
+	private CountSnapshot collected = CountSnapshot.EMPTY;
+
+	public CountingInterceptor() {
+		this(null, 0);
+	}
+
+	public CountingInterceptor(String dimension, int maxDimensions) {
+		this(InterceptorRegistry.DEFAULT_COMPONENT, dimension, maxDimensions);
+	}
+
+	/**
+	 * @param component component the counts are registered under
+	 * @param dimension header to break counts down by, or null for totals only
+	 * @param maxDimensions distinct header values kept per collection
+	 */
+	public CountingInterceptor(String component, String dimension, int maxDimensions) {
+		this.component = component;
+		this.dimension = dimension;
+		this.counter = dimension == null ? new StripedCounter()
+				: new StripedCounter(Runtime.getRuntime().availableProcessors() * 2, maxDimensions);
+	}
+
+	/**
+	 * The component the counts are registered under.
+	 */
+	public String getComponent() {
+		return component;
+	}
+
+	/**
+	 * The header counts are broken down by, or null.
+	 */
+	public String getDimension() {
+		return dimension;
+	}
+
+	/**
+	 * Returns the events and bytes seen since the previous call, along with
+	 * the dimension counts, which are reset.
+	 */
+	public synchronized CountSnapshot collect() {
+		CountSnapshot total = counter.sumAndDrainDimensions();
+		CountSnapshot delta = new CountSnapshot(total.getEvents() - collected.getEvents(),
+				total.getBytes() - collected.getBytes(), total.getDimensions());
+		collected = total;
+		return delta;
+	}
 
-	public int collect() {
-		return count.getAndSet(0);
+	/**
+	 * Events and bytes seen since this interceptor was built.
+	 */
+	public CountSnapshot total() {
+		return counter.sum();
+	}
+
+	/**
+	 * Per-second rates over each of SlidingWindowRates.WINDOWS_SECONDS.
+	 */
+	public WindowRate[] rates() {
+		long now = System.currentTimeMillis();
+		windows.sample(now, counter);
+		return windows.rates(now, counter.sum());
+	}
+
+	/*
+	 * Allocation-free live reads, for metrics scrapes.
+	 */
+
+	public long totalEvents() {
+		return counter.sumEvents();
+	}
+
+	public long totalBytes() {
+		return counter.sumBytes();
+	}
+
+	public double eventRate(int windowSeconds) {
+		long now = System.currentTimeMillis();
+		windows.sample(now, counter);
+		return windows.eventRate(windowSeconds, now, counter.sumEvents());
+	}
+
+	public double byteRate(int windowSeconds) {
+		long now = System.currentTimeMillis();
+		windows.sample(now, counter);
+		return windows.byteRate(windowSeconds, now, counter.sumBytes());
 	}
 	
 	@Override
 	public void initialize() {
-		InterceptorRegistry.register(CountingInterceptor.class, this);
+		InterceptorRegistry.register(component, CountingInterceptor.class, this);
 	}
 
 	@Override
 	public Event intercept(Event event) {
-		count.incrementAndGet();
+		String value = dimensionValue(event);
+		if (value == null) {
+			counter.add(1, bodyLength(event));
+		} else {
+			counter.add(1, bodyLength(event), DimensionTable.hash(value), value);
+		}
+		windows.sample(System.currentTimeMillis(), counter);
 		return event;
 	}
 
 	@Override
 	public List<Event> intercept(List<Event> events) {
-		count.addAndGet(events.size());
+		if (dimension != null) {
+			for (Event event : events) {
+				intercept(event);
+			}
+			return events;
+		}
+		long bytes = 0;
+		for (Event event : events) {
+			bytes += bodyLength(event);
+		}
+		counter.add(events.size(), bytes);
+		windows.sample(System.currentTimeMillis(), counter);
 		return events;
 	}
 
+	private String dimensionValue(Event event) {
+		if (dimension == null || event == null) {
+			return null;
+		}
+		return event.getHeaders().get(dimension);
+	}
+
+	private static long bodyLength(Event event) {
+		if (event == null || event.getBody() == null) {
+			return 0;
+		}
+		return event.getBody().length;
+	}
+
 	@Override	
 	public void close() {
 		InterceptorRegistry.deregister(this);
@@ -46,14 +173,23 @@ public class CountingInterceptor implements Interceptor {
 
 	public static class Builder implements Interceptor.Builder {
 
+		private String component;
+		private String dimension;
+		private int maxDimensions;
+
 		@Override
 		public void configure(Context context) {
-			// NOP
+			component = context.getString(InterceptorRegistry.COMPONENT_KEY, InterceptorRegistry.DEFAULT_COMPONENT);
+			dimension = context.getString(DIMENSION_KEY);
+			maxDimensions = context.getInteger(MAX_DIMENSIONS_KEY, MAX_DIMENSIONS_DEFAULT);
+			if (maxDimensions <= 0) {
+				throw new IllegalArgumentException(MAX_DIMENSIONS_KEY + " must be greater than 0: " + maxDimensions);
+			}
 		}
 
 		@Override
 		public Interceptor build() {
-			return new CountingInterceptor();
+			return new CountingInterceptor(component, dimension, maxDimensions);
 		}
 		
 	}
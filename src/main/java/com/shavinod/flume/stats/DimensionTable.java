@@ -0,0 +1,125 @@
+package com.shavinod.flume.stats;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-dimension event and byte totals in an open-addressing table keyed by a
+ * 64-bit hash of the dimension value.
+ * 
+ * The table never grows: once maxCardinality distinct values are present,
+ * further values are folded into a single overflow bucket. Not thread-safe;
+ * callers guard it the way StripedCounter guards its cells.
+ * 
+ */
+class DimensionTable {
+
+	/** Label of the bucket that absorbs values beyond the cardinality cap. */
+	static final String OVERFLOW = "_overflow";
+
+	private static final long EMPTY = 0L;
+
+	private final int maxCardinality;
+	private final int mask;
+	private final long[] keys;
+	private final long[] events;
+	private final long[] bytes;
+	private final String[] labels;
+	private int size;
+	private long overflowEvents;
+	private long overflowBytes;
+
+	DimensionTable(int maxCardinality) {
+		if (maxCardinality <= 0)
+			throw new IllegalArgumentException("Cardinality must be positive: " + maxCardinality);
+		this.maxCardinality = maxCardinality;
+		int capacity = 2;
+		while (capacity < maxCardinality * 2) {
+			capacity <<= 1;
+		}
+		this.mask = capacity - 1;
+		this.keys = new long[capacity];
+		this.events = new long[capacity];
+		this.bytes = new long[capacity];
+		this.labels = new String[capacity];
+	}
+
+	/**
+	 * FNV-1a over the UTF-16 chars of the value, with 0 reserved for empty slots.
+	 */
+	static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h == EMPTY ? 1 : h;
+	}
+
+	void add(long key, String label, long eventCount, long byteCount) {
+		int slot = (int) (key ^ (key >>> 32)) & mask;
+		while (true) {
+			long k = keys[slot];
+			if (k == key) {
+				events[slot] += eventCount;
+				bytes[slot] += byteCount;
+				return;
+			}
+			if (k == EMPTY) {
+				if (size >= maxCardinality) {
+					overflowEvents += eventCount;
+					overflowBytes += byteCount;
+					return;
+				}
+				keys[slot] = key;
+				labels[slot] = label;
+				events[slot] = eventCount;
+				bytes[slot] = byteCount;
+				size++;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Adds every entry of this table, overflow included, to the target.
+	 */
+	void mergeInto(DimensionTable target) {
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != EMPTY) {
+				target.add(keys[slot], labels[slot], events[slot], bytes[slot]);
+			}
+		}
+		target.overflowEvents += overflowEvents;
+		target.overflowBytes += overflowBytes;
+	}
+
+	Map<String, CountSnapshot> toMap() {
+		Map<String, CountSnapshot> map = new LinkedHashMap<String, CountSnapshot>();
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != EMPTY) {
+				map.put(labels[slot], new CountSnapshot(events[slot], bytes[slot]));
+			}
+		}
+		if (overflowEvents > 0) {
+			map.put(OVERFLOW, new CountSnapshot(overflowEvents, overflowBytes));
+		}
+		return map;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		if (size > 0) {
+			Arrays.fill(keys, EMPTY);
+			Arrays.fill(labels, null);
+			size = 0;
+		}
+		overflowEvents = 0;
+		overflowBytes = 0;
+	}
+}
@@ -0,0 +1,122 @@
+package com.shavinod.flume.stats;
+
+import java.util.List;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+
+/**
+ * This interceptor estimates how many distinct keys pass through it.
+ * 
+ * The key is the value of the configured header, or the whole event body
+ * when no header is configured. Events without the header are ignored. Keys
+ * are recorded in a HyperLogLog sketch of a few KB, whatever their number.
+ * 
+ * The sketches are merged by PeriodicCountingSource, which publishes the
+ * estimate along with the serialized sketch so that downstream agents can
+ * merge it further.
+ * 
+ */
+public class DistinctCountInterceptor implements Interceptor {
+
+	public static final String HEADER_KEY = "header";
+	public static final String PRECISION_KEY = "precision";
+
+	/** Name reported for sketches keyed on the event body. */
+	public static final String BODY_KEY = "_body";
+
+	private final String component;
+	private final String header;
+	private final HyperLogLog sketch;
+
+	public DistinctCountInterceptor(String header, int precision) {
+		this(InterceptorRegistry.DEFAULT_COMPONENT, header, precision);
+	}
+
+	/**
+	 * @param component component the sketch is registered under
+	 * @param header header holding the key, or null to use the body
+	 * @param precision HyperLogLog precision
+	 */
+	public DistinctCountInterceptor(String component, String header, int precision) {
+		this.component = component;
+		this.header = header;
+		this.sketch = new HyperLogLog(precision);
+	}
+
+	/**
+	 * The header keys are read from, or BODY_KEY.
+	 */
+	public String getKey() {
+		return header == null ? BODY_KEY : header;
+	}
+
+	public int getPrecision() {
+		return sketch.getPrecision();
+	}
+
+	/**
+	 * Moves the keys seen since the previous call into the target sketch.
+	 */
+	public void collect(HyperLogLog target) {
+		sketch.drainInto(target);
+	}
+
+	@Override
+	public void initialize() {
+		InterceptorRegistry.register(component, DistinctCountInterceptor.class, this);
+	}
+
+	@Override
+	public Event intercept(Event event) {
+		if (event == null) {
+			return event;
+		}
+		if (header == null) {
+			if (event.getBody() != null) {
+				sketch.offer(event.getBody());
+			}
+		} else {
+			String value = event.getHeaders().get(header);
+			if (value != null) {
+				sketch.offer(value);
+			}
+		}
+		return event;
+	}
+
+	@Override
+	public List<Event> intercept(List<Event> events) {
+		for (Event event : events) {
+			intercept(event);
+		}
+		return events;
+	}
+
+	@Override
+	public void close() {
+		InterceptorRegistry.deregister(this);
+	}
+
+	public static class Builder implements Interceptor.Builder {
+
+		private String component;
+		private String header;
+		private int precision;
+
+		@Override
+		public void configure(Context context) {
+			component = context.getString(InterceptorRegistry.COMPONENT_KEY, InterceptorRegistry.DEFAULT_COMPONENT);
+			header = context.getString(HEADER_KEY);
+			precision = context.getInteger(PRECISION_KEY, HyperLogLog.PRECISION_DEFAULT);
+		}
+
+		@Override
+		public Interceptor build() {
+			return new DistinctCountInterceptor(component, header, precision);
+		}
+
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.shavinod.flume.stats;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+
+/**
+ * This interceptor records the distribution of event body sizes and of the
+ * gaps between consecutive events.
+ * 
+ * Body sizes are recorded in bytes and gaps in microseconds. Events that
+ * arrive in one batch share the arrival time of the batch, so all but the
+ * first record a gap of zero.
+ * 
+ * The histograms are drained by PeriodicCountingSource, which publishes
+ * their percentiles as new events.
+ * 
+ */
+public class HistogramInterceptor implements Interceptor {
+
+	private final String component;
+	private final LogHistogram bodySizes = new LogHistogram();
+	private final LogHistogram interArrivals = new LogHistogram();
+	private final AtomicLong lastArrival = new AtomicLong(Long.MIN_VALUE);
+
+	public HistogramInterceptor() {
+		this(InterceptorRegistry.DEFAULT_COMPONENT);
+	}
+
+	/**
+	 * @param component component the histograms are registered under
+	 */
+	public HistogramInterceptor(String component) {
+		this.component = component;
+	}
+
+	/**
+	 * Moves the body sizes recorded since the previous call into the target.
+	 */
+	public void collectBodySizes(LogHistogram target) {
+		bodySizes.drainInto(target);
+	}
+
+	/**
+	 * Moves the inter-arrival gaps recorded since the previous call into the
+	 * target.
+	 */
+	public void collectInterArrivals(LogHistogram target) {
+		interArrivals.drainInto(target);
+	}
+
+	@Override
+	public void initialize() {
+		InterceptorRegistry.register(component, HistogramInterceptor.class, this);
+	}
+
+	@Override
+	public Event intercept(Event event) {
+		recordArrival(System.nanoTime());
+		bodySizes.record(bodyLength(event));
+		return event;
+	}
+
+	@Override
+	public List<Event> intercept(List<Event> events) {
+		if (events.isEmpty()) {
+			return events;
+		}
+		recordArrival(System.nanoTime());
+		for (int i = 0; i < events.size(); i++) {
+			if (i > 0) {
+				interArrivals.record(0);
+			}
+			bodySizes.record(bodyLength(events.get(i)));
+		}
+		return events;
+	}
+
+	private void recordArrival(long now) {
+		long previous = lastArrival.getAndSet(now);
+		if (previous != Long.MIN_VALUE) {
+			interArrivals.record(TimeUnit.NANOSECONDS.toMicros(Math.max(0, now - previous)));
+		}
+	}
+
+	private static long bodyLength(Event event) {
+		if (event == null || event.getBody() == null) {
+			return 0;
+		}
+		return event.getBody().length;
+	}
+
+	@Override
+	public void close() {
+		InterceptorRegistry.deregister(this);
+	}
+
+	public static class Builder implements Interceptor.Builder {
+
+		private String component;
+
+		@Override
+		public void configure(Context context) {
+			component = context.getString(InterceptorRegistry.COMPONENT_KEY, InterceptorRegistry.DEFAULT_COMPONENT);
+		}
+
+		@Override
+		public Interceptor build() {
+			return new HistogramInterceptor(component);
+		}
+
+	}
+
+}
@@ -1,43 +1,178 @@
 package com.shavinod.flume.stats;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.flume.interceptor.Interceptor;
 
+/**
+ * Registry of live stats interceptors, keyed by the agent component they
+ * belong to and by their type.
+ * 
+ * The registry is copy-on-write: every change builds a new immutable
+ * snapshot and swaps it in with a compare-and-set, so registration never
+ * races and readers get a consistent set they can iterate without locking.
+ * 
+ */
 public class InterceptorRegistry {
 
-	private static Map<Class<?>, Set<Interceptor>> interceptors = Collections
-			.synchronizedMap(new HashMap<Class<?>, Set<Interceptor>>());
+	/** Interceptor option naming the component its stats are filed under. */
+	public static final String COMPONENT_KEY = "component";
+	public static final String DEFAULT_COMPONENT = "default";
+
+	private static final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>(Snapshot.EMPTY);
 
 	public static <T extends Interceptor> void register(Class<T> type, T instance) {
+		register(DEFAULT_COMPONENT, type, instance);
+	}
+
+	public static <T extends Interceptor> void register(String component, Class<T> type, T instance) {
+		if (component == null)
+			throw new IllegalArgumentException("Component may not be null");
 		if (type == null)
 			throw new IllegalArgumentException("Type may not be null");
 		if (instance == null)
 			throw new IllegalArgumentException("Instance may not be null");
-		if (!interceptors.containsKey(type)) {
-			interceptors.put(type, Collections.synchronizedSet(new HashSet<Interceptor>()));
+		Key key = new Key(component, type);
+		while (true) {
+			Snapshot current = snapshot.get();
+			Snapshot next = current.with(key, instance);
+			if (next == current || snapshot.compareAndSet(current, next)) {
+				return;
+			}
 		}
-		interceptors.get(type).add(instance);
 	}
 
-	 @SuppressWarnings("unchecked")
-		public static <T extends Interceptor> Set<T> getInstances(Class<T> type) {
-	    	if(interceptors.containsKey(type)) {
-	    		return ((Set<T>) interceptors.get(type));
-	    	} else {
-	    		return Collections.emptySet();
-	    	}
-	    }
+	/**
+	 * All instances of the type, whatever their component. The returned set
+	 * is an immutable snapshot.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Interceptor> Set<T> getInstances(Class<T> type) {
+		Set<Interceptor> instances = snapshot.get().byType.get(type);
+		return instances == null ? Collections.<T> emptySet() : (Set<T>) instances;
+	}
+
+	/**
+	 * Instances of the type registered under any of the given components, or
+	 * under any component at all when components is null.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Interceptor> Set<T> getInstances(Class<T> type, Collection<String> components) {
+		if (components == null) {
+			return getInstances(type);
+		}
+		Snapshot current = snapshot.get();
+		Set<T> instances = new LinkedHashSet<T>();
+		for (String component : components) {
+			Set<Interceptor> registered = current.byKey.get(new Key(component, type));
+			if (registered != null) {
+				instances.addAll((Set<T>) registered);
+			}
+		}
+		return Collections.unmodifiableSet(instances);
+	}
 
 	public static <T extends Interceptor> void deregister(T instance) {
-		interceptors.get(instance.getClass()).remove(instance);
+		while (true) {
+			Snapshot current = snapshot.get();
+			Snapshot next = current.without(instance);
+			if (next == current || snapshot.compareAndSet(current, next)) {
+				return;
+			}
+		}
 	}
 
 	public static void clear() {
-		interceptors.clear();
+		snapshot.set(Snapshot.EMPTY);
+	}
+
+	private static final class Key {
+		final String component;
+		final Class<?> type;
+
+		Key(String component, Class<?> type) {
+			this.component = component;
+			this.type = type;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return component.equals(other.component) && type.equals(other.type);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * component.hashCode() + type.hashCode();
+		}
+	}
+
+	/**
+	 * One immutable state of the registry, with a per-type view derived from
+	 * the per-key one so that readers never have to build it.
+	 */
+	private static final class Snapshot {
+		static final Snapshot EMPTY = new Snapshot(new HashMap<Key, Set<Interceptor>>());
+
+		final Map<Key, Set<Interceptor>> byKey;
+		final Map<Class<?>, Set<Interceptor>> byType;
+
+		Snapshot(Map<Key, Set<Interceptor>> byKey) {
+			this.byKey = byKey;
+			Map<Class<?>, Set<Interceptor>> types = new HashMap<Class<?>, Set<Interceptor>>();
+			for (Map.Entry<Key, Set<Interceptor>> entry : byKey.entrySet()) {
+				Set<Interceptor> instances = types.get(entry.getKey().type);
+				if (instances == null) {
+					instances = new LinkedHashSet<Interceptor>();
+					types.put(entry.getKey().type, instances);
+				}
+				instances.addAll(entry.getValue());
+			}
+			for (Map.Entry<Class<?>, Set<Interceptor>> entry : types.entrySet()) {
+				entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+			}
+			this.byType = types;
+		}
+
+		Snapshot with(Key key, Interceptor instance) {
+			Set<Interceptor> instances = byKey.get(key);
+			if (instances != null && instances.contains(instance)) {
+				return this;
+			}
+			Set<Interceptor> updated = instances == null ? new LinkedHashSet<Interceptor>()
+					: new LinkedHashSet<Interceptor>(instances);
+			updated.add(instance);
+			Map<Key, Set<Interceptor>> copy = new HashMap<Key, Set<Interceptor>>(byKey);
+			copy.put(key, Collections.unmodifiableSet(updated));
+			return new Snapshot(copy);
+		}
+
+		Snapshot without(Interceptor instance) {
+			Map<Key, Set<Interceptor>> copy = null;
+			for (Map.Entry<Key, Set<Interceptor>> entry : byKey.entrySet()) {
+				if (entry.getValue().contains(instance)) {
+					if (copy == null) {
+						copy = new HashMap<Key, Set<Interceptor>>(byKey);
+					}
+					Set<Interceptor> updated = new LinkedHashSet<Interceptor>(entry.getValue());
+					updated.remove(instance);
+					if (updated.isEmpty()) {
+						copy.remove(entry.getKey());
+					} else {
+						copy.put(entry.getKey(), Collections.unmodifiableSet(updated));
+					}
+				}
+			}
+			return copy == null ? this : new Snapshot(copy);
+		}
 	}
 }
@@ -0,0 +1,134 @@
+package com.shavinod.flume.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, log-linear histogram of non-negative long values in the
+ * spirit of HdrHistogram.
+ * 
+ * Values below 32 get a bucket each; above that every power of two is split
+ * into 32 linear sub-buckets, so any recorded value is reported within about
+ * 3% of its true value. The whole range of long fits in 1888 buckets that are
+ * allocated once, which makes recording, merging and draining allocation
+ * free. Recording is safe from any number of threads.
+ * 
+ */
+public class LogHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long value) {
+		if (value < 0)
+			throw new IllegalArgumentException("Value may not be negative: " + value);
+		counts.incrementAndGet(bucketOf(value));
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - SUB_BUCKET_BITS;
+		int sub = (int) (value >>> shift) - SUB_BUCKETS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * The largest value that falls into the given bucket.
+	 */
+	static long highestValueOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * Adds every count of the other histogram to this one.
+	 */
+	public void merge(LogHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			long count = other.counts.get(i);
+			if (count != 0) {
+				counts.addAndGet(i, count);
+			}
+		}
+		raiseMax(other.max.get());
+	}
+
+	/**
+	 * Moves every count of this histogram into the target, leaving this one
+	 * empty. Values recorded concurrently end up in exactly one of the two.
+	 */
+	public void drainInto(LogHistogram target) {
+		for (int i = 0; i < BUCKETS; i++) {
+			if (counts.get(i) != 0) {
+				target.counts.addAndGet(i, counts.getAndSet(i, 0));
+			}
+		}
+		target.raiseMax(max.getAndSet(0));
+	}
+
+	private void raiseMax(long value) {
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		max.set(0);
+	}
+
+	public long getCount() {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * The value below which the given percentage of recorded values fall,
+	 * reported as the top of its bucket and never above the exact maximum.
+	 * 
+	 * @param percentile between 0 and 100
+	 */
+	public long valueAtPercentile(double percentile) {
+		long total = getCount();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+}
@@ -0,0 +1,197 @@
+package com.shavinod.flume.stats;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Renders the live totals and rates of every registered CountingInterceptor,
+ * summed per component, in the Prometheus text exposition format.
+ * 
+ * Rendering reuses one growable byte buffer and writes numbers digit by
+ * digit, so a scrape allocates nothing once the buffer has grown to size.
+ * Not thread-safe; give each serving thread its own instance.
+ * 
+ */
+class MetricsText {
+
+	private static final int[] WINDOWS = SlidingWindowRates.WINDOWS_SECONDS;
+
+	private byte[] buffer = new byte[4096];
+	private int length;
+
+	byte[] buffer() {
+		return buffer;
+	}
+
+	/**
+	 * Renders a fresh exposition into buffer() and returns its length.
+	 */
+	int render() {
+		length = 0;
+		Set<CountingInterceptor> interceptors = InterceptorRegistry.getInstances(CountingInterceptor.class);
+
+		type("flume_stats_events_total", "counter");
+		for (CountingInterceptor ci : interceptors) {
+			if (firstOfComponent(interceptors, ci)) {
+				long events = 0;
+				for (CountingInterceptor other : interceptors) {
+					if (other.getComponent().equals(ci.getComponent())) {
+						events += other.totalEvents();
+					}
+				}
+				sample("flume_stats_events_total", ci.getComponent(), 0);
+				append(events).append('\n');
+			}
+		}
+
+		type("flume_stats_bytes_total", "counter");
+		for (CountingInterceptor ci : interceptors) {
+			if (firstOfComponent(interceptors, ci)) {
+				long bytes = 0;
+				for (CountingInterceptor other : interceptors) {
+					if (other.getComponent().equals(ci.getComponent())) {
+						bytes += other.totalBytes();
+					}
+				}
+				sample("flume_stats_bytes_total", ci.getComponent(), 0);
+				append(bytes).append('\n');
+			}
+		}
+
+		rates(interceptors, "flume_stats_event_rate", false);
+		rates(interceptors, "flume_stats_byte_rate", true);
+		return length;
+	}
+
+	private void rates(Set<CountingInterceptor> interceptors, String name, boolean bytes) {
+		type(name, "gauge");
+		for (CountingInterceptor ci : interceptors) {
+			if (!firstOfComponent(interceptors, ci)) {
+				continue;
+			}
+			for (int window : WINDOWS) {
+				double rate = 0;
+				for (CountingInterceptor other : interceptors) {
+					if (other.getComponent().equals(ci.getComponent())) {
+						rate += bytes ? other.byteRate(window) : other.eventRate(window);
+					}
+				}
+				sample(name, ci.getComponent(), window);
+				append(rate).append('\n');
+			}
+		}
+	}
+
+	/**
+	 * Whether ci is the first interceptor of its component in iteration
+	 * order, so that every component is reported once without a map.
+	 */
+	private static boolean firstOfComponent(Set<CountingInterceptor> interceptors, CountingInterceptor ci) {
+		for (CountingInterceptor other : interceptors) {
+			if (other == ci) {
+				return true;
+			}
+			if (other.getComponent().equals(ci.getComponent())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void type(String name, String type) {
+		append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private void sample(String name, String component, int window) {
+		append(name).append("{component=\"");
+		for (int i = 0; i < component.length();) {
+			int c = component.codePointAt(i);
+			i += Character.charCount(c);
+			if (c == '\\' || c == '"') {
+				append('\\').appendCodePoint(c);
+			} else if (c == '\n') {
+				append("\\n");
+			} else {
+				appendCodePoint(c);
+			}
+		}
+		append('"');
+		if (window > 0) {
+			append(",window=\"").append(window).append("s\"");
+		}
+		append("} ");
+	}
+
+	private MetricsText append(String s) {
+		for (int i = 0; i < s.length();) {
+			int c = s.codePointAt(i);
+			appendCodePoint(c);
+			i += Character.charCount(c);
+		}
+		return this;
+	}
+
+	private MetricsText append(char c) {
+		return appendCodePoint(c);
+	}
+
+	/**
+	 * Appends a code point as UTF-8, and an unpaired surrogate as '?', as
+	 * String.getBytes does.
+	 */
+	private MetricsText appendCodePoint(int c) {
+		if (c < 0x80) {
+			put((byte) c);
+		} else if (c < 0x800) {
+			put((byte) (0xc0 | (c >> 6)));
+			put((byte) (0x80 | (c & 0x3f)));
+		} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+			put((byte) '?');
+		} else if (c < 0x10000) {
+			put((byte) (0xe0 | (c >> 12)));
+			put((byte) (0x80 | ((c >> 6) & 0x3f)));
+			put((byte) (0x80 | (c & 0x3f)));
+		} else {
+			put((byte) (0xf0 | (c >> 18)));
+			put((byte) (0x80 | ((c >> 12) & 0x3f)));
+			put((byte) (0x80 | ((c >> 6) & 0x3f)));
+			put((byte) (0x80 | (c & 0x3f)));
+		}
+		return this;
+	}
+
+	private MetricsText append(long value) {
+		if (value < 0) {
+			put((byte) '-');
+			value = -value;
+		}
+		long divisor = 1;
+		while (value / divisor >= 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			put((byte) ('0' + (value / divisor) % 10));
+		}
+		return this;
+	}
+
+	/**
+	 * Appends a non-negative rate with three decimals.
+	 */
+	private MetricsText append(double value) {
+		long thousandths = Math.round(value * 1000);
+		append(thousandths / 1000).append('.');
+		long fraction = thousandths % 1000;
+		put((byte) ('0' + fraction / 100));
+		put((byte) ('0' + fraction / 10 % 10));
+		put((byte) ('0' + fraction % 10));
+		return this;
+	}
+
+	private void put(byte b) {
+		if (length == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		buffer[length++] = b;
+	}
+}
@@ -1,76 +1,300 @@
 package com.shavinod.flume.stats;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
+import java.util.Set;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.flume.Context;
-import org.apache.flume.Event;
 import org.apache.flume.EventDrivenSource;
 import org.apache.flume.Source;
 import org.apache.flume.conf.Configurable;
-import org.apache.flume.event.EventBuilder;
 import org.apache.flume.interceptor.Interceptor;
 import org.apache.flume.source.AbstractSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Publishes the stats of every registered interceptor once per period.
+ * 
+ * Periods are aligned to wall-clock multiples of the period, so agents with
+ * the same period report the same intervals, and each published event
+ * carries intervalStart and intervalEnd headers in epoch milliseconds.
+ * Collection runs at a fixed rate and so does not drift by the time spent
+ * collecting and publishing. Stopping the source publishes the partial
+ * interval collected since the last boundary.
+ * 
+ */
 public class PeriodicCountingSource extends AbstractSource implements EventDrivenSource, Configurable {
 
-	private ExecutorService service;
+	private static final Logger LOG = LoggerFactory.getLogger(PeriodicCountingSource.class);
+
+	private static final long STOP_TIMEOUT_MILLISECONDS = 5000;
+
+	/**
+	 * Comma separated components whose interceptors are aggregated, matching
+	 * the interceptors' component option. All components when unset.
+	 */
+	public static final String SOURCES_KEY = "sources";
+
+	/**
+	 * Publication format: headers (one event per figure) or binary (one
+	 * StatsCodec-encoded event per interval).
+	 */
+	public static final String FORMAT_KEY = "format";
+	public static final String FORMAT_HEADERS = "headers";
+	public static final String FORMAT_BINARY = "binary";
+
+	private ScheduledExecutorService service;
+	private PeriodicHandler handler;
 	private int periodInMilliseconds;
+	private List<String> components;
+	private boolean binary;
 	
 	@Override
 	public void configure(Context context) {
 		this.periodInMilliseconds = context.getInteger("period", 1000);
+		if (periodInMilliseconds <= 0) {
+			throw new IllegalArgumentException("period must be greater than 0: " + periodInMilliseconds);
+		}
+		String format = context.getString(FORMAT_KEY, FORMAT_HEADERS);
+		if (!FORMAT_HEADERS.equals(format) && !FORMAT_BINARY.equals(format)) {
+			throw new IllegalArgumentException(FORMAT_KEY + " must be " + FORMAT_HEADERS + " or " + FORMAT_BINARY
+					+ ": " + format);
+		}
+		this.binary = FORMAT_BINARY.equals(format);
+		String sources = context.getString(SOURCES_KEY, "");
+		if (sources.trim().length() == 0) {
+			this.components = null;
+		} else {
+			this.components = new ArrayList<String>();
+			for (String component : sources.split(",")) {
+				this.components.add(component.trim());
+			}
+		}
 	}
 	
 	@Override
 	public synchronized void start() {
-		service = Executors.newSingleThreadExecutor();
-		Runnable handler = new PeriodicHandler(this, periodInMilliseconds);
-		service.execute(handler);
+		service = Executors.newSingleThreadScheduledExecutor();
+		handler = new PeriodicHandler(this, periodInMilliseconds, components);
+		handler.setBinary(binary);
+		long now = System.currentTimeMillis();
+		long delay = periodInMilliseconds - now % periodInMilliseconds;
+		service.scheduleAtFixedRate(handler, delay, periodInMilliseconds, TimeUnit.MILLISECONDS);
+		super.start();
 	}
 
 	@Override
 	public synchronized void stop() {
-		// NOP
+		if (service != null) {
+			service.shutdown();
+			try {
+				if (!service.awaitTermination(STOP_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+					LOG.warn("Stats collection did not finish within {} ms", STOP_TIMEOUT_MILLISECONDS);
+					service.shutdownNow();
+				}
+			} catch (InterruptedException e) {
+				service.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+			service = null;
+			handler.flush(System.currentTimeMillis());
+			handler = null;
+		}
+		super.stop();
 	}
 
 	public static class PeriodicHandler implements Runnable {
 		private Source source;
 		private int periodInMilliseconds;
+		private Collection<String> components;
+		private boolean binary;
+		private final LogHistogram bodySizes = new LogHistogram();
+		private final LogHistogram interArrivals = new LogHistogram();
+		private long lastIntervalEnd = -1;
 
 		public PeriodicHandler(Source source, int periodInMilliseconds) { 
+			this(source, periodInMilliseconds, null);
+		}
+
+		/**
+		 * @param components components to aggregate, or null for all of them
+		 */
+		public PeriodicHandler(Source source, int periodInMilliseconds, Collection<String> components) {
 			this.source = source;
 			this.periodInMilliseconds = periodInMilliseconds;
+			this.components = components;
+		}
+
+		/**
+		 * Publishes one StatsCodec-encoded event per interval instead of one
+		 * header-only event per figure.
+		 */
+		public void setBinary(boolean binary) {
+			this.binary = binary;
 		}
 		
-		private void sleep() {
-			try {
-				Thread.sleep(periodInMilliseconds);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+		/**
+		 * Adds the total, with its windowed rates, and the counts per value of
+		 * every dimension.
+		 */
+		private void collectCounts(StatsReport report) {
+			CountSnapshot total = CountSnapshot.EMPTY;
+			WindowRate[] rates = new WindowRate[0];
+			Map<String, CountSnapshot> byDimension = new LinkedHashMap<String, CountSnapshot>();
+			for(Interceptor i :InterceptorRegistry.getInstances(CountingInterceptor.class, components)) {
+				CountingInterceptor ci = (CountingInterceptor) i;
+				CountSnapshot counts = ci.collect();
+				total = total.plus(new CountSnapshot(counts.getEvents(), counts.getBytes()));
+				rates = plus(rates, ci.rates());
+				if (ci.getDimension() != null) {
+					CountSnapshot previous = byDimension.get(ci.getDimension());
+					byDimension.put(ci.getDimension(), previous == null ? counts : previous.plus(counts));
+				}
+			}
+			report.setTotal(total);
+			report.setRates(rates);
+			for (Map.Entry<String, CountSnapshot> dimension : byDimension.entrySet()) {
+				report.addDimension(dimension.getKey(), dimension.getValue().getDimensions());
+			}
+		}
+
+		/**
+		 * Adds the percentiles of the period for each histogram, if any
+		 * HistogramInterceptor is registered.
+		 */
+		private void collectHistograms(StatsReport report) {
+			Set<HistogramInterceptor> interceptors = InterceptorRegistry.getInstances(HistogramInterceptor.class, components);
+			if (interceptors.isEmpty()) {
 				return;
 			}
+			bodySizes.reset();
+			interArrivals.reset();
+			for (HistogramInterceptor hi : interceptors) {
+				hi.collectBodySizes(bodySizes);
+				hi.collectInterArrivals(interArrivals);
+			}
+			report.addHistogram(StatsReport.HistogramSummary.of("bodySize", bodySizes));
+			report.addHistogram(StatsReport.HistogramSummary.of("interArrivalMicros", interArrivals));
 		}
-		
-		private void publish(int count) {
-			Map<String, String> headers = new HashMap<String, String>();
-			headers.put("count", count + "");
-			Event event = EventBuilder.withBody(new byte[0], headers);
-			source.getChannelProcessor().processEvent(event);
+
+		/**
+		 * Adds the heavy hitters of every header tracked by a TopKInterceptor.
+		 * The true frequency of a value lies within [count - error, count];
+		 * total is the number of events that carried the header.
+		 */
+		private void collectTopK(StatsReport report) {
+			Map<String, SpaceSaving> summaries = new LinkedHashMap<String, SpaceSaving>();
+			Map<String, Integer> ks = new HashMap<String, Integer>();
+			for (TopKInterceptor ti : InterceptorRegistry.getInstances(TopKInterceptor.class, components)) {
+				SpaceSaving summary = summaries.get(ti.getHeader());
+				if (summary == null) {
+					summary = new SpaceSaving(ti.getCapacity());
+					summaries.put(ti.getHeader(), summary);
+				}
+				Integer k = ks.get(ti.getHeader());
+				ks.put(ti.getHeader(), k == null ? ti.getK() : Math.max(k, ti.getK()));
+				ti.collect(summary);
+			}
+			for (Map.Entry<String, SpaceSaving> summary : summaries.entrySet()) {
+				List<StatsReport.HeavyHitter> hitters = new ArrayList<StatsReport.HeavyHitter>();
+				for (SpaceSaving.Entry entry : summary.getValue().top(ks.get(summary.getKey()))) {
+					hitters.add(new StatsReport.HeavyHitter(entry.value, entry.count, entry.error));
+				}
+				report.addHeavyHitters(new StatsReport.HeavyHitters(summary.getKey(), summary.getValue().total(), hitters));
+			}
 		}
-		
+
+		/**
+		 * Adds the estimate and merged sketch of every key tracked by a
+		 * DistinctCountInterceptor.
+		 */
+		private void collectDistinct(StatsReport report) {
+			Map<String, HyperLogLog> sketches = new LinkedHashMap<String, HyperLogLog>();
+			for (DistinctCountInterceptor di : InterceptorRegistry.getInstances(DistinctCountInterceptor.class, components)) {
+				// sketches only merge at equal precision
+				String name = di.getKey() + "/" + di.getPrecision();
+				HyperLogLog sketch = sketches.get(name);
+				if (sketch == null) {
+					sketch = new HyperLogLog(di.getPrecision());
+					sketches.put(name, sketch);
+				}
+				di.collect(sketch);
+			}
+			for (Map.Entry<String, HyperLogLog> sketch : sketches.entrySet()) {
+				String name = sketch.getKey();
+				HyperLogLog hll = sketch.getValue();
+				report.addDistinctCount(new StatsReport.DistinctCount(name.substring(0, name.lastIndexOf('/')),
+						hll.getPrecision(), hll.estimate(), hll.toBytes()));
+			}
+		}
+
+		/**
+		 * Publishes the interval that ends at the period boundary nearest to
+		 * now. The schedule keeps time with System.nanoTime, so a run due at
+		 * a boundary may fire a little before or after it by the wall clock;
+		 * either way it reports that boundary. A catch-up run for a boundary
+		 * already reported is skipped.
+		 */
 		@Override
 		public void run() {
-			while(true) {
-				sleep();
-				int count = 0;
-				for(Interceptor i :InterceptorRegistry.getInstances(CountingInterceptor.class)) {
-					count += ((CountingInterceptor) i).collect();
+			run(System.currentTimeMillis());
+		}
+
+		void run(long now) {
+			long end = (now + periodInMilliseconds / 2) / periodInMilliseconds * periodInMilliseconds;
+			if (end <= lastIntervalEnd) {
+				return;
+			}
+			publish(end);
+		}
+
+		/**
+		 * Publishes whatever was collected since the last reported boundary,
+		 * as an interval ending now.
+		 */
+		public void flush(long now) {
+			if (now > lastIntervalEnd) {
+				publish(now);
+			}
+		}
+
+		private void publish(long end) {
+			long start = lastIntervalEnd < 0 ? end - periodInMilliseconds : lastIntervalEnd;
+			lastIntervalEnd = end;
+			try {
+				StatsReport report = new StatsReport(start, end);
+				collectCounts(report);
+				collectHistograms(report);
+				collectTopK(report);
+				collectDistinct(report);
+				if (binary) {
+					source.getChannelProcessor().processEvent(StatsCodec.toEvent(report));
+				} else {
+					// everything for one period goes in a single channel transaction
+					source.getChannelProcessor().processEventBatch(report.toEvents());
 				}
-				publish(count);
+			} catch (RuntimeException e) {
+				// an exception would cancel the fixed-rate schedule
+				LOG.error("Unable to publish stats for interval ending " + end, e);
+			}
+		}
+
+		private static WindowRate[] plus(WindowRate[] sum, WindowRate[] rates) {
+			if (sum.length == 0) {
+				return rates;
+			}
+			for (int i = 0; i < sum.length; i++) {
+				sum[i] = sum[i].plus(rates[i]);
 			}
+			return sum;
 		}
 
 	}
@@ -0,0 +1,113 @@
+package com.shavinod.flume.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free ring of once-per-second samples of a monotonic event and byte
+ * total, from which rates over the last 1s, 10s, 60s and 5m are derived.
+ * 
+ * Reading never resets anything, so any number of consumers can query the
+ * same store. Each rate divides the growth of the total by the time that
+ * actually elapsed between the two samples, so it does not depend on how
+ * punctually the samples were taken. When no sample is old enough yet (or a
+ * second was skipped) the oldest usable sample is taken instead.
+ * 
+ */
+public class SlidingWindowRates {
+
+	public static final int[] WINDOWS_SECONDS = { 1, 10, 60, 300 };
+
+	private static final int SLOTS = 302;
+
+	private final AtomicReferenceArray<Sample> ring = new AtomicReferenceArray<Sample>(SLOTS);
+	private final AtomicLong lastSecond = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * Stores the counter's total for the second of nowMillis, unless that
+	 * second already has a sample. Safe to call from any thread; only the
+	 * caller that claims the second pays for reading the counter.
+	 */
+	public void sample(long nowMillis, StripedCounter counter) {
+		long second = nowMillis / 1000;
+		long last = lastSecond.get();
+		if (second > last && lastSecond.compareAndSet(last, second)) {
+			CountSnapshot total = counter.sum();
+			ring.set((int) (second % SLOTS), new Sample(nowMillis, total.getEvents(), total.getBytes()));
+		}
+	}
+
+	/**
+	 * Rates for each of WINDOWS_SECONDS up to the given current total.
+	 */
+	public WindowRate[] rates(long nowMillis, CountSnapshot total) {
+		WindowRate[] rates = new WindowRate[WINDOWS_SECONDS.length];
+		for (int i = 0; i < rates.length; i++) {
+			rates[i] = rate(WINDOWS_SECONDS[i], nowMillis, total);
+		}
+		return rates;
+	}
+
+	public WindowRate rate(int windowSeconds, long nowMillis, CountSnapshot total) {
+		return new WindowRate(windowSeconds, eventRate(windowSeconds, nowMillis, total.getEvents()), byteRate(
+				windowSeconds, nowMillis, total.getBytes()));
+	}
+
+	/**
+	 * Events per second over the window, up to the given current event
+	 * total. Does not allocate.
+	 */
+	public double eventRate(int windowSeconds, long nowMillis, long events) {
+		Sample base = baseSample(nowMillis - windowSeconds * 1000L);
+		if (base == null || base.millis >= nowMillis) {
+			return 0;
+		}
+		return (events - base.events) / ((nowMillis - base.millis) / 1000.0);
+	}
+
+	/**
+	 * Bytes per second over the window, up to the given current byte total.
+	 * Does not allocate.
+	 */
+	public double byteRate(int windowSeconds, long nowMillis, long bytes) {
+		Sample base = baseSample(nowMillis - windowSeconds * 1000L);
+		if (base == null || base.millis >= nowMillis) {
+			return 0;
+		}
+		return (bytes - base.bytes) / ((nowMillis - base.millis) / 1000.0);
+	}
+
+	/**
+	 * The newest sample taken at or before the cutoff, or failing that the
+	 * oldest sample in the ring.
+	 */
+	private Sample baseSample(long cutoffMillis) {
+		Sample newestBefore = null;
+		Sample oldest = null;
+		for (int i = 0; i < SLOTS; i++) {
+			Sample sample = ring.get(i);
+			if (sample == null) {
+				continue;
+			}
+			if (sample.millis <= cutoffMillis && (newestBefore == null || sample.millis > newestBefore.millis)) {
+				newestBefore = sample;
+			}
+			if (oldest == null || sample.millis < oldest.millis) {
+				oldest = sample;
+			}
+		}
+		return newestBefore != null ? newestBefore : oldest;
+	}
+
+	private static final class Sample {
+		final long millis;
+		final long events;
+		final long bytes;
+
+		Sample(long millis, long events, long bytes) {
+			this.millis = millis;
+			this.events = events;
+			this.bytes = bytes;
+		}
+	}
+}
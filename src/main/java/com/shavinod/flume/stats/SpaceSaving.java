@@ -0,0 +1,303 @@
+package com.shavinod.flume.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Space-Saving summary of the most frequent values in a stream, using a fixed
+ * number of counters.
+ * 
+ * Every monitored value carries a count, which never underestimates its true
+ * frequency, and an error, so the true frequency lies within [count - error,
+ * count]. When all counters are taken, a new value replaces the one with the
+ * smallest count and inherits that count as its error. Counters sit in a
+ * min-heap and are found through an open-addressing index keyed by
+ * DimensionTable.hash, so every offer is O(log capacity) with no allocation.
+ * Not thread-safe.
+ * 
+ */
+class SpaceSaving {
+
+	private static final long EMPTY = 0L;
+
+	private final int capacity;
+	private final long[] keys;
+	private final String[] labels;
+	private final long[] counts;
+	private final long[] errors;
+	private int size;
+	private long total;
+
+	/** min-heap of counter slots ordered by count, and each slot's position */
+	private final int[] heap;
+	private final int[] heapPosition;
+
+	private final int indexMask;
+	private final long[] indexKeys;
+	private final int[] indexSlots;
+
+	SpaceSaving(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		this.capacity = capacity;
+		this.keys = new long[capacity];
+		this.labels = new String[capacity];
+		this.counts = new long[capacity];
+		this.errors = new long[capacity];
+		this.heap = new int[capacity];
+		this.heapPosition = new int[capacity];
+		int indexCapacity = 2;
+		while (indexCapacity < capacity * 2) {
+			indexCapacity <<= 1;
+		}
+		this.indexMask = indexCapacity - 1;
+		this.indexKeys = new long[indexCapacity];
+		this.indexSlots = new int[indexCapacity];
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * The number of occurrences offered, including evicted ones.
+	 */
+	long total() {
+		return total;
+	}
+
+	void offer(String value) {
+		offer(DimensionTable.hash(value), value, 1, 0);
+	}
+
+	/**
+	 * Adds count occurrences of a value whose count is already uncertain by
+	 * error, as when merging another summary.
+	 */
+	void offer(long key, String label, long count, long error) {
+		total += count;
+		int slot = lookup(key);
+		if (slot >= 0) {
+			counts[slot] += count;
+			errors[slot] += error;
+			siftDown(heapPosition[slot]);
+			return;
+		}
+		if (size < capacity) {
+			slot = size++;
+			set(slot, key, label, count, error);
+			heap[slot] = slot;
+			heapPosition[slot] = slot;
+			siftUp(slot);
+			return;
+		}
+		slot = heap[0];
+		long min = counts[slot];
+		unindex(keys[slot]);
+		set(slot, key, label, min + count, min + error);
+		siftDown(0);
+	}
+
+	private void set(int slot, long key, String label, long count, long error) {
+		keys[slot] = key;
+		labels[slot] = label;
+		counts[slot] = count;
+		errors[slot] = error;
+		index(key, slot);
+	}
+
+	/**
+	 * Merges this summary into the target, as mergeable summaries do: a value
+	 * one side does not monitor may still have occurred there up to that
+	 * side's smallest count, if it is full, so that count is added to the
+	 * value's count and error. The capacity values with the highest counts
+	 * are kept, and every count still brackets the value's true frequency
+	 * in both streams together.
+	 */
+	void mergeInto(SpaceSaving target) {
+		long min = minCount();
+		long targetMin = target.minCount();
+		int merged = 0;
+		long[] mergedKeys = new long[target.size + size];
+		String[] mergedLabels = new String[mergedKeys.length];
+		long[] mergedCounts = new long[mergedKeys.length];
+		long[] mergedErrors = new long[mergedKeys.length];
+		for (int slot = 0; slot < target.size; slot++) {
+			int other = lookup(target.keys[slot]);
+			mergedKeys[merged] = target.keys[slot];
+			mergedLabels[merged] = target.labels[slot];
+			mergedCounts[merged] = target.counts[slot] + (other >= 0 ? counts[other] : min);
+			mergedErrors[merged] = target.errors[slot] + (other >= 0 ? errors[other] : min);
+			merged++;
+		}
+		for (int slot = 0; slot < size; slot++) {
+			if (target.lookup(keys[slot]) < 0) {
+				mergedKeys[merged] = keys[slot];
+				mergedLabels[merged] = labels[slot];
+				mergedCounts[merged] = counts[slot] + targetMin;
+				mergedErrors[merged] = errors[slot] + targetMin;
+				merged++;
+			}
+		}
+
+		Integer[] order = new Integer[merged];
+		for (int i = 0; i < merged; i++) {
+			order[i] = i;
+		}
+		final long[] byCount = mergedCounts;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				long ca = byCount[a];
+				long cb = byCount[b];
+				return ca < cb ? 1 : (ca > cb ? -1 : 0);
+			}
+		});
+
+		long total = target.total + this.total;
+		target.clear();
+		target.total = total;
+		for (int i = 0; i < Math.min(merged, target.capacity); i++) {
+			int from = order[i];
+			int slot = target.size++;
+			target.set(slot, mergedKeys[from], mergedLabels[from], mergedCounts[from], mergedErrors[from]);
+			target.heap[slot] = slot;
+			target.heapPosition[slot] = slot;
+			target.siftUp(slot);
+		}
+	}
+
+	/**
+	 * The smallest count if every counter is taken, else 0: the most any
+	 * value not monitored can have occurred.
+	 */
+	private long minCount() {
+		return size < capacity ? 0 : counts[heap[0]];
+	}
+
+	/**
+	 * The k values with the highest counts, highest first.
+	 */
+	List<Entry> top(int k) {
+		List<Entry> entries = new ArrayList<Entry>(size);
+		for (int slot = 0; slot < size; slot++) {
+			entries.add(new Entry(labels[slot], counts[slot], errors[slot]));
+		}
+		Collections.sort(entries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				return a.count < b.count ? 1 : (a.count > b.count ? -1 : 0);
+			}
+		});
+		return entries.size() > k ? entries.subList(0, k) : entries;
+	}
+
+	void clear() {
+		if (size > 0) {
+			Arrays.fill(indexKeys, EMPTY);
+			Arrays.fill(labels, null);
+			size = 0;
+		}
+		total = 0;
+	}
+
+	private void siftUp(int position) {
+		int slot = heap[position];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (counts[heap[parent]] <= counts[slot]) {
+				break;
+			}
+			place(heap[parent], position);
+			position = parent;
+		}
+		place(slot, position);
+	}
+
+	private void siftDown(int position) {
+		int slot = heap[position];
+		int half = size >>> 1;
+		while (position < half) {
+			int child = 2 * position + 1;
+			int right = child + 1;
+			if (right < size && counts[heap[right]] < counts[heap[child]]) {
+				child = right;
+			}
+			if (counts[slot] <= counts[heap[child]]) {
+				break;
+			}
+			place(heap[child], position);
+			position = child;
+		}
+		place(slot, position);
+	}
+
+	private void place(int slot, int position) {
+		heap[position] = slot;
+		heapPosition[slot] = position;
+	}
+
+	private int home(long key) {
+		return (int) (key ^ (key >>> 32)) & indexMask;
+	}
+
+	private int lookup(long key) {
+		for (int i = home(key);; i = (i + 1) & indexMask) {
+			if (indexKeys[i] == key) {
+				return indexSlots[i];
+			}
+			if (indexKeys[i] == EMPTY) {
+				return -1;
+			}
+		}
+	}
+
+	private void index(long key, int slot) {
+		int i = home(key);
+		while (indexKeys[i] != EMPTY) {
+			i = (i + 1) & indexMask;
+		}
+		indexKeys[i] = key;
+		indexSlots[i] = slot;
+	}
+
+	/**
+	 * Linear-probing delete that shifts later entries of the probe run back
+	 * into the hole instead of leaving tombstones.
+	 */
+	private void unindex(long key) {
+		int hole = home(key);
+		while (indexKeys[hole] != key) {
+			hole = (hole + 1) & indexMask;
+		}
+		indexKeys[hole] = EMPTY;
+		for (int i = (hole + 1) & indexMask; indexKeys[i] != EMPTY; i = (i + 1) & indexMask) {
+			int home = home(indexKeys[i]);
+			boolean reachable = hole <= i ? (hole < home && home <= i) : (hole < home || home <= i);
+			if (!reachable) {
+				indexKeys[hole] = indexKeys[i];
+				indexSlots[hole] = indexSlots[i];
+				indexKeys[i] = EMPTY;
+				hole = i;
+			}
+		}
+	}
+
+	/**
+	 * A monitored value. Its true frequency lies within [count - error, count].
+	 */
+	static class Entry {
+		final String value;
+		final long count;
+		final long error;
+
+		Entry(String value, long count, long error) {
+			this.value = value;
+			this.count = count;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package com.shavinod.flume.stats;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+
+/**
+ * Compact, versioned binary encoding of a StatsReport.
+ * 
+ * All integers are unsigned LEB128 varints. Values that only grow within a
+ * record are delta-encoded against the previous one: the interval end
+ * against its start, each percentile against the one below, and the counts
+ * of ranked heavy hitters against the one above. Rates are stored in
+ * thousandths of a unit per second. Strings are a varint byte length
+ * followed by UTF-8.
+ * 
+ * <pre>
+ * payload   := 'F' 'S' version(=2) start (end - start) record*
+ * record    := tag #bytes body
+ * body      := COUNTS events bytes #rates (window events/s*1000 bytes/s*1000)*
+ *            | DIMENSION name #values (value events bytes)*
+ *            | HISTOGRAM name count p50 (p90-p50) (p99-p90) (p999-p99) (max-p999)
+ *            | TOPK header total #hitters (value (previous-count) error)*
+ *            | DISTINCT key precision estimate #bytes sketch-bytes
+ * </pre>
+ * 
+ * Records carry their length, so readers skip records with tags they do not
+ * know, and new kinds of record can be added without changing the version.
+ * The version byte only changes when existing records change, and a reader
+ * rejects any version but its own.
+ * 
+ */
+public class StatsCodec {
+
+	/** Header marking an event whose body is a StatsCodec payload. */
+	public static final String FORMAT_HEADER = "statsFormat";
+	public static final String FORMAT_VALUE = "binary";
+
+	static final byte VERSION = 2;
+
+	private static final byte COUNTS = 1;
+	private static final byte DIMENSION = 2;
+	private static final byte HISTOGRAM = 3;
+	private static final byte TOPK = 4;
+	private static final byte DISTINCT = 5;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final double RATE_SCALE = 1000.0;
+
+	public static Event toEvent(StatsReport report) {
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		headers.put(FORMAT_HEADER, FORMAT_VALUE);
+		headers.put("intervalStart", report.getIntervalStart() + "");
+		headers.put("intervalEnd", report.getIntervalEnd() + "");
+		return EventBuilder.withBody(encode(report), headers);
+	}
+
+	public static boolean isEncoded(Event event) {
+		return FORMAT_VALUE.equals(event.getHeaders().get(FORMAT_HEADER));
+	}
+
+	public static byte[] encode(StatsReport report) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		out.write('F');
+		out.write('S');
+		out.write(VERSION);
+		writeVarint(out, report.getIntervalStart());
+		writeVarint(out, report.getIntervalEnd() - report.getIntervalStart());
+
+		ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+		writeVarint(record, report.getTotal().getEvents());
+		writeVarint(record, report.getTotal().getBytes());
+		writeVarint(record, report.getRates().length);
+		for (WindowRate rate : report.getRates()) {
+			writeVarint(record, rate.getWindowSeconds());
+			writeVarint(record, Math.round(rate.getEventsPerSecond() * RATE_SCALE));
+			writeVarint(record, Math.round(rate.getBytesPerSecond() * RATE_SCALE));
+		}
+		endRecord(out, COUNTS, record);
+
+		for (Map.Entry<String, Map<String, CountSnapshot>> dimension : report.getDimensions().entrySet()) {
+			writeString(record, dimension.getKey());
+			writeVarint(record, dimension.getValue().size());
+			for (Map.Entry<String, CountSnapshot> value : dimension.getValue().entrySet()) {
+				writeString(record, value.getKey());
+				writeVarint(record, value.getValue().getEvents());
+				writeVarint(record, value.getValue().getBytes());
+			}
+			endRecord(out, DIMENSION, record);
+		}
+
+		for (StatsReport.HistogramSummary histogram : report.getHistograms()) {
+			writeString(record, histogram.getName());
+			writeVarint(record, histogram.getCount());
+			writeVarint(record, histogram.getP50());
+			writeVarint(record, histogram.getP90() - histogram.getP50());
+			writeVarint(record, histogram.getP99() - histogram.getP90());
+			writeVarint(record, histogram.getP999() - histogram.getP99());
+			writeVarint(record, histogram.getMax() - histogram.getP999());
+			endRecord(out, HISTOGRAM, record);
+		}
+
+		for (StatsReport.HeavyHitters hitters : report.getHeavyHitters()) {
+			writeString(record, hitters.getHeader());
+			writeVarint(record, hitters.getTotal());
+			writeVarint(record, hitters.getHitters().size());
+			long previous = hitters.getTotal();
+			for (StatsReport.HeavyHitter hitter : hitters.getHitters()) {
+				writeString(record, hitter.getValue());
+				writeVarint(record, previous - hitter.getCount());
+				writeVarint(record, hitter.getError());
+				previous = hitter.getCount();
+			}
+			endRecord(out, TOPK, record);
+		}
+
+		for (StatsReport.DistinctCount distinct : report.getDistinctCounts()) {
+			writeString(record, distinct.getKey());
+			writeVarint(record, distinct.getPrecision());
+			writeVarint(record, distinct.getEstimate());
+			writeVarint(record, distinct.getSketch().length);
+			record.write(distinct.getSketch(), 0, distinct.getSketch().length);
+			endRecord(out, DISTINCT, record);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes the record's tag, length and body, and empties it for the next.
+	 */
+	private static void endRecord(ByteArrayOutputStream out, byte tag, ByteArrayOutputStream record) {
+		out.write(tag);
+		writeVarint(out, record.size());
+		byte[] body = record.toByteArray();
+		out.write(body, 0, body.length);
+		record.reset();
+	}
+
+	public static StatsReport decode(byte[] payload) {
+		ByteBuffer in = ByteBuffer.wrap(payload);
+		try {
+			if (in.get() != 'F' || in.get() != 'S') {
+				throw new IllegalArgumentException("Not a stats payload");
+			}
+			byte version = in.get();
+			if (version != VERSION) {
+				throw new IllegalArgumentException("Unsupported stats payload version " + version);
+			}
+			long start = readVarint(in);
+			StatsReport report = new StatsReport(start, start + readVarint(in));
+			while (in.hasRemaining()) {
+				byte tag = in.get();
+				int length = readLength(in);
+				ByteBuffer record = in.slice();
+				record.limit(length);
+				in.position(in.position() + length);
+				switch (tag) {
+				case COUNTS:
+					report.setTotal(new CountSnapshot(readVarint(record), readVarint(record)));
+					WindowRate[] rates = new WindowRate[readLength(record)];
+					for (int i = 0; i < rates.length; i++) {
+						rates[i] = new WindowRate((int) readVarint(record), readVarint(record) / RATE_SCALE, readVarint(record)
+								/ RATE_SCALE);
+					}
+					report.setRates(rates);
+					break;
+				case DIMENSION:
+					String dimension = readString(record);
+					int values = readLength(record);
+					Map<String, CountSnapshot> counts = new LinkedHashMap<String, CountSnapshot>();
+					for (int i = 0; i < values; i++) {
+						counts.put(readString(record), new CountSnapshot(readVarint(record), readVarint(record)));
+					}
+					report.addDimension(dimension, Collections.unmodifiableMap(counts));
+					break;
+				case HISTOGRAM:
+					String name = readString(record);
+					long count = readVarint(record);
+					long p50 = readVarint(record);
+					long p90 = p50 + readVarint(record);
+					long p99 = p90 + readVarint(record);
+					long p999 = p99 + readVarint(record);
+					long max = p999 + readVarint(record);
+					report.addHistogram(new StatsReport.HistogramSummary(name, count, p50, p90, p99, p999, max));
+					break;
+				case TOPK:
+					String header = readString(record);
+					long total = readVarint(record);
+					int size = readLength(record);
+					List<StatsReport.HeavyHitter> hitters = new ArrayList<StatsReport.HeavyHitter>(size);
+					long previous = total;
+					for (int i = 0; i < size; i++) {
+						String value = readString(record);
+						previous -= readVarint(record);
+						hitters.add(new StatsReport.HeavyHitter(value, previous, readVarint(record)));
+					}
+					report.addHeavyHitters(new StatsReport.HeavyHitters(header, total, hitters));
+					break;
+				case DISTINCT:
+					String key = readString(record);
+					int precision = (int) readVarint(record);
+					long estimate = readVarint(record);
+					byte[] sketch = new byte[readLength(record)];
+					record.get(sketch);
+					report.addDistinctCount(new StatsReport.DistinctCount(key, precision, estimate, sketch));
+					break;
+				default:
+					// a record added by a newer writer
+					break;
+				}
+			}
+			return report;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated stats payload", e);
+		}
+	}
+
+	static void writeVarint(ByteArrayOutputStream out, long value) {
+		if (value < 0)
+			throw new IllegalArgumentException("Cannot encode negative value " + value);
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	static long readVarint(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	/**
+	 * Reads a length or element count, which cannot exceed the bytes left
+	 * since every element takes at least one.
+	 */
+	private static int readLength(ByteBuffer in) {
+		long length = readVarint(in);
+		if (length < 0 || length > in.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		return (int) length;
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String value) {
+		byte[] bytes = value.getBytes(UTF_8);
+		writeVarint(out, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[readLength(in)];
+		in.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+}
@@ -0,0 +1,131 @@
+package com.shavinod.flume.stats;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes the live totals and rates of every registered CountingInterceptor,
+ * summed per component, as read-only JMX attributes named
+ * component.Events, component.Bytes, component.EventRate10s and
+ * component.ByteRate10s (one rate attribute per sliding window).
+ * 
+ * Attributes are read from the registry on each request, so components
+ * registered after the bean appear without re-registration.
+ * 
+ */
+public class StatsMBean implements DynamicMBean {
+
+	public static final String OBJECT_NAME = "com.shavinod.flume.stats:type=StatsRegistry";
+
+	private static final String EVENTS = "Events";
+	private static final String BYTES = "Bytes";
+	private static final String EVENT_RATE = "EventRate";
+	private static final String BYTE_RATE = "ByteRate";
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		int dot = attribute.lastIndexOf('.');
+		if (dot <= 0) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		String component = attribute.substring(0, dot);
+		String name = attribute.substring(dot + 1);
+		Set<CountingInterceptor> interceptors = InterceptorRegistry.getInstances(CountingInterceptor.class);
+		if (EVENTS.equals(name) || BYTES.equals(name)) {
+			long total = 0;
+			for (CountingInterceptor ci : interceptors) {
+				if (ci.getComponent().equals(component)) {
+					total += EVENTS.equals(name) ? ci.totalEvents() : ci.totalBytes();
+				}
+			}
+			return total;
+		}
+		boolean events = name.startsWith(EVENT_RATE);
+		if (!events && !name.startsWith(BYTE_RATE)) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		int window = windowOf(name.substring(events ? EVENT_RATE.length() : BYTE_RATE.length()));
+		if (window < 0) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		double rate = 0;
+		for (CountingInterceptor ci : interceptors) {
+			if (ci.getComponent().equals(component)) {
+				rate += events ? ci.eventRate(window) : ci.byteRate(window);
+			}
+		}
+		return rate;
+	}
+
+	private static int windowOf(String suffix) {
+		for (int window : SlidingWindowRates.WINDOWS_SECONDS) {
+			if (suffix.equals(window + "s")) {
+				return window;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				// omitted, as the DynamicMBean contract allows
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		Set<String> components = new LinkedHashSet<String>();
+		for (CountingInterceptor ci : InterceptorRegistry.getInstances(CountingInterceptor.class)) {
+			components.add(ci.getComponent());
+		}
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (String component : components) {
+			attributes.add(attribute(component + "." + EVENTS, "long", "Events counted"));
+			attributes.add(attribute(component + "." + BYTES, "long", "Body bytes counted"));
+			for (int window : SlidingWindowRates.WINDOWS_SECONDS) {
+				attributes.add(attribute(component + "." + EVENT_RATE + window + "s", "double", "Events per second over "
+						+ window + "s"));
+				attributes.add(attribute(component + "." + BYTE_RATE + window + "s", "double", "Bytes per second over "
+						+ window + "s"));
+			}
+		}
+		return new MBeanInfo(getClass().getName(), "Live flume-stats counts and rates",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+	}
+
+	private static MBeanAttributeInfo attribute(String name, String type, String description) {
+		return new MBeanAttributeInfo(name, type, description, true, false, false);
+	}
+}
@@ -0,0 +1,141 @@
+package com.shavinod.flume.stats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.flume.Context;
+import org.apache.flume.FlumeException;
+import org.apache.flume.instrumentation.MonitorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the live stats of every registered CountingInterceptor on demand,
+ * without routing them through a channel: as Prometheus-style text on
+ * http://bind:port/metrics and, unless jmx = false, as the StatsMBean.
+ * 
+ * Enable it with -Dflume.monitoring.type=com.shavinod.flume.stats.StatsMonitorService
+ * and -Dflume.monitoring.port=41415. Values are read from the registry per
+ * request; a scrape allocates only while the response buffer grows.
+ * 
+ */
+public class StatsMonitorService implements MonitorService {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StatsMonitorService.class);
+
+	public static final String PORT_KEY = "port";
+	public static final String BIND_KEY = "bind";
+	public static final String JMX_KEY = "jmx";
+
+	public static final int DEFAULT_PORT = 41415;
+	public static final String DEFAULT_BIND = "127.0.0.1";
+	public static final String PATH = "/metrics";
+
+	private int port;
+	private String bind;
+	private boolean jmx;
+
+	private HttpServer server;
+	private ObjectName objectName;
+
+	@Override
+	public void configure(Context context) {
+		this.port = context.getInteger(PORT_KEY, DEFAULT_PORT);
+		if (port < 0 || port > 65535) {
+			throw new IllegalArgumentException(PORT_KEY + " must be between 0 and 65535: " + port);
+		}
+		this.bind = context.getString(BIND_KEY, DEFAULT_BIND);
+		this.jmx = context.getBoolean(JMX_KEY, true);
+	}
+
+	@Override
+	public synchronized void start() {
+		try {
+			server = HttpServer.create(new InetSocketAddress(bind, port), 0);
+		} catch (IOException e) {
+			throw new FlumeException("Unable to bind " + bind + ":" + port, e);
+		}
+		server.createContext(PATH, new MetricsHandler());
+		server.start();
+		LOG.info("Serving stats on http://" + bind + ":" + getPort() + PATH);
+
+		if (jmx) {
+			try {
+				objectName = new ObjectName(StatsMBean.OBJECT_NAME);
+				MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+				if (!mbeans.isRegistered(objectName)) {
+					mbeans.registerMBean(new StatsMBean(), objectName);
+				} else {
+					objectName = null;
+				}
+			} catch (JMException e) {
+				LOG.warn("Unable to register " + StatsMBean.OBJECT_NAME, e);
+				objectName = null;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e) {
+				LOG.warn("Unable to unregister " + objectName, e);
+			}
+			objectName = null;
+		}
+	}
+
+	/**
+	 * The bound port, which differs from the configured one when that is 0.
+	 */
+	public synchronized int getPort() {
+		return server == null ? port : server.getAddress().getPort();
+	}
+
+	/**
+	 * Renders into one reused buffer; the server's default executor runs a
+	 * single thread, and the lock covers any other.
+	 */
+	private static class MetricsHandler implements HttpHandler {
+
+		private final MetricsText text = new MetricsText();
+
+		@Override
+		public synchronized void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+					exchange.sendResponseHeaders(405, -1);
+					return;
+				}
+				int length = text.render();
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				if ("HEAD".equals(exchange.getRequestMethod())) {
+					exchange.sendResponseHeaders(200, -1);
+					return;
+				}
+				exchange.sendResponseHeaders(200, length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(text.buffer(), 0, length);
+				out.close();
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package com.shavinod.flume.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+
+/**
+ * Everything PeriodicCountingSource gathered for one interval.
+ * 
+ * A report is rendered either as one header-only event per figure, or
+ * encoded into a single event body by StatsCodec.
+ * 
+ */
+public class StatsReport {
+
+	private final long intervalStart;
+	private final long intervalEnd;
+	private CountSnapshot total = CountSnapshot.EMPTY;
+	private WindowRate[] rates = new WindowRate[0];
+	private final Map<String, Map<String, CountSnapshot>> dimensions = new LinkedHashMap<String, Map<String, CountSnapshot>>();
+	private final List<HistogramSummary> histograms = new ArrayList<HistogramSummary>();
+	private final List<HeavyHitters> heavyHitters = new ArrayList<HeavyHitters>();
+	private final List<DistinctCount> distinctCounts = new ArrayList<DistinctCount>();
+
+	public StatsReport(long intervalStart, long intervalEnd) {
+		this.intervalStart = intervalStart;
+		this.intervalEnd = intervalEnd;
+	}
+
+	public long getIntervalStart() {
+		return intervalStart;
+	}
+
+	public long getIntervalEnd() {
+		return intervalEnd;
+	}
+
+	public CountSnapshot getTotal() {
+		return total;
+	}
+
+	public void setTotal(CountSnapshot total) {
+		this.total = total;
+	}
+
+	public WindowRate[] getRates() {
+		return rates;
+	}
+
+	public void setRates(WindowRate[] rates) {
+		this.rates = rates;
+	}
+
+	/**
+	 * Counts per value, per dimension header.
+	 */
+	public Map<String, Map<String, CountSnapshot>> getDimensions() {
+		return dimensions;
+	}
+
+	public void addDimension(String dimension, Map<String, CountSnapshot> values) {
+		dimensions.put(dimension, values);
+	}
+
+	public List<HistogramSummary> getHistograms() {
+		return histograms;
+	}
+
+	public void addHistogram(HistogramSummary histogram) {
+		histograms.add(histogram);
+	}
+
+	public List<HeavyHitters> getHeavyHitters() {
+		return heavyHitters;
+	}
+
+	public void addHeavyHitters(HeavyHitters hitters) {
+		heavyHitters.add(hitters);
+	}
+
+	public List<DistinctCount> getDistinctCounts() {
+		return distinctCounts;
+	}
+
+	public void addDistinctCount(DistinctCount distinct) {
+		distinctCounts.add(distinct);
+	}
+
+	/**
+	 * One header-only event per figure (the sketches of distinct counts go in
+	 * the body), each stamped with intervalStart and intervalEnd.
+	 */
+	public List<Event> toEvents() {
+		List<Event> events = new ArrayList<Event>();
+		Event totalEvent = countEvent(total);
+		for (WindowRate rate : rates) {
+			totalEvent.getHeaders().put("rate." + rate.getWindowSeconds() + "s", rate.getEventsPerSecond() + "");
+			totalEvent.getHeaders().put("byteRate." + rate.getWindowSeconds() + "s", rate.getBytesPerSecond() + "");
+		}
+		events.add(totalEvent);
+		for (Map.Entry<String, Map<String, CountSnapshot>> dimension : dimensions.entrySet()) {
+			for (Map.Entry<String, CountSnapshot> value : dimension.getValue().entrySet()) {
+				Event event = countEvent(value.getValue());
+				event.getHeaders().put("dimension", dimension.getKey());
+				event.getHeaders().put("value", value.getKey());
+				events.add(event);
+			}
+		}
+		for (HistogramSummary histogram : histograms) {
+			Map<String, String> headers = new HashMap<String, String>();
+			headers.put("histogram", histogram.getName());
+			headers.put("count", histogram.getCount() + "");
+			headers.put("p50", histogram.getP50() + "");
+			headers.put("p90", histogram.getP90() + "");
+			headers.put("p99", histogram.getP99() + "");
+			headers.put("p999", histogram.getP999() + "");
+			headers.put("max", histogram.getMax() + "");
+			events.add(EventBuilder.withBody(new byte[0], headers));
+		}
+		for (HeavyHitters hitters : heavyHitters) {
+			int rank = 1;
+			for (HeavyHitter hitter : hitters.getHitters()) {
+				Map<String, String> headers = new HashMap<String, String>();
+				headers.put("topk", hitters.getHeader());
+				headers.put("rank", rank++ + "");
+				headers.put("value", hitter.getValue());
+				headers.put("count", hitter.getCount() + "");
+				headers.put("error", hitter.getError() + "");
+				headers.put("total", hitters.getTotal() + "");
+				events.add(EventBuilder.withBody(new byte[0], headers));
+			}
+		}
+		for (DistinctCount distinct : distinctCounts) {
+			Map<String, String> headers = new HashMap<String, String>();
+			headers.put("distinct", distinct.getKey());
+			headers.put("precision", distinct.getPrecision() + "");
+			headers.put("estimate", distinct.getEstimate() + "");
+			events.add(EventBuilder.withBody(distinct.getSketch(), headers));
+		}
+		for (Event event : events) {
+			event.getHeaders().put("intervalStart", intervalStart + "");
+			event.getHeaders().put("intervalEnd", intervalEnd + "");
+		}
+		return events;
+	}
+
+	private static Event countEvent(CountSnapshot counts) {
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("count", counts.getEvents() + "");
+		headers.put("bytes", counts.getBytes() + "");
+		return EventBuilder.withBody(new byte[0], headers);
+	}
+
+	/**
+	 * Percentiles of one histogram over the interval.
+	 */
+	public static class HistogramSummary {
+		private final String name;
+		private final long count;
+		private final long p50;
+		private final long p90;
+		private final long p99;
+		private final long p999;
+		private final long max;
+
+		public HistogramSummary(String name, long count, long p50, long p90, long p99, long p999, long max) {
+			this.name = name;
+			this.count = count;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.p999 = p999;
+			this.max = max;
+		}
+
+		public static HistogramSummary of(String name, LogHistogram histogram) {
+			return new HistogramSummary(name, histogram.getCount(), histogram.valueAtPercentile(50),
+					histogram.valueAtPercentile(90), histogram.valueAtPercentile(99), histogram.valueAtPercentile(99.9),
+					histogram.getMax());
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP90() {
+			return p90;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		public long getP999() {
+			return p999;
+		}
+
+		public long getMax() {
+			return max;
+		}
+	}
+
+	/**
+	 * The most frequent values of one header, highest count first, out of
+	 * total events that carried the header.
+	 */
+	public static class HeavyHitters {
+		private final String header;
+		private final long total;
+		private final List<HeavyHitter> hitters;
+
+		public HeavyHitters(String header, long total, List<HeavyHitter> hitters) {
+			this.header = header;
+			this.total = total;
+			this.hitters = Collections.unmodifiableList(hitters);
+		}
+
+		public String getHeader() {
+			return header;
+		}
+
+		public long getTotal() {
+			return total;
+		}
+
+		public List<HeavyHitter> getHitters() {
+			return hitters;
+		}
+	}
+
+	/**
+	 * A frequent value whose true count lies within [count - error, count].
+	 */
+	public static class HeavyHitter {
+		private final String value;
+		private final long count;
+		private final long error;
+
+		public HeavyHitter(String value, long count, long error) {
+			this.value = value;
+			this.count = count;
+			this.error = error;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * A distinct-count estimate and the serialized HyperLogLog behind it.
+	 */
+	public static class DistinctCount {
+		private final String key;
+		private final int precision;
+		private final long estimate;
+		private final byte[] sketch;
+
+		public DistinctCount(String key, int precision, long estimate, byte[] sketch) {
+			this.key = key;
+			this.precision = precision;
+			this.estimate = estimate;
+			this.sketch = sketch;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public int getPrecision() {
+			return precision;
+		}
+
+		public long getEstimate() {
+			return estimate;
+		}
+
+		public byte[] getSketch() {
+			return sketch;
+		}
+	}
+}
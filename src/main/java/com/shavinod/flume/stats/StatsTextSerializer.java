@@ -0,0 +1,156 @@
+package com.shavinod.flume.stats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.serialization.EventSerializer;
+
+/**
+ * Sink-side serializer that expands StatsCodec payloads into tab separated
+ * lines, one per figure, for the HDFS sink or any other sink that takes an
+ * EventSerializer.
+ * 
+ * Each line is: intervalStart, intervalEnd, kind, name, key, field, value.
+ * Kinds are count, dimension, histogram, topk and distinct; name and key are
+ * empty where they do not apply. Tabs, newlines and backslashes inside names
+ * and keys are backslash-escaped. Events that are not StatsCodec payloads
+ * are written as their body followed by a newline.
+ * 
+ * Use it with serializer = com.shavinod.flume.stats.StatsTextSerializer$Builder
+ * 
+ */
+public class StatsTextSerializer implements EventSerializer {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final OutputStream out;
+	private final StringBuilder line = new StringBuilder(128);
+
+	StatsTextSerializer(OutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void afterCreate() throws IOException {
+		// NOP
+	}
+
+	@Override
+	public void afterReopen() throws IOException {
+		// NOP
+	}
+
+	@Override
+	public void write(Event event) throws IOException {
+		if (!StatsCodec.isEncoded(event)) {
+			out.write(event.getBody());
+			out.write('\n');
+			return;
+		}
+		StatsReport report = StatsCodec.decode(event.getBody());
+		String interval = report.getIntervalStart() + "\t" + report.getIntervalEnd();
+
+		write(interval, "count", "", "", "events", report.getTotal().getEvents() + "");
+		write(interval, "count", "", "", "bytes", report.getTotal().getBytes() + "");
+		for (WindowRate rate : report.getRates()) {
+			write(interval, "count", "", "", "rate." + rate.getWindowSeconds() + "s", rate.getEventsPerSecond() + "");
+			write(interval, "count", "", "", "byteRate." + rate.getWindowSeconds() + "s", rate.getBytesPerSecond()
+					+ "");
+		}
+		for (Map.Entry<String, Map<String, CountSnapshot>> dimension : report.getDimensions().entrySet()) {
+			for (Map.Entry<String, CountSnapshot> value : dimension.getValue().entrySet()) {
+				write(interval, "dimension", dimension.getKey(), value.getKey(), "events", value.getValue().getEvents()
+						+ "");
+				write(interval, "dimension", dimension.getKey(), value.getKey(), "bytes", value.getValue().getBytes()
+						+ "");
+			}
+		}
+		for (StatsReport.HistogramSummary histogram : report.getHistograms()) {
+			write(interval, "histogram", histogram.getName(), "", "count", histogram.getCount() + "");
+			write(interval, "histogram", histogram.getName(), "", "p50", histogram.getP50() + "");
+			write(interval, "histogram", histogram.getName(), "", "p90", histogram.getP90() + "");
+			write(interval, "histogram", histogram.getName(), "", "p99", histogram.getP99() + "");
+			write(interval, "histogram", histogram.getName(), "", "p999", histogram.getP999() + "");
+			write(interval, "histogram", histogram.getName(), "", "max", histogram.getMax() + "");
+		}
+		for (StatsReport.HeavyHitters hitters : report.getHeavyHitters()) {
+			write(interval, "topk", hitters.getHeader(), "", "total", hitters.getTotal() + "");
+			for (StatsReport.HeavyHitter hitter : hitters.getHitters()) {
+				write(interval, "topk", hitters.getHeader(), hitter.getValue(), "count", hitter.getCount() + "");
+				write(interval, "topk", hitters.getHeader(), hitter.getValue(), "error", hitter.getError() + "");
+			}
+		}
+		for (StatsReport.DistinctCount distinct : report.getDistinctCounts()) {
+			write(interval, "distinct", distinct.getKey(), "", "estimate", distinct.getEstimate() + "");
+			write(interval, "distinct", distinct.getKey(), "", "sketch", hex(distinct.getSketch()));
+		}
+	}
+
+	private void write(String interval, String kind, String name, String key, String field, String value)
+			throws IOException {
+		line.setLength(0);
+		line.append(interval).append('\t').append(kind).append('\t');
+		escape(name);
+		line.append('\t');
+		escape(key);
+		line.append('\t').append(field).append('\t').append(value).append('\n');
+		out.write(line.toString().getBytes(UTF_8));
+	}
+
+	private void escape(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '\t':
+				line.append("\\t");
+				break;
+			case '\n':
+				line.append("\\n");
+				break;
+			case '\\':
+				line.append("\\\\");
+				break;
+			default:
+				line.append(c);
+			}
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void beforeClose() throws IOException {
+		// NOP
+	}
+
+	@Override
+	public boolean supportsReopen() {
+		return true;
+	}
+
+	public static class Builder implements EventSerializer.Builder {
+
+		@Override
+		public EventSerializer build(Context context, OutputStream out) {
+			return new StatsTextSerializer(out);
+		}
+
+	}
+}
@@ -0,0 +1,248 @@
+package com.shavinod.flume.stats;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A 64-bit event and byte counter striped over cache-line padded cells.
+ * 
+ * Each writing thread sticks to a cell picked by a per-thread probe and hops
+ * to another cell whenever it finds its own busy, so concurrent sources
+ * almost never share a cache line. A cell is guarded by a tiny spin flag so
+ * the count and the bytes of one add always land in the same snapshot.
+ * 
+ * When built with a dimension cardinality, a cell gets its own
+ * DimensionTable on its first dimensioned add, so per-value counts are kept
+ * without any shared structure and merged only when a snapshot is taken.
+ * Cells no thread writes dimensions to never allocate a table, and the
+ * table they are merged into is reused from one snapshot to the next.
+ * 
+ */
+public class StripedCounter {
+
+	private static final int MAX_CELLS = 64;
+
+	private static final ThreadLocal<int[]> PROBE = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			int seed = (int) Thread.currentThread().getId() * 0x9E3779B9;
+			return new int[] { seed == 0 ? 1 : seed };
+		}
+	};
+
+	private final Cell[] cells;
+	private final int mask;
+	private final int maxDimensions;
+	private DimensionTable merged;
+
+	public StripedCounter() {
+		this(Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	public StripedCounter(int stripes) {
+		this(stripes, 0);
+	}
+
+	/**
+	 * @param stripes number of cells, rounded up to a power of two
+	 * @param maxDimensions distinct dimension values kept per snapshot, 0 to
+	 *        count totals only
+	 */
+	public StripedCounter(int stripes, int maxDimensions) {
+		int size = 1;
+		while (size < stripes && size < MAX_CELLS) {
+			size <<= 1;
+		}
+		cells = new Cell[size];
+		for (int i = 0; i < size; i++) {
+			cells[i] = new Cell();
+		}
+		mask = size - 1;
+		this.maxDimensions = maxDimensions;
+	}
+
+	public void add(long events, long bytes) {
+		Cell cell = lockCell();
+		cell.events += events;
+		cell.bytes += bytes;
+		cell.unlock();
+	}
+
+	/**
+	 * Adds to the totals and to the bucket of one dimension value.
+	 * 
+	 * @param dimensionKey DimensionTable.hash of the value
+	 * @param dimension the value itself, kept as the bucket label
+	 */
+	public void add(long events, long bytes, long dimensionKey, String dimension) {
+		Cell cell = lockCell();
+		cell.events += events;
+		cell.bytes += bytes;
+		if (maxDimensions > 0) {
+			if (cell.dimensions == null) {
+				cell.dimensions = new DimensionTable(maxDimensions);
+			}
+			cell.dimensions.add(dimensionKey, dimension, events, bytes);
+		}
+		cell.unlock();
+	}
+
+	private Cell lockCell() {
+		int[] probe = PROBE.get();
+		int h = probe[0];
+		Cell cell = cells[h & mask];
+		if (!cell.tryLock()) {
+			h = lockAnother(h);
+			probe[0] = h;
+			cell = cells[h & mask];
+		}
+		return cell;
+	}
+
+	/**
+	 * Returns the totals and per-dimension counts and resets every cell.
+	 */
+	public CountSnapshot snapshotAndReset() {
+		return read(true, true);
+	}
+
+	/**
+	 * Returns the totals without resetting them.
+	 */
+	public CountSnapshot sum() {
+		return read(false, false);
+	}
+
+	/**
+	 * Returns the running totals along with the per-dimension counts gathered
+	 * since the previous drain. Only the dimension tables are reset, so the
+	 * totals stay monotonic for readers that diff them.
+	 */
+	public CountSnapshot sumAndDrainDimensions() {
+		return read(false, true);
+	}
+
+	/**
+	 * The running event total, read without allocating.
+	 */
+	public long sumEvents() {
+		long events = 0;
+		for (Cell cell : cells) {
+			cell.lock();
+			events += cell.events;
+			cell.unlock();
+		}
+		return events;
+	}
+
+	/**
+	 * The running byte total, read without allocating.
+	 */
+	public long sumBytes() {
+		long bytes = 0;
+		for (Cell cell : cells) {
+			cell.lock();
+			bytes += cell.bytes;
+			cell.unlock();
+		}
+		return bytes;
+	}
+
+	private synchronized CountSnapshot read(boolean resetTotals, boolean drainDimensions) {
+		long events = 0;
+		long bytes = 0;
+		boolean merge = drainDimensions && maxDimensions > 0;
+		if (merge && merged == null) {
+			merged = new DimensionTable(maxDimensions);
+		}
+		for (Cell cell : cells) {
+			cell.lock();
+			events += cell.events;
+			bytes += cell.bytes;
+			if (resetTotals) {
+				cell.events = 0;
+				cell.bytes = 0;
+			}
+			if (merge && cell.dimensions != null) {
+				cell.dimensions.mergeInto(merged);
+				cell.dimensions.clear();
+			}
+			cell.unlock();
+		}
+		if (!merge) {
+			return new CountSnapshot(events, bytes);
+		}
+		CountSnapshot snapshot = new CountSnapshot(events, bytes, merged.toMap());
+		merged.clear();
+		return snapshot;
+	}
+
+	int stripes() {
+		return cells.length;
+	}
+
+	int dimensionTables() {
+		int tables = 0;
+		for (Cell cell : cells) {
+			cell.lock();
+			if (cell.dimensions != null) {
+				tables++;
+			}
+			cell.unlock();
+		}
+		return tables;
+	}
+
+	/**
+	 * Walks the probe until it lands on a free cell and returns the probe of
+	 * the cell it locked.
+	 */
+	private int lockAnother(int h) {
+		int attempts = 0;
+		while (true) {
+			h ^= h << 13;
+			h ^= h >>> 17;
+			h ^= h << 5;
+			if (cells[h & mask].tryLock()) {
+				return h;
+			}
+			if (++attempts >= cells.length) {
+				attempts = 0;
+				Thread.yield();
+			}
+		}
+	}
+
+	/** Leading padding so a cell never shares a cache line with its neighbour. */
+	static class CellPadding {
+		long p0, p1, p2, p3, p4, p5, p6;
+	}
+
+	static class CellValues extends CellPadding {
+		volatile int busy;
+		long events;
+		long bytes;
+		DimensionTable dimensions;
+	}
+
+	static final class Cell extends CellValues {
+		long q0, q1, q2, q3, q4, q5, q6;
+
+		private static final AtomicIntegerFieldUpdater<CellValues> BUSY = AtomicIntegerFieldUpdater
+				.newUpdater(CellValues.class, "busy");
+
+		boolean tryLock() {
+			return busy == 0 && BUSY.compareAndSet(this, 0, 1);
+		}
+
+		void lock() {
+			while (!tryLock()) {
+				Thread.yield();
+			}
+		}
+
+		void unlock() {
+			// a release store is enough to publish the guarded values
+			BUSY.lazySet(this, 0);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package com.shavinod.flume.stats;
+
+import java.util.List;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+
+/**
+ * This interceptor tracks the most frequent values of a header.
+ * 
+ * Values are counted in fixed-size Space-Saving summaries, one per lock
+ * stripe so that source threads rarely wait on each other. Memory stays at
+ * capacity counters per stripe however many distinct values pass through.
+ * Events without the header are ignored.
+ * 
+ * The summaries are merged by PeriodicCountingSource, which publishes the
+ * top k values with their error bounds as new events.
+ * 
+ */
+public class TopKInterceptor implements Interceptor {
+
+	public static final String HEADER_KEY = "header";
+	public static final String K_KEY = "k";
+	public static final int K_DEFAULT = 10;
+	public static final String CAPACITY_KEY = "capacity";
+	public static final int CAPACITY_FACTOR_DEFAULT = 10;
+
+	private final String component;
+	private final String header;
+	private final int k;
+	private final int capacity;
+	private final SpaceSaving[] stripes;
+	private final int mask;
+
+	public TopKInterceptor(String header, int k, int capacity) {
+		this(InterceptorRegistry.DEFAULT_COMPONENT, header, k, capacity);
+	}
+
+	/**
+	 * @param component component the summaries are registered under
+	 * @param header header whose values are counted
+	 * @param k number of values reported per period
+	 * @param capacity counters per stripe, at least k
+	 */
+	public TopKInterceptor(String component, String header, int k, int capacity) {
+		if (header == null)
+			throw new IllegalArgumentException("Header may not be null");
+		if (k <= 0 || capacity < k)
+			throw new IllegalArgumentException("Need 0 < k <= capacity, got k=" + k + ", capacity=" + capacity);
+		this.component = component;
+		this.header = header;
+		this.k = k;
+		this.capacity = capacity;
+		int size = 1;
+		while (size < Runtime.getRuntime().availableProcessors()) {
+			size <<= 1;
+		}
+		stripes = new SpaceSaving[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new SpaceSaving(capacity);
+		}
+		mask = size - 1;
+	}
+
+	public String getHeader() {
+		return header;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Merges the values counted since the previous call into the target and
+	 * resets every stripe.
+	 */
+	void collect(SpaceSaving target) {
+		for (SpaceSaving stripe : stripes) {
+			synchronized (stripe) {
+				stripe.mergeInto(target);
+				stripe.clear();
+			}
+		}
+	}
+
+	@Override
+	public void initialize() {
+		InterceptorRegistry.register(component, TopKInterceptor.class, this);
+	}
+
+	@Override
+	public Event intercept(Event event) {
+		if (event == null) {
+			return event;
+		}
+		String value = event.getHeaders().get(header);
+		if (value != null) {
+			SpaceSaving stripe = stripe();
+			synchronized (stripe) {
+				stripe.offer(value);
+			}
+		}
+		return event;
+	}
+
+	@Override
+	public List<Event> intercept(List<Event> events) {
+		SpaceSaving stripe = stripe();
+		synchronized (stripe) {
+			for (Event event : events) {
+				if (event == null) {
+					continue;
+				}
+				String value = event.getHeaders().get(header);
+				if (value != null) {
+					stripe.offer(value);
+				}
+			}
+		}
+		return events;
+	}
+
+	private SpaceSaving stripe() {
+		return stripes[(int) Thread.currentThread().getId() & mask];
+	}
+
+	@Override
+	public void close() {
+		InterceptorRegistry.deregister(this);
+	}
+
+	public static class Builder implements Interceptor.Builder {
+
+		private String component;
+		private String header;
+		private int k;
+		private int capacity;
+
+		@Override
+		public void configure(Context context) {
+			component = context.getString(InterceptorRegistry.COMPONENT_KEY, InterceptorRegistry.DEFAULT_COMPONENT);
+			header = context.getString(HEADER_KEY);
+			if (header == null) {
+				throw new IllegalArgumentException(HEADER_KEY + " is required");
+			}
+			k = context.getInteger(K_KEY, K_DEFAULT);
+			capacity = context.getInteger(CAPACITY_KEY, k * CAPACITY_FACTOR_DEFAULT);
+		}
+
+		@Override
+		public Interceptor build() {
+			return new TopKInterceptor(component, header, k, capacity);
+		}
+
+	}
+
+}
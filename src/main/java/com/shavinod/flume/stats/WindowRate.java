@@ -0,0 +1,46 @@
+package com.shavinod.flume.stats;
+
+/**
+ * Per-second event and byte rates measured over one window of a
+ * SlidingWindowRates store.
+ */
+public class WindowRate {
+
+	private final int windowSeconds;
+	private final double eventsPerSecond;
+	private final double bytesPerSecond;
+
+	public WindowRate(int windowSeconds, double eventsPerSecond, double bytesPerSecond) {
+		this.windowSeconds = windowSeconds;
+		this.eventsPerSecond = eventsPerSecond;
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	public int getWindowSeconds() {
+		return windowSeconds;
+	}
+
+	public double getEventsPerSecond() {
+		return eventsPerSecond;
+	}
+
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Rates of independent counters over the same window simply add up.
+	 */
+	public WindowRate plus(WindowRate other) {
+		if (other.windowSeconds != windowSeconds)
+			throw new IllegalArgumentException("Cannot add a " + other.windowSeconds + "s rate to a " + windowSeconds
+					+ "s rate");
+		return new WindowRate(windowSeconds, eventsPerSecond + other.eventsPerSecond,
+				bytesPerSecond + other.bytesPerSecond);
+	}
+
+	@Override
+	public String toString() {
+		return "WindowRate[" + windowSeconds + "s, events/s=" + eventsPerSecond + ", bytes/s=" + bytesPerSecond + "]";
+	}
+}
@@ -0,0 +1,120 @@
+package com.shavinod.flume.source;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Compares BDHandler with the readLine loop it replaced on a payload of
+ * 100-byte lines, sent as a series of requests.
+ *
+ * Skipped unless run with -Dbdhandler.benchmark=true. The payload defaults
+ * to 1 GB in requests of 16 MB and can be set with -Dbdhandler.benchmark.bytes
+ * and -Dbdhandler.benchmark.requestBytes; each request's events are held in
+ * memory until the next one, so the heap needs several times the request
+ * size.
+ */
+public class BDHandlerBenchmarkTest {
+
+	private static final long BYTES = Long.getLong("bdhandler.benchmark.bytes", 1L << 30);
+	private static final int REQUEST_BYTES = Integer.getInteger("bdhandler.benchmark.requestBytes", 16 << 20);
+	private static final int LINE_LENGTH = 100;
+
+	@Test
+	public void testThroughput() throws Exception {
+		Assume.assumeTrue(Boolean.getBoolean("bdhandler.benchmark"));
+		byte[] body = body();
+		int lines = body.length / LINE_LENGTH;
+		int requests = (int) ((BYTES + body.length - 1) / body.length);
+
+		// the first pass of each warms up the JIT
+		for (int pass = 0; pass < 2; pass++) {
+			boolean report = pass == 1;
+			run("readLine loop", requests, lines, body, null, report);
+			run("BDHandler", requests, lines, body, BDHandlerTest.handler(1), report);
+			run("BDHandler, 100 lines per event", requests, (lines + 99) / 100, body, BDHandlerTest.handler(100), report);
+		}
+	}
+
+	private void run(String name, int requests, int events, byte[] body, BDHandler handler, boolean report)
+			throws Exception {
+		int count = report ? requests : Math.max(1, requests / 8);
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			HttpServletRequest request = BDHandlerTest.request(body, "UTF-8");
+			List<Event> eventList = handler == null ? readLines(request) : handler.getEvents(request);
+			assertEquals(events, eventList.size());
+		}
+		long nanos = System.nanoTime() - start;
+		if (report) {
+			double seconds = nanos / 1e9;
+			double megabytes = (double) count * body.length / (1 << 20);
+			System.out.printf("%-32s %8.1f MB/s %12.0f lines/s%n", name, megabytes / seconds,
+					(double) count * (body.length / LINE_LENGTH) / seconds);
+		}
+	}
+
+	/**
+	 * The replaced handler's loop, printing to a stream that discards its
+	 * output so that only the formatting is timed.
+	 */
+	private static List<Event> readLines(HttpServletRequest request) throws Exception {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+		try {
+			List<Event> eventList = new ArrayList<Event>(0);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), "UTF-8"));
+			String sCurrentLine;
+			try {
+				while ((sCurrentLine = reader.readLine()) != null) {
+					System.out.println(sCurrentLine);
+					eventList.add(EventBuilder.withBody(sCurrentLine.getBytes()));
+				}
+			} finally {
+				reader.close();
+			}
+			List<Event> newEvents = new ArrayList<Event>(eventList.size());
+			for (Event e : eventList) {
+				newEvents.add(EventBuilder.withBody(e.getBody(), e.getHeaders()));
+			}
+			return newEvents;
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	private static byte[] body() {
+		StringBuilder line = new StringBuilder();
+		while (line.length() < LINE_LENGTH - 1) {
+			line.append((char) ('a' + line.length() % 26));
+		}
+		byte[] bytes = (line + "\n").getBytes(Charsets.UTF_8);
+		byte[] body = new byte[REQUEST_BYTES / LINE_LENGTH * LINE_LENGTH];
+		for (int i = 0; i < body.length; i += LINE_LENGTH) {
+			System.arraycopy(bytes, 0, body, i, LINE_LENGTH);
+		}
+		return body;
+	}
+}
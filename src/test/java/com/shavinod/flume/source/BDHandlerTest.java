@@ -0,0 +1,141 @@
+package com.shavinod.flume.source;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class BDHandlerTest {
+
+	@Test
+	public void testLineTerminators() throws Exception {
+		List<Event> events = handler(1).getEvents(request("a\nbb\r\nccc\rdd", null));
+		assertEquals(listOf("a", "bb", "ccc", "dd"), bodies(events, Charsets.UTF_8));
+		assertNull(events.get(0).getHeaders().get(BDHandler.CHARSET_HEADER));
+	}
+
+	@Test
+	public void testEmptyLines() throws Exception {
+		assertEquals(listOf("", "", "a", ""), bodies(handler(1).getEvents(request("\n\r\na\n\r", null)),
+				Charsets.UTF_8));
+		assertEquals(0, handler(1).getEvents(request("", null)).size());
+	}
+
+	@Test
+	public void testLinesPerEvent() throws Exception {
+		BDHandler handler = handler(2);
+		assertEquals(listOf("a\nb", "c\r\nd"), bodies(handler.getEvents(request("a\nb\r\nc\r\nd\n", null)),
+				Charsets.UTF_8));
+		assertEquals(listOf("a\nb", "c"), bodies(handler.getEvents(request("a\nb\nc\r\n", null)), Charsets.UTF_8));
+		assertEquals(listOf("a\nb", "c\nd"), bodies(handler.getEvents(request("a\nb\nc\nd", null)), Charsets.UTF_8));
+	}
+
+	@Test
+	public void testLinesAcrossReads() throws Exception {
+		StringBuilder body = new StringBuilder();
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < 50000; i++) {
+			String line = "line-" + i;
+			lines.add(line);
+			body.append(line).append(i % 2 == 0 ? "\r\n" : "\n");
+		}
+		assertEquals(lines, bodies(handler(1).getEvents(request(body.toString(), null)), Charsets.UTF_8));
+	}
+
+	@Test
+	public void testBytesKept() throws Exception {
+		Event event = handler(1).getEvents(request("héllo\n", "utf-8")).get(0);
+		assertArrayEquals("héllo".getBytes(Charsets.UTF_8), event.getBody());
+	}
+
+	@Test
+	public void testUtf16() throws Exception {
+		// Java writes big-endian with a byte order mark
+		List<Event> events = handler(1).getEvents(request("aĊ\nb".getBytes(Charsets.UTF_16), "UTF-16"));
+		assertEquals(listOf("aĊ", "b"), bodies(events, Charsets.UTF_16BE));
+		assertEquals("UTF-16BE", events.get(0).getHeaders().get(BDHandler.CHARSET_HEADER));
+
+		byte[] body = new byte[] { (byte) 0xff, (byte) 0xfe, 'a', 0, '\r', 0, '\n', 0, 'b', 0 };
+		events = handler(1).getEvents(request(body, "UTF-16"));
+		assertEquals(listOf("a", "b"), bodies(events, Charsets.UTF_16LE));
+		assertEquals("UTF-16LE", events.get(0).getHeaders().get(BDHandler.CHARSET_HEADER));
+	}
+
+	@Test
+	public void testUtf32() throws Exception {
+		Charset utf32 = Charset.forName("UTF-32BE");
+		List<Event> events = handler(1).getEvents(request("ਊ\nb".getBytes(utf32), "utf-32"));
+		assertEquals(listOf("ਊ", "b"), bodies(events, utf32));
+	}
+
+	@Test(expected = UnsupportedCharsetException.class)
+	public void testUnsupportedCharset() throws Exception {
+		handler(1).getEvents(request("a", "ISO-8859-1"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLinesPerEventMustBePositive() {
+		handler(0);
+	}
+
+	static BDHandler handler(int linesPerEvent) {
+		Context context = new Context();
+		context.put(BDHandler.NAME_KEY, "bd-test");
+		context.put(BDHandler.LINES_PER_EVENT_KEY, String.valueOf(linesPerEvent));
+		BDHandler handler = new BDHandler();
+		handler.configure(context);
+		return handler;
+	}
+
+	static HttpServletRequest request(String body, String charset) {
+		return request(body.getBytes(Charsets.UTF_8), charset);
+	}
+
+	/**
+	 * A POST of the body declared in the charset.
+	 */
+	static HttpServletRequest request(byte[] body, final String charset) {
+		final HttpServletRequest request = ChunkHttpSourceTest.request(body,
+				Collections.<String, String> emptyMap());
+		return (HttpServletRequest) Proxy.newProxyInstance(BDHandlerTest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("getCharacterEncoding")) {
+							return charset;
+						}
+						return method.invoke(request, args);
+					}
+				});
+	}
+
+	private static List<String> bodies(List<Event> events, Charset charset) {
+		List<String> bodies = new ArrayList<String>();
+		for (Event event : events) {
+			bodies.add(new String(event.getBody(), charset));
+		}
+		return bodies;
+	}
+
+	private static List<String> listOf(String... values) {
+		List<String> list = new ArrayList<String>();
+		Collections.addAll(list, values);
+		return list;
+	}
+}
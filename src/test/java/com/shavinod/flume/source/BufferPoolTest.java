@@ -0,0 +1,82 @@
+package com.shavinod.flume.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+  @Test
+  public void testReuse() {
+    BufferPool pool = new BufferPool(128, 2);
+    ByteBuffer a = pool.lease();
+    assertTrue(a.isDirect());
+    assertEquals(128, a.capacity());
+    assertEquals(128, pool.getInUseBytes());
+    a.put((byte) 1);
+    pool.release(a);
+    assertEquals(0, pool.getInUseBytes());
+    assertEquals(1, pool.getFreeCount());
+
+    ByteBuffer b = pool.lease();
+    assertSame(a, b);
+    assertEquals(0, b.position());
+    assertEquals(1, pool.getHits());
+    assertEquals(1, pool.getMisses());
+    assertEquals(0.5, pool.getHitRate(), 0.0001);
+  }
+
+  @Test
+  public void testBounded() {
+    BufferPool pool = new BufferPool(64, 2);
+    ByteBuffer a = pool.lease();
+    ByteBuffer b = pool.lease();
+    ByteBuffer c = pool.lease();
+    assertTrue(a.isDirect());
+    assertTrue(b.isDirect());
+    assertFalse(c.isDirect());
+    assertEquals(2, pool.getAllocated());
+    assertEquals(3 * 64, pool.getInUseBytes());
+
+    pool.release(c);
+    pool.release(b);
+    pool.release(a);
+    // heap overflow buffers are not kept
+    assertEquals(2, pool.getFreeCount());
+    assertEquals(0, pool.getInUseBytes());
+    assertTrue(pool.lease().isDirect());
+    assertTrue(pool.lease().isDirect());
+    assertEquals(2, pool.getAllocated());
+  }
+
+  @Test
+  public void testHeapPool() {
+    BufferPool pool = new BufferPool(32, 1, false);
+    ByteBuffer a = pool.lease();
+    ByteBuffer b = pool.lease();
+    assertTrue(a.hasArray());
+    assertTrue(b.hasArray());
+    assertEquals(1, pool.getAllocated());
+
+    pool.release(a);
+    pool.release(b);
+    // kept up to capacity, whichever of them was pooled
+    assertEquals(1, pool.getFreeCount());
+    assertSame(a, pool.lease());
+  }
+
+  @Test
+  public void testEmptyPool() {
+    BufferPool pool = new BufferPool(16, 0);
+    assertEquals(0, pool.getHitRate(), 0);
+    ByteBuffer a = pool.lease();
+    assertFalse(a.isDirect());
+    pool.release(a);
+    assertEquals(0, pool.getFreeCount());
+  }
+}
@@ -0,0 +1,485 @@
+package com.shavinod.flume.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.flume.Channel;
+import org.apache.flume.ChannelException;
+import org.apache.flume.ChannelSelector;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.source.http.HTTPBadRequestException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+
+public class ChunkHttpSourceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Channel channel;
+	private ChunkHttpSource source;
+
+	@Before
+	public void setUp() {
+		channel = new MemoryChannel();
+		Context channelContext = new Context();
+		channelContext.put("capacity", "100");
+		channelContext.put("transactionCapacity", "2");
+		channelContext.put("keep-alive", "0");
+		Configurables.configure(channel, channelContext);
+		ChannelSelector selector = new ReplicatingChannelSelector();
+		selector.setChannels(Collections.singletonList(channel));
+		source = new ChunkHttpSource();
+		source.setName("chunk-test");
+		source.setChannelProcessor(new ChannelProcessor(selector));
+	}
+
+	private ChunkHttpSource.BDMPHandler handler(String... options) {
+		Context context = new Context();
+		context.put(ChunkHttpSource.BLOB_LENGTH_KEY, "4");
+		for (int i = 0; i < options.length; i += 2) {
+			context.put(options[i], options[i + 1]);
+		}
+		source.configure(context);
+		return source.new BDMPHandler();
+	}
+
+	@Test
+	public void testChunksAreCopied() throws IOException {
+		List<Event> events = handler().getEvents(request("abcdefghij"));
+		assertEquals(listOf("abcd", "efgh", "ij"), bodies(events));
+		assertEquals("v", events.get(2).getHeaders().get("X-Test"));
+	}
+
+	@Test
+	public void testNoEmptyChunks() throws IOException {
+		ChunkHttpSource.BDMPHandler handler = handler();
+		assertEquals(listOf("abcd", "efgh"), bodies(handler.getEvents(request("abcdefgh"))));
+		assertEquals(0, handler.getEvents(request("")).size());
+	}
+
+	@Test
+	public void testStreaming() throws IOException {
+		// five chunks exceed the channel's transactions, but batches of two fit
+		ChunkHttpSource.BDMPHandler handler = handler(ChunkHttpSource.STREAMING_KEY, "true",
+				ChunkHttpSource.BATCH_SIZE_KEY, "2");
+		assertEquals(0, handler.getEvents(request("abcdefghijklmnopqrs")).size());
+		assertEquals(listOf("abcd", "efgh"), bodies(take()));
+		assertEquals(listOf("ijkl", "mnop"), bodies(take()));
+		assertEquals(listOf("qrs"), bodies(take()));
+	}
+
+	@Test(expected = ChannelException.class)
+	public void testStreamingBatchTooLarge() throws IOException {
+		handler(ChunkHttpSource.STREAMING_KEY, "true", ChunkHttpSource.BATCH_SIZE_KEY, "3")
+				.getEvents(request("abcdefghijkl"));
+	}
+
+	@Test
+	public void testRecordBoundaries() throws IOException {
+		List<Event> events = handler(ChunkHttpSource.BLOB_LENGTH_KEY, "10", ChunkHttpSource.DELIMITER_KEY, "\n")
+				.getEvents(request("aa\nbbbb\ncc\ndddddddddddd\ne"));
+		assertEquals(listOf("aa\nbbbb\n", "cc\n", "dddddddddd", "dd\ne"), bodies(events));
+		long offset = 0;
+		for (int i = 0; i < events.size(); i++) {
+			assertEquals(String.valueOf(i), events.get(i).getHeaders().get(ChunkHttpSource.SEQUENCE_HEADER));
+			assertEquals(String.valueOf(offset), events.get(i).getHeaders().get(ChunkHttpSource.OFFSET_HEADER));
+			offset += events.get(i).getBody().length;
+		}
+	}
+
+	@Test
+	public void testMultiByteDelimiter() throws IOException {
+		// the first delimiter straddles the end of the first read
+		List<Event> events = handler(ChunkHttpSource.BLOB_LENGTH_KEY, "6", ChunkHttpSource.DELIMITER_KEY, "\r\n")
+				.getEvents(request("abcd\r\nef\r\ng"));
+		assertEquals(listOf("abcd\r\n", "ef\r\ng"), bodies(events));
+	}
+
+	@Test
+	public void testRecordBoundariesStreaming() throws IOException {
+		handler(ChunkHttpSource.STREAMING_KEY, "true", ChunkHttpSource.BATCH_SIZE_KEY, "2",
+				ChunkHttpSource.BLOB_LENGTH_KEY, "8", ChunkHttpSource.DELIMITER_KEY, ",")
+				.getEvents(request("a,bb,ccc,dddd,eeeee,"));
+		assertEquals(listOf("a,bb,", "ccc,"), bodies(take()));
+		assertEquals(listOf("dddd,", "eeeee,"), bodies(take()));
+		assertEquals(0, take().size());
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		List<Event> events = handler().getEvents(request(ContentDecoderTest.gzip("abcdefghij"),
+				Collections.singletonMap("Content-Encoding", "gzip")));
+		assertEquals(listOf("abcd", "efgh", "ij"), bodies(events));
+	}
+
+	@Test
+	public void testSpill() throws IOException {
+		File directory = folder.newFolder("spill");
+		List<Event> references = handler(ChunkHttpSource.SPILL_DIRECTORY_KEY, directory.getPath())
+				.getEvents(request("abcdefghij"));
+		assertEquals(3, references.size());
+		assertEquals(1, directory.list().length);
+
+		SpillResolver resolver = new SpillResolver(directory);
+		List<String> chunks = new ArrayList<String>();
+		for (Event reference : references) {
+			assertTrue(SpillResolver.isReference(reference));
+			assertEquals(0, reference.getBody().length);
+			assertEquals("v", reference.getHeaders().get("X-Test"));
+			assertTrue(resolver.verify(reference));
+			ByteBuffer chunk = resolver.resolve(reference);
+			byte[] bytes = new byte[chunk.remaining()];
+			chunk.get(bytes);
+			chunks.add(new String(bytes, Charsets.UTF_8));
+		}
+		assertEquals(listOf("abcd", "efgh", "ij"), chunks);
+		assertEquals(null, references.get(1).getHeaders().get(SpillResolver.CHUNKS_HEADER));
+		assertEquals("3", references.get(2).getHeaders().get(SpillResolver.CHUNKS_HEADER));
+
+		assertFalse(resolver.acknowledge(references.get(2)));
+		assertFalse(resolver.acknowledge(references.get(0)));
+		assertTrue(resolver.acknowledge(references.get(1)));
+		assertEquals(0, directory.list().length);
+	}
+
+	@Test
+	public void testSpillRecordBoundariesStreaming() throws IOException {
+		File directory = folder.newFolder("spill");
+		handler(ChunkHttpSource.SPILL_DIRECTORY_KEY, directory.getPath(), ChunkHttpSource.STREAMING_KEY, "true",
+				ChunkHttpSource.BATCH_SIZE_KEY, "2", ChunkHttpSource.BLOB_LENGTH_KEY, "8",
+				ChunkHttpSource.DELIMITER_KEY, ",").getEvents(request("a,bb,ccc,dddd,eeeee,"));
+		List<Event> references = take();
+		references.addAll(take());
+		assertEquals(0, take().size());
+
+		SpillResolver resolver = new SpillResolver(directory);
+		List<String> chunks = new ArrayList<String>();
+		for (Event reference : references) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			resolver.transferTo(reference, Channels.newChannel(out));
+			chunks.add(new String(out.toByteArray(), Charsets.UTF_8));
+		}
+		assertEquals(listOf("a,bb,", "ccc,", "dddd,", "eeeee,"), chunks);
+	}
+
+	@Test
+	public void testSpillEmptyUpload() throws IOException {
+		File directory = folder.newFolder("spill");
+		assertEquals(0, handler(ChunkHttpSource.SPILL_DIRECTORY_KEY, directory.getPath()).getEvents(request(""))
+				.size());
+		assertEquals(0, directory.list().length);
+	}
+
+	@Test
+	public void testForgedReference() throws IOException {
+		List<Event> events = handler().getEvents(request("abc".getBytes(Charsets.UTF_8),
+				Collections.singletonMap(SpillResolver.PATH_HEADER, "/etc/passwd")));
+		assertFalse(SpillResolver.isReference(events.get(0)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBlobLengthMustBePositive() {
+		handler(ChunkHttpSource.BLOB_LENGTH_KEY, "0");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBatchSizeMustBePositive() {
+		handler(ChunkHttpSource.BATCH_SIZE_KEY, "0");
+	}
+
+	@Test
+	public void testResumableUpload() throws IOException {
+		String index = new File(folder.getRoot(), "uploads/index").getPath();
+		ChunkHttpSource.BDMPHandler handler = handler(ChunkHttpSource.STREAMING_KEY, "true",
+				ChunkHttpSource.BATCH_SIZE_KEY, "2", ChunkHttpSource.UPLOAD_INDEX_KEY, index);
+		source.start();
+		try {
+			handler.getEvents(upload("u1", 0, "abcdefgh"));
+			assertEquals(listOf("abcd", "efgh"), bodies(take()));
+
+			// a retry overlapping the committed bytes only adds what is new
+			handler.getEvents(upload("u1", 4, "efghij"));
+			List<Event> events = take();
+			assertEquals(listOf("ij"), bodies(events));
+			assertEquals("2", events.get(0).getHeaders().get(ChunkHttpSource.SEQUENCE_HEADER));
+			assertEquals("8", events.get(0).getHeaders().get(ChunkHttpSource.OFFSET_HEADER));
+
+			// a duplicate of committed bytes adds nothing
+			handler.getEvents(upload("u1", 0, "abcd"));
+			assertEquals(0, take().size());
+
+			// other uploads start from 0
+			handler.getEvents(upload("u2", 0, "xy"));
+			assertEquals("0", take().get(0).getHeaders().get(ChunkHttpSource.SEQUENCE_HEADER));
+		} finally {
+			source.stop();
+		}
+
+		// the index survives a restart
+		source.start();
+		try {
+			handler.getEvents(upload("u1", 10, "kl"));
+			List<Event> events = take();
+			assertEquals(listOf("kl"), bodies(events));
+			assertEquals("3", events.get(0).getHeaders().get(ChunkHttpSource.SEQUENCE_HEADER));
+			assertEquals("10", events.get(0).getHeaders().get(ChunkHttpSource.OFFSET_HEADER));
+		} finally {
+			source.stop();
+		}
+	}
+
+	@Test
+	public void testResumeGapRejected() throws IOException {
+		ChunkHttpSource.BDMPHandler handler = handler(ChunkHttpSource.STREAMING_KEY, "true",
+				ChunkHttpSource.UPLOAD_INDEX_KEY, new File(folder.getRoot(), "index").getPath());
+		source.start();
+		try {
+			handler.getEvents(upload("u1", 0, "abcdef"));
+			take();
+			try {
+				handler.getEvents(upload("u1", 8, "ij"));
+				fail("gap accepted");
+			} catch (HTTPBadRequestException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("offset 6"));
+			}
+			assertEquals(0, take().size());
+			// the rejected request no longer holds the upload
+			handler.getEvents(upload("u1", 6, "gh"));
+			assertEquals(listOf("gh"), bodies(take()));
+		} finally {
+			source.stop();
+		}
+	}
+
+	@Test
+	public void testResumableSpill() throws IOException {
+		File directory = folder.newFolder("spill");
+		ChunkHttpSource.BDMPHandler handler = handler(ChunkHttpSource.STREAMING_KEY, "true",
+				ChunkHttpSource.SPILL_DIRECTORY_KEY, directory.getPath(), ChunkHttpSource.UPLOAD_INDEX_KEY,
+				new File(folder.getRoot(), "index").getPath());
+		source.start();
+		try {
+			handler.getEvents(upload("u1", 0, "abcdef"));
+			assertEquals(2, take().size());
+			handler.getEvents(upload("u1", 4, "efghijk"));
+			List<Event> events = take();
+			assertEquals(2, events.size());
+			Event last = events.get(1);
+			assertEquals("3", last.getHeaders().get(ChunkHttpSource.SEQUENCE_HEADER));
+			assertEquals("10", last.getHeaders().get(ChunkHttpSource.OFFSET_HEADER));
+			assertEquals("2", last.getHeaders().get(SpillResolver.CHUNKS_HEADER));
+			SpillResolver resolver = new SpillResolver(directory);
+			assertEquals("k", Charsets.UTF_8.decode(resolver.resolve(last)).toString());
+			resolver.acknowledge(events.get(0));
+			assertTrue(resolver.acknowledge(last));
+		} finally {
+			source.stop();
+		}
+	}
+
+	/**
+	 * The file of a streamed upload that fails after its first batch is
+	 * committed outlives its references, until swept.
+	 */
+	@Test
+	public void testSpillFailedMidUpload() throws IOException {
+		File directory = folder.newFolder("spill");
+		fillAfter(2);
+		ChunkHttpSource.BDMPHandler handler = handler(ChunkHttpSource.STREAMING_KEY, "true",
+				ChunkHttpSource.BATCH_SIZE_KEY, "2", ChunkHttpSource.SPILL_DIRECTORY_KEY, directory.getPath());
+		try {
+			handler.getEvents(request("abcdefghij"));
+			fail("commit to a full channel succeeded");
+		} catch (ChannelException e) {
+			// expected
+		}
+		List<Event> references = take();
+		assertEquals(2, references.size());
+		assertEquals(1, directory.list().length);
+
+		SpillResolver resolver = new SpillResolver(directory);
+		for (Event reference : references) {
+			assertEquals(null, reference.getHeaders().get(SpillResolver.CHUNKS_HEADER));
+			assertFalse(resolver.acknowledge(reference));
+		}
+		assertEquals(0, resolver.sweep(3600 * 1000));
+		age(directory);
+		assertEquals(1, resolver.sweep(3600 * 1000));
+		assertEquals(0, directory.list().length);
+	}
+
+	/**
+	 * Resuming a failed upload spills the rest to a new file, deleted once
+	 * its chunks are acknowledged; the first file is left to the sweep.
+	 */
+	@Test
+	public void testResumedSpillAfterFailure() throws IOException {
+		File directory = folder.newFolder("spill");
+		fillAfter(2);
+		ChunkHttpSource.BDMPHandler handler = handler(ChunkHttpSource.STREAMING_KEY, "true",
+				ChunkHttpSource.BATCH_SIZE_KEY, "2", ChunkHttpSource.SPILL_DIRECTORY_KEY, directory.getPath(),
+				ChunkHttpSource.UPLOAD_INDEX_KEY, new File(folder.getRoot(), "index").getPath());
+		source.start();
+		try {
+			try {
+				handler.getEvents(upload("u1", 0, "abcdefghij"));
+				fail("commit to a full channel succeeded");
+			} catch (ChannelException e) {
+				// expected
+			}
+			SpillResolver resolver = new SpillResolver(directory);
+			for (Event reference : take()) {
+				assertFalse(resolver.acknowledge(reference));
+			}
+			age(directory);
+
+			handler.getEvents(upload("u1", 0, "abcdefghij"));
+			List<Event> references = take();
+			assertEquals(1, references.size());
+			Event last = references.get(0);
+			assertEquals("2", last.getHeaders().get(ChunkHttpSource.SEQUENCE_HEADER));
+			assertEquals("8", last.getHeaders().get(ChunkHttpSource.OFFSET_HEADER));
+			assertEquals("1", last.getHeaders().get(SpillResolver.CHUNKS_HEADER));
+			assertEquals("ij", Charsets.UTF_8.decode(resolver.resolve(last)).toString());
+			assertEquals(2, directory.list().length);
+			assertTrue(resolver.acknowledge(last));
+
+			assertEquals(1, directory.list().length);
+			assertEquals(1, resolver.sweep(3600 * 1000));
+			assertEquals(0, directory.list().length);
+		} finally {
+			source.stop();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUploadIndexNeedsStreaming() {
+		handler(ChunkHttpSource.UPLOAD_INDEX_KEY, new File(folder.getRoot(), "index").getPath());
+	}
+
+	/**
+	 * Makes the channel refuse events once it holds capacity of them.
+	 */
+	private void fillAfter(int capacity) {
+		Context channelContext = new Context();
+		channelContext.put("capacity", String.valueOf(capacity));
+		channelContext.put("transactionCapacity", "2");
+		channelContext.put("keep-alive", "0");
+		Configurables.configure(channel, channelContext);
+	}
+
+	/**
+	 * Backdates the files in the directory by two hours.
+	 */
+	private static void age(File directory) {
+		for (File file : directory.listFiles()) {
+			file.setLastModified(System.currentTimeMillis() - 2 * 3600 * 1000);
+		}
+	}
+
+	private static HttpServletRequest upload(String id, long offset, String body) {
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put(ChunkHttpSource.UPLOAD_ID_HEADER, id);
+		headers.put(ChunkHttpSource.UPLOAD_OFFSET_HEADER, String.valueOf(offset));
+		return request(body.getBytes(Charsets.UTF_8), headers);
+	}
+
+	/**
+	 * A POST of the body with one X-Test header.
+	 */
+	static HttpServletRequest request(String body) {
+		return request(body.getBytes(Charsets.UTF_8), Collections.singletonMap("X-Test", "v"));
+	}
+
+	static HttpServletRequest request(byte[] body, Map<String, String> headers) {
+		final InputStream in = new ByteArrayInputStream(body);
+		final Map<String, String> requestHeaders = new TreeMap<String, String>(headers);
+		return (HttpServletRequest) Proxy.newProxyInstance(ChunkHttpSourceTest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getInputStream")) {
+							return new ServletInputStream() {
+								@Override
+								public int read() throws IOException {
+									return in.read();
+								}
+
+								@Override
+								public int read(byte[] b, int off, int len) throws IOException {
+									return in.read(b, off, len);
+								}
+							};
+						} else if (name.equals("getHeaderNames")) {
+							return Collections.enumeration(requestHeaders.keySet());
+						} else if (name.equals("getHeader")) {
+							return requestHeaders.get(args[0]);
+						} else if (name.equals("getMethod")) {
+							return "POST";
+						}
+						return null;
+					}
+				});
+	}
+
+	private List<Event> take() {
+		List<Event> events = new ArrayList<Event>();
+		Transaction tx = channel.getTransaction();
+		tx.begin();
+		Event event;
+		while (events.size() < 2 && (event = channel.take()) != null) {
+			events.add(event);
+		}
+		tx.commit();
+		tx.close();
+		return events;
+	}
+
+	private static List<String> bodies(List<Event> events) {
+		List<String> bodies = new ArrayList<String>();
+		for (Event event : events) {
+			bodies.add(new String(event.getBody(), Charsets.UTF_8));
+		}
+		return bodies;
+	}
+
+	private static List<String> listOf(String... values) {
+		List<String> list = new ArrayList<String>();
+		Collections.addAll(list, values);
+		return list;
+	}
+}
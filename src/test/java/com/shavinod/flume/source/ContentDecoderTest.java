@@ -0,0 +1,124 @@
+package com.shavinod.flume.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.flume.source.http.HTTPBadRequestException;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class ContentDecoderTest {
+
+	private final HttpSourceCounter counter = new HttpSourceCounter("decoder-test");
+	private final ContentDecoder decoder = new ContentDecoder(100, counter);
+
+	@Test
+	public void testIdentity() throws IOException {
+		assertEquals("plain", decode("plain".getBytes(Charsets.UTF_8), null));
+		assertEquals(0, counter.getCompressedBytesCount());
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		byte[] body = gzip("hello gzip");
+		assertEquals("hello gzip", decode(body, "gzip"));
+		// the thread's inflater is reused for the next request
+		assertEquals("hello gzip", decode(body, "x-gzip"));
+		assertEquals(2 * body.length, counter.getCompressedBytesCount());
+		assertEquals(20, counter.getUncompressedBytesCount());
+	}
+
+	@Test
+	public void testGzipMembers() throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		body.write(gzip("first "));
+		body.write(gzip("second"));
+		assertEquals("first second", decode(body.toByteArray(), "gzip"));
+	}
+
+	@Test
+	public void testDeflate() throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		OutputStream out = new DeflaterOutputStream(body);
+		out.write("hello deflate".getBytes(Charsets.UTF_8));
+		out.close();
+		assertEquals("hello deflate", decode(body.toByteArray(), "Deflate"));
+	}
+
+	@Test(expected = HTTPBadRequestException.class)
+	public void testCorruptTrailer() throws IOException {
+		byte[] body = gzip("hello gzip");
+		body[body.length - 1]++;
+		decode(body, "gzip");
+	}
+
+	@Test(expected = HTTPBadRequestException.class)
+	public void testTruncated() throws IOException {
+		byte[] body = gzip("hello gzip");
+		decode(Arrays.copyOf(body, body.length - 10), "gzip");
+	}
+
+	/**
+	 * A body that is not gzip fails in open(), which closes the request's
+	 * stream, counting its bytes, before rethrowing.
+	 */
+	@Test
+	public void testBadHeaderClosesStream() throws IOException {
+		try {
+			decode("plain text".getBytes(Charsets.UTF_8), "gzip");
+			fail("Decoded a body that is not gzip");
+		} catch (HTTPBadRequestException e) {
+			assertEquals(10, counter.getCompressedBytesCount());
+		}
+	}
+
+	@Test(expected = HTTPBadRequestException.class)
+	public void testUnsupportedEncoding() throws IOException {
+		decode(new byte[0], "br");
+	}
+
+	@Test
+	public void testBomb() throws IOException {
+		byte[] body = gzip(new String(new char[10 * 1024 * 1024]).replace('\0', 'a'));
+		try {
+			decode(body, "gzip");
+			fail("Inflated a body " + body.length + " bytes long to 10 MiB");
+		} catch (HTTPBadRequestException e) {
+			assertEquals(1, counter.getDecompressionRejectedCount());
+		}
+	}
+
+	private String decode(byte[] body, String encoding) throws IOException {
+		InputStream in = decoder.open(ChunkHttpSourceTest.request(body, encoding == null
+				? Collections.<String, String> emptyMap() : Collections.singletonMap("Content-Encoding", encoding)));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[7];
+			int bytesRead;
+			while ((bytesRead = in.read(buf)) >= 0) {
+				out.write(buf, 0, bytesRead);
+			}
+			return new String(out.toByteArray(), Charsets.UTF_8);
+		} finally {
+			in.close();
+		}
+	}
+
+	static byte[] gzip(String text) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		OutputStream out = new GZIPOutputStream(body);
+		out.write(text.getBytes(Charsets.UTF_8));
+		out.close();
+		return body.toByteArray();
+	}
+}
@@ -0,0 +1,134 @@
+package com.shavinod.flume.source;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.flume.Event;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class LengthPrefixFramerTest {
+
+  static void writeVarint(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7fL) != 0) {
+      out.write((int) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  static void writeInt(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) i;
+    }
+    return bytes;
+  }
+
+  @Test
+  public void testVarintFrames() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeVarint(out, 3);
+    out.write(1);
+    out.write(0);
+    out.write('\n');
+    writeVarint(out, 0);
+    writeVarint(out, 300);
+    out.write(bytes(300), 0, 300);
+
+    LengthPrefixFramer framer = new LengthPrefixFramer(true, false, 1024);
+    ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+    assertArrayEquals(new byte[] { 1, 0, '\n' }, framer.next(buffer).getBody());
+    assertEquals(0, framer.next(buffer).getBody().length);
+    assertArrayEquals(bytes(300), framer.next(buffer).getBody());
+    assertNull(framer.next(buffer));
+    assertFalse(framer.overflowed(buffer));
+  }
+
+  @Test
+  public void testInt32FrameAcrossReads() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeInt(out, 200000);
+    out.write(bytes(200000), 0, 200000);
+    byte[] stream = out.toByteArray();
+
+    // feed the stream through a small buffer, as the socket would
+    LengthPrefixFramer framer = new LengthPrefixFramer(false, false, 1 << 20);
+    ByteBuffer buffer = ByteBuffer.allocate(1000);
+    Event event = null;
+    for (int offset = 0; offset < stream.length; offset += 999) {
+      assertNull(event);
+      buffer.put(stream, offset, Math.min(999, stream.length - offset));
+      buffer.flip();
+      event = framer.next(buffer);
+      buffer.compact();
+    }
+    assertArrayEquals(bytes(200000), event.getBody());
+  }
+
+  @Test
+  public void testHeaders() {
+    ByteArrayOutputStream block = new ByteArrayOutputStream();
+    for (String s : new String[] { "host", "a", "type", "\u00fc" }) {
+      byte[] utf8 = s.getBytes(Charsets.UTF_8);
+      writeVarint(block, utf8.length);
+      block.write(utf8, 0, utf8.length);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeVarint(out, block.size());
+    out.write(block.toByteArray(), 0, block.size());
+    writeVarint(out, 2);
+    out.write('o');
+    out.write('k');
+    byte[] stream = out.toByteArray();
+
+    LengthPrefixFramer framer = new LengthPrefixFramer(true, true, 1024);
+    // a partial header block consumes nothing
+    ByteBuffer partial = ByteBuffer.wrap(stream, 0, 5);
+    assertNull(framer.next(partial));
+    assertEquals(0, partial.position());
+
+    Event event = framer.next(ByteBuffer.wrap(stream));
+    assertEquals("ok", new String(event.getBody(), Charsets.UTF_8));
+    assertEquals("a", event.getHeaders().get("host"));
+    assertEquals("\u00fc", event.getHeaders().get("type"));
+  }
+
+  @Test
+  public void testFrameTooLong() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeInt(out, 1025);
+    LengthPrefixFramer framer = new LengthPrefixFramer(false, false, 1024);
+    ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+    assertNull(framer.next(buffer));
+    assertTrue(framer.overflowed(buffer));
+    assertEquals("Frame exceeds the maximum length (1024 bytes)",
+        framer.getOverflowMessage());
+  }
+
+  @Test
+  public void testMalformedHeaders() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeVarint(out, 2);
+    writeVarint(out, 5);
+    out.write('k');
+    LengthPrefixFramer framer = new LengthPrefixFramer(true, true, 1024);
+    ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+    assertNull(framer.next(buffer));
+    assertTrue(framer.overflowed(buffer));
+  }
+}
@@ -0,0 +1,69 @@
+package com.shavinod.flume.source;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class LineFramerTest {
+
+  private static byte[] utf8(String s) {
+    return s.getBytes(Charsets.UTF_8);
+  }
+
+  @Test
+  public void testLines() {
+    LineFramer framer = new LineFramer(16, Charsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.wrap(utf8("a\n\nbc\nd"));
+    assertArrayEquals(utf8("a"), framer.next(buffer).getBody());
+    assertArrayEquals(new byte[0], framer.next(buffer).getBody());
+    assertArrayEquals(utf8("bc"), framer.next(buffer).getBody());
+    assertNull(framer.next(buffer));
+    assertEquals(1, buffer.remaining());
+  }
+
+  @Test
+  public void testLineAcrossReads() {
+    LineFramer framer = new LineFramer(16, Charsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocate(16);
+    byte[] line = utf8("\u00fcber\n");
+    // feed one byte at a time, splitting the two-byte character
+    for (int i = 0; i < line.length - 1; i++) {
+      buffer.put(line[i]);
+      buffer.flip();
+      assertNull(framer.next(buffer));
+      buffer.compact();
+    }
+    buffer.put(line[line.length - 1]);
+    buffer.flip();
+    assertArrayEquals(utf8("\u00fcber"), framer.next(buffer).getBody());
+    assertFalse(buffer.hasRemaining());
+  }
+
+  @Test
+  public void testTranscodes() {
+    Charset latin1 = Charset.forName("ISO-8859-1");
+    LineFramer framer = new LineFramer(16, latin1);
+    ByteBuffer buffer = ByteBuffer.wrap("gr\u00fc\u00df\n".getBytes(latin1));
+    assertArrayEquals(utf8("gr\u00fc\u00df"), framer.next(buffer).getBody());
+  }
+
+  @Test
+  public void testOverflow() {
+    LineFramer framer = new LineFramer(4, Charsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.wrap(utf8("abc"));
+    assertNull(framer.next(buffer));
+    assertFalse(framer.overflowed(buffer));
+    buffer = ByteBuffer.wrap(utf8("abcd"));
+    assertNull(framer.next(buffer));
+    assertTrue(framer.overflowed(buffer));
+  }
+}
@@ -0,0 +1,126 @@
+package com.shavinod.flume.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.apache.flume.Channel;
+import org.apache.flume.ChannelSelector;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class NetcatBatchTest {
+
+  private NetcatSource source;
+  private NetcatSourceCounter sourceCounter;
+
+  @Before
+  public void setUp() {
+    Channel channel = new MemoryChannel();
+    Context context = new Context();
+    context.put("capacity", "3");
+    context.put("transactionCapacity", "3");
+    context.put("keep-alive", "0");
+    Configurables.configure(channel, context);
+    ChannelSelector selector = new ReplicatingChannelSelector();
+    selector.setChannels(Collections.singletonList(channel));
+    source = new NetcatSource();
+    source.setChannelProcessor(new ChannelProcessor(selector));
+    sourceCounter = new NetcatSourceCounter("batch-test");
+  }
+
+  private static Event line(String s) {
+    return EventBuilder.withBody(s.getBytes(Charsets.UTF_8));
+  }
+
+  private static String text(byte[] bytes) {
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  @Test
+  public void testDue() {
+    NetcatBatch batch = new NetcatBatch(source, sourceCounter, 2, 100, true,
+        false, Charsets.UTF_8);
+    assertFalse(batch.isDue(0));
+    assertFalse(batch.add(line("a"), 1000));
+    assertEquals(1100, batch.getDeadline());
+    assertFalse(batch.isDue(1099));
+    assertTrue(batch.isDue(1100));
+    assertTrue(batch.add(line("b"), 1001));
+    assertTrue(batch.isDue(1001));
+  }
+
+  @Test
+  public void testPerEventResponses() {
+    NetcatBatch batch = new NetcatBatch(source, sourceCounter, 3, 0, true,
+        false, Charsets.UTF_8);
+    batch.add(line("a"), 0);
+    batch.add(line("b"), 0);
+    assertEquals("OK\nOK\n", text(batch.commit()));
+    assertTrue(batch.isEmpty());
+    assertEquals(0, batch.commit().length);
+    assertEquals(2, sourceCounter.getEventAcceptedCount());
+
+    // the channel has room for one more event, so the next batch fails whole
+    batch.add(line("c"), 0);
+    batch.add(line("d"), 0);
+    String failed = text(batch.commit());
+    assertTrue(failed, failed.startsWith("FAILED: "));
+    assertEquals(2, failed.split("\n").length);
+    assertEquals(2, sourceCounter.getEventFailedCount());
+    assertEquals(2, batch.getAcceptedCount());
+    assertEquals(4, sourceCounter.getEventReceivedCount());
+    assertEquals(2, sourceCounter.getAppendBatchReceivedCount());
+    assertEquals(1, sourceCounter.getAppendBatchAcceptedCount());
+  }
+
+  @Test
+  public void testBatchResponses() {
+    NetcatBatch batch = new NetcatBatch(source, sourceCounter, 3, 0, true,
+        true, Charsets.UTF_8);
+    batch.add(line("a"), 0);
+    batch.add(line("b"), 0);
+    assertEquals("OK 2\n", text(batch.commit()));
+    batch.add(line("c"), 0);
+    batch.add(line("d"), 0);
+    assertTrue(text(batch.commit()).startsWith("FAILED 2: "));
+  }
+
+  @Test
+  public void testNoAck() {
+    NetcatBatch batch = new NetcatBatch(source, sourceCounter, 3, 0, false,
+        false, Charsets.UTF_8);
+    batch.add(line("a"), 0);
+    assertEquals(0, batch.commit().length);
+  }
+
+  @Test
+  public void testBackpressureRetries() {
+    NetcatBatch batch = new NetcatBatch(source, sourceCounter, 5, 0, true,
+        false, Charsets.UTF_8);
+    batch.enableBackpressure(10, 35);
+    assertTrue(batch.isBackpressure());
+    for (String value : new String[] { "a", "b", "c", "d" }) {
+      batch.add(line(value), 0);
+    }
+    // four events do not fit a channel of three, and nothing is lost
+    assertEquals(null, batch.tryCommit());
+    assertFalse(batch.isEmpty());
+    assertEquals(10, batch.nextBackoff());
+    assertEquals(20, batch.nextBackoff());
+    assertEquals(35, batch.nextBackoff());
+    assertEquals(35, batch.nextBackoff());
+    assertEquals(0, sourceCounter.getEventFailedCount());
+  }
+}
@@ -0,0 +1,155 @@
+package com.shavinod.flume.source;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.flume.ChannelSelector;
+import org.apache.flume.Context;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Compares the handler modes with many concurrent local connections, each
+ * sending a few lines and waiting for their acknowledgements.
+ * 
+ * Skipped unless run with -Dnetcat.benchmark=true. The connection and line
+ * counts default to 10000 and 10 and can be set with
+ * -Dnetcat.benchmark.connections and -Dnetcat.benchmark.lines; the process
+ * needs about two file descriptors per connection.
+ */
+public class NetcatSourceBenchmarkTest {
+
+  private static final int CONNECTIONS = Integer.getInteger(
+      "netcat.benchmark.connections", 10000);
+  private static final int LINES = Integer.getInteger(
+      "netcat.benchmark.lines", 10);
+
+  @Test
+  public void testModes() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean("netcat.benchmark"));
+    for (String mode : new String[] { NetcatSourceConstants.MODE_BLOCKING,
+        NetcatSourceConstants.MODE_VIRTUAL, NetcatSourceConstants.MODE_SELECTOR }) {
+      run(mode);
+    }
+  }
+
+  private void run(String mode) throws Exception {
+    MemoryChannel channel = new MemoryChannel();
+    Context channelContext = new Context();
+    channelContext.put("capacity", String.valueOf(CONNECTIONS * LINES));
+    channelContext.put("transactionCapacity", "100");
+    Configurables.configure(channel, channelContext);
+    ChannelSelector selector = new ReplicatingChannelSelector();
+    selector.setChannels(Collections.<org.apache.flume.Channel> singletonList(channel));
+
+    ServerSocket probe = new ServerSocket(0);
+    int port = probe.getLocalPort();
+    probe.close();
+
+    NetcatSource source = new NetcatSource();
+    source.setChannelProcessor(new ChannelProcessor(selector));
+    Context context = new Context();
+    context.put("bind", "127.0.0.1");
+    context.put("port", String.valueOf(port));
+    context.put(NetcatSourceConstants.CONFIG_MODE, mode);
+    Configurables.configure(source, context);
+    source.start();
+    try {
+      long start = System.nanoTime();
+      List<SocketChannel> connections = connect(port);
+      long connected = System.nanoTime();
+      exchange(connections);
+      long done = System.nanoTime();
+      for (SocketChannel connection : connections) {
+        connection.close();
+      }
+
+      double seconds = (done - connected) / 1e9;
+      System.out.println(String.format("%-8s %s%6d connections  connect %6d ms"
+          + "  exchange %6d ms  %10.0f events/s", mode,
+          NetcatSourceConstants.MODE_VIRTUAL.equals(mode) && !source.isVirtual()
+              ? "(pooled) " : "", CONNECTIONS, (connected - start) / 1000000,
+          (done - connected) / 1000000, CONNECTIONS * LINES / seconds));
+    } finally {
+      source.stop();
+      channel.stop();
+    }
+  }
+
+  private static List<SocketChannel> connect(int port) throws IOException {
+    List<SocketChannel> connections = new ArrayList<SocketChannel>(CONNECTIONS);
+    InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+    for (int i = 0; i < CONNECTIONS; i++) {
+      SocketChannel connection = SocketChannel.open(address);
+      connection.configureBlocking(false);
+      connections.add(connection);
+    }
+    return connections;
+  }
+
+  /**
+   * Sends LINES lines on every connection at once and waits for all the
+   * acknowledgements, driving all connections from one selector.
+   */
+  private static void exchange(List<SocketChannel> connections) throws IOException {
+    StringBuilder lines = new StringBuilder();
+    for (int i = 0; i < LINES; i++) {
+      lines.append("benchmark line ").append(i).append('\n');
+    }
+    byte[] request = lines.toString().getBytes(Charsets.UTF_8);
+    int expected = LINES * 3; // "OK\n" per line
+
+    Selector selector = Selector.open();
+    try {
+      for (SocketChannel connection : connections) {
+        ByteBuffer out = ByteBuffer.wrap(request);
+        connection.write(out);
+        connection.register(selector, out.hasRemaining() ? SelectionKey.OP_READ
+            | SelectionKey.OP_WRITE : SelectionKey.OP_READ, new ByteBuffer[] { out,
+            ByteBuffer.allocate(expected) });
+      }
+
+      int open = connections.size();
+      while (open > 0) {
+        selector.select();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          ByteBuffer[] buffers = (ByteBuffer[]) key.attachment();
+          SocketChannel connection = (SocketChannel) key.channel();
+          if (key.isWritable()) {
+            connection.write(buffers[0]);
+            if (!buffers[0].hasRemaining()) {
+              key.interestOps(SelectionKey.OP_READ);
+            }
+          }
+          if (key.isReadable() && connection.read(buffers[1]) < 0) {
+            throw new IOException("Connection closed early");
+          }
+          if (!buffers[1].hasRemaining()) {
+            key.cancel();
+            open--;
+          }
+        }
+      }
+    } finally {
+      selector.close();
+    }
+  }
+}
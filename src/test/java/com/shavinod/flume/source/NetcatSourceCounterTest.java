@@ -0,0 +1,72 @@
+package com.shavinod.flume.source;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class NetcatSourceCounterTest {
+
+  @Test
+  public void testCommits() {
+    NetcatSourceCounter counter = new NetcatSourceCounter("counter-test");
+    counter.recordCommit(1, 5000, true);
+    counter.recordCommit(3, 20000, true);
+    counter.recordCommit(2, 1000000, false);
+
+    assertEquals(1, counter.getAppendReceivedCount());
+    assertEquals(1, counter.getAppendAcceptedCount());
+    assertEquals(2, counter.getAppendBatchReceivedCount());
+    assertEquals(1, counter.getAppendBatchAcceptedCount());
+    assertEquals(4, counter.getEventAcceptedCount());
+    assertEquals(20, counter.getCommitLatencyMicros50th());
+    assertEquals(1000, counter.getCommitLatencyMicrosMax());
+  }
+
+  @Test
+  public void testConnections() {
+    NetcatSourceCounter counter = new NetcatSourceCounter("counter-test");
+    counter.connectionOpened();
+    counter.connectionOpened();
+    assertEquals(2, counter.getOpenConnectionCount());
+    counter.connectionClosed(127, 10);
+    counter.connectionClosed(4000, 20);
+    assertEquals(0, counter.getOpenConnectionCount());
+    assertEquals(127, counter.getConnectionBytes50th());
+    assertEquals(4000, counter.getConnectionBytesMax());
+    assertEquals(20, counter.getConnectionEvents99th());
+
+    counter.connectionPaused();
+    counter.connectionResumed(30);
+    counter.connectionPaused();
+    assertEquals(1, counter.getPausedConnectionCount());
+    assertEquals(2, counter.getPauseCount());
+    assertEquals(30, counter.getPauseTimeMillis());
+  }
+
+  @Test
+  public void testStartResets() {
+    NetcatSourceCounter counter = new NetcatSourceCounter("counter-test");
+    counter.addToBytesReceivedCount(10);
+    counter.recordCommit(1, 5000, true);
+    counter.connectionClosed(10, 1);
+    counter.start();
+    try {
+      assertEquals(0, counter.getBytesReceivedCount());
+      assertEquals(0, counter.getCommitLatencyMicrosMax());
+      assertEquals(0, counter.getConnectionBytesMax());
+      assertEquals(0, counter.getBufferPoolInUseBytes());
+    } finally {
+      counter.stop();
+    }
+  }
+
+  @Test
+  public void testBufferPool() {
+    NetcatSourceCounter counter = new NetcatSourceCounter("counter-test");
+    BufferPool pool = new BufferPool(16, 2);
+    counter.setBufferPool(pool);
+    pool.lease();
+    assertEquals(1, counter.getBufferPoolAllocatedCount());
+    assertEquals(16, counter.getBufferPoolInUseBytes());
+  }
+}
@@ -0,0 +1,695 @@
+package com.shavinod.flume.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.flume.Channel;
+import org.apache.flume.ChannelSelector;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class NetcatSourceTest {
+
+  private Channel channel;
+  private NetcatSource source;
+  private int port;
+
+  @Before
+  public void setUp() throws IOException {
+    channel = new MemoryChannel();
+    Context channelContext = new Context();
+    channelContext.put("capacity", "10000");
+    channelContext.put("transactionCapacity", "10000");
+    channelContext.put("keep-alive", "0");
+    Configurables.configure(channel, channelContext);
+    ChannelSelector selector = new ReplicatingChannelSelector();
+    selector.setChannels(Collections.singletonList(channel));
+    source = new NetcatSource();
+    source.setChannelProcessor(new ChannelProcessor(selector));
+
+    ServerSocket probe = new ServerSocket(0);
+    port = probe.getLocalPort();
+    probe.close();
+  }
+
+  @After
+  public void tearDown() {
+    source.stop();
+  }
+
+  private void start(String mode, String... options) {
+    Context context = new Context();
+    context.put("bind", "127.0.0.1");
+    context.put("port", String.valueOf(port));
+    context.put(NetcatSourceConstants.CONFIG_MODE, mode);
+    for (int i = 0; i < options.length; i += 2) {
+      context.put(options[i], options[i + 1]);
+    }
+    Configurables.configure(source, context);
+    source.start();
+  }
+
+  @Test
+  public void testBlockingMode() throws IOException {
+    start(NetcatSourceConstants.MODE_BLOCKING);
+    assertEquals("OK\nOK\n", send("first\nsecond\n"));
+    assertEquals(listOf("first", "second"), take());
+  }
+
+  @Test
+  public void testBlockingModeUtf8() throws IOException {
+    start(NetcatSourceConstants.MODE_BLOCKING);
+    assertEquals("OK\n", send("gr\u00fc\u00dfe \u20ac\n"));
+    assertEquals(listOf("gr\u00fc\u00dfe \u20ac"), take());
+  }
+
+  @Test
+  public void testBlockingModeLatin1() throws IOException {
+    start(NetcatSourceConstants.MODE_BLOCKING, "encoding", "ISO-8859-1");
+    Socket socket = new Socket("127.0.0.1", port);
+    socket.getOutputStream().write("gr\u00fc\u00df\n".getBytes("ISO-8859-1"));
+    socket.shutdownOutput();
+    assertEquals("OK\n", readFully(socket, Integer.MAX_VALUE));
+    socket.close();
+    assertEquals(listOf("gr\u00fc\u00df"), take());
+  }
+
+  @Test
+  public void testBlockingModeLineLengthInBytes() throws IOException {
+    start(NetcatSourceConstants.MODE_BLOCKING, "max-line-length", "8");
+    // five characters, but already eight bytes without a newline
+    String response = send("\u00fc\u00fc\u00fcab");
+    assertTrue(response, response.startsWith("FAILED: Event exceeds the maximum length (8 bytes"));
+    assertEquals("OK\n", send("\u00fc\u00fcabc\n"));
+    assertEquals(listOf("\u00fc\u00fcabc"), take());
+  }
+
+  @Test
+  public void testVirtualMode() throws IOException {
+    start(NetcatSourceConstants.MODE_VIRTUAL);
+    String version = System.getProperty("java.specification.version");
+    boolean modern = !version.startsWith("1.") && Integer.parseInt(version) >= 21;
+    assertEquals(modern, source.isVirtual());
+    assertEquals("OK\nOK\n", send("first\nsecond\n"));
+    assertEquals(listOf("first", "second"), take());
+  }
+
+  @Test
+  public void testSelectorMode() throws IOException {
+    start(NetcatSourceConstants.MODE_SELECTOR);
+    assertEquals("OK\nOK\n", send("first\nsecond\n"));
+    assertEquals(listOf("first", "second"), take());
+  }
+
+  @Test
+  public void testSelectorModeUtf8() throws IOException {
+    start(NetcatSourceConstants.MODE_SELECTOR);
+    assertEquals("OK\n", send("gr\u00fc\u00dfe \u20ac\n"));
+    assertEquals(listOf("gr\u00fc\u00dfe \u20ac"), take());
+  }
+
+  @Test
+  public void testSelectorModeLineTooLong() throws IOException {
+    start(NetcatSourceConstants.MODE_SELECTOR, "max-line-length", "8");
+    String response = send("01234567");
+    assertTrue(response, response.startsWith("FAILED: Event exceeds the maximum length (8 bytes"));
+    assertEquals(0, take().size());
+  }
+
+  /**
+   * A client that never reads its responses stops being read, instead of
+   * making the source queue them without bound, and is read again once it
+   * catches up.
+   */
+  @Test
+  public void testSelectorModeUnreadResponses() throws Exception {
+    Context channelContext = new Context();
+    channelContext.put("capacity", "1");
+    channelContext.put("transactionCapacity", "1");
+    channelContext.put("keep-alive", "0");
+    Configurables.configure(channel, channelContext);
+    start(NetcatSourceConstants.MODE_SELECTOR,
+        NetcatSourceConstants.CONFIG_BATCH_SIZE, "100");
+
+    // every line fails and is answered with a FAILED line longer than it
+    final byte[] lines = new byte[8 * 1024 * 1024];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = (byte) (i % 100 == 99 ? '\n' : 'x');
+    }
+    final Socket socket = new Socket("127.0.0.1", port);
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          socket.getOutputStream().write(lines);
+          socket.shutdownOutput();
+        } catch (IOException e) {
+          // closed by the test
+        }
+      }
+    };
+    writer.start();
+    try {
+      // the source stops reading once the socket buffers and its queue
+      // hold as many responses as they can
+      long deadline = System.currentTimeMillis() + 20000;
+      long received = -1;
+      while (received != source.getSourceCounter().getBytesReceivedCount()
+          && System.currentTimeMillis() < deadline) {
+        received = source.getSourceCounter().getBytesReceivedCount();
+        Thread.sleep(500);
+      }
+      assertEquals(received, source.getSourceCounter().getBytesReceivedCount());
+      assertTrue(received < lines.length);
+
+      Thread reader = new Thread() {
+        @Override
+        public void run() {
+          try {
+            InputStream in = socket.getInputStream();
+            byte[] responses = new byte[65536];
+            while (in.read(responses) >= 0) {
+              // discard
+            }
+          } catch (IOException e) {
+            // closed by the test
+          }
+        }
+      };
+      reader.start();
+      writer.join(30000);
+      assertTrue("source not read again", !writer.isAlive());
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testSelectorModeManyConnections() throws Exception {
+    start(NetcatSourceConstants.MODE_SELECTOR,
+        NetcatSourceConstants.CONFIG_SELECTOR_THREADS, "2");
+    List<Socket> sockets = new ArrayList<Socket>();
+    for (int i = 0; i < 200; i++) {
+      Socket socket = new Socket("127.0.0.1", port);
+      sockets.add(socket);
+      // split each line across two writes to exercise partial reads
+      socket.getOutputStream().write(("line-" + i).getBytes(Charsets.UTF_8));
+    }
+    for (Socket socket : sockets) {
+      socket.getOutputStream().write('\n');
+      assertEquals("OK\n", readFully(socket, 3));
+      socket.close();
+    }
+    assertEquals(200, take().size());
+  }
+
+  @Test
+  public void testBatchesBlocking() throws IOException {
+    testBatches(NetcatSourceConstants.MODE_BLOCKING);
+  }
+
+  @Test
+  public void testBatchesSelector() throws IOException {
+    testBatches(NetcatSourceConstants.MODE_SELECTOR);
+  }
+
+  private void testBatches(String mode) throws IOException {
+    start(mode, NetcatSourceConstants.CONFIG_BATCH_SIZE, "3",
+        NetcatSourceConstants.CONFIG_BATCH_LINGER, "60000");
+    // two full batches, then EOF commits the partial one despite the linger
+    assertEquals("OK\nOK\nOK\nOK\nOK\nOK\nOK\n", send("1\n2\n3\n4\n5\n6\n7\n"));
+    assertEquals(listOf("1", "2", "3", "4", "5", "6", "7"), take());
+  }
+
+  @Test
+  public void testBatchAckBlocking() throws IOException {
+    testBatchAck(NetcatSourceConstants.MODE_BLOCKING);
+  }
+
+  @Test
+  public void testBatchAckSelector() throws IOException {
+    testBatchAck(NetcatSourceConstants.MODE_SELECTOR);
+  }
+
+  private void testBatchAck(String mode) throws IOException {
+    start(mode, NetcatSourceConstants.CONFIG_BATCH_SIZE, "2",
+        NetcatSourceConstants.CONFIG_BATCH_LINGER, "60000",
+        NetcatSourceConstants.CONFIG_BATCH_ACK, "true");
+    assertEquals("OK 2\nOK 2\nOK 1\n", send("a\nb\nc\nd\ne\n"));
+    assertEquals(5, take().size());
+  }
+
+  @Test
+  public void testLingerBlocking() throws IOException {
+    testLinger(NetcatSourceConstants.MODE_BLOCKING);
+  }
+
+  @Test
+  public void testLingerSelector() throws IOException {
+    testLinger(NetcatSourceConstants.MODE_SELECTOR);
+  }
+
+  /**
+   * A partial batch on an open connection is committed once it has
+   * lingered.
+   */
+  private void testLinger(String mode) throws IOException {
+    start(mode, NetcatSourceConstants.CONFIG_BATCH_SIZE, "100",
+        NetcatSourceConstants.CONFIG_BATCH_LINGER, "50");
+    Socket socket = new Socket("127.0.0.1", port);
+    try {
+      long start = System.currentTimeMillis();
+      socket.getOutputStream().write("x\ny\n".getBytes(Charsets.UTF_8));
+      assertEquals("OK\nOK\n", readFully(socket, 6));
+      assertTrue(System.currentTimeMillis() - start >= 50);
+      assertEquals(listOf("x", "y"), take());
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testBackpressureBlocking() throws Exception {
+    testBackpressure(NetcatSourceConstants.MODE_BLOCKING);
+  }
+
+  @Test
+  public void testBackpressureSelector() throws Exception {
+    testBackpressure(NetcatSourceConstants.MODE_SELECTOR);
+  }
+
+  /**
+   * With a channel that holds two events and a slow consumer, every line
+   * still gets in: the source waits for room instead of failing lines.
+   */
+  private void testBackpressure(String mode) throws Exception {
+    Context channelContext = new Context();
+    channelContext.put("capacity", "2");
+    channelContext.put("transactionCapacity", "2");
+    channelContext.put("keep-alive", "0");
+    Configurables.configure(channel, channelContext);
+    start(mode, NetcatSourceConstants.CONFIG_BACKPRESSURE, "true",
+        NetcatSourceConstants.CONFIG_MIN_BACKOFF, "5",
+        NetcatSourceConstants.CONFIG_MAX_BACKOFF, "20");
+
+    final List<String> drained = Collections.synchronizedList(new ArrayList<String>());
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (drained.size() < 8 && System.currentTimeMillis() < deadline) {
+          drained.addAll(take(2));
+          try {
+            Thread.sleep(30);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+    };
+    consumer.start();
+    assertEquals("OK\nOK\nOK\nOK\nOK\nOK\nOK\nOK\n", send("1\n2\n3\n4\n5\n6\n7\n8\n"));
+    consumer.join();
+    assertEquals(listOf("1", "2", "3", "4", "5", "6", "7", "8"), drained);
+  }
+
+  /**
+   * Under backpressure a lingering batch is committed on a commit thread
+   * after its connection gave its read buffer back; the loop goes on
+   * serving that connection and the next ones.
+   */
+  @Test
+  public void testBackpressureLingerSelector() throws IOException {
+    start(NetcatSourceConstants.MODE_SELECTOR,
+        NetcatSourceConstants.CONFIG_SELECTOR_THREADS, "1",
+        NetcatSourceConstants.CONFIG_BACKPRESSURE, "true",
+        NetcatSourceConstants.CONFIG_BATCH_SIZE, "10",
+        NetcatSourceConstants.CONFIG_BATCH_LINGER, "50");
+    for (int i = 0; i < 2; i++) {
+      Socket socket = new Socket("127.0.0.1", port);
+      try {
+        socket.getOutputStream().write("a\n".getBytes(Charsets.UTF_8));
+        assertEquals("OK\n", readFully(socket, 3));
+      } finally {
+        socket.close();
+      }
+    }
+    assertEquals(listOf("a", "a"), take());
+  }
+
+  /**
+   * Stopping the source ends the wait of a handler paused by a channel
+   * that stays full, failing its batch and closing the connection.
+   */
+  @Test
+  public void testStopWhilePaused() throws Exception {
+    Context channelContext = new Context();
+    channelContext.put("capacity", "1");
+    channelContext.put("transactionCapacity", "1");
+    channelContext.put("keep-alive", "0");
+    Configurables.configure(channel, channelContext);
+    start(NetcatSourceConstants.MODE_BLOCKING,
+        NetcatSourceConstants.CONFIG_BACKPRESSURE, "true",
+        NetcatSourceConstants.CONFIG_MIN_BACKOFF, "5",
+        NetcatSourceConstants.CONFIG_MAX_BACKOFF, "20");
+
+    Socket socket = new Socket("127.0.0.1", port);
+    try {
+      socket.getOutputStream().write("1\n2\n".getBytes(Charsets.UTF_8));
+      long deadline = System.currentTimeMillis() + 10000;
+      while (source.getSourceCounter().getPausedConnectionCount() == 0
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(1, source.getSourceCounter().getPausedConnectionCount());
+
+      source.stop();
+      // the connection is closed rather than left paused forever
+      assertEquals("OK\n", readFully(socket, Integer.MAX_VALUE));
+      assertEquals(0, source.getSourceCounter().getPausedConnectionCount());
+      assertEquals(1, source.getSourceCounter().getEventFailedCount());
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testSelectorCommitDoesNotStallLoop() throws Exception {
+    testSelectorCommitDoesNotStallLoop(false);
+  }
+
+  @Test
+  public void testSelectorBackpressureCommitDoesNotStallLoop()
+      throws Exception {
+    testSelectorCommitDoesNotStallLoop(true);
+  }
+
+  /**
+   * In selector mode a commit waiting out the channel's keep-alive runs on
+   * a commit thread, so the event loop keeps answering its other
+   * connections meanwhile.
+   */
+  private void testSelectorCommitDoesNotStallLoop(boolean backpressure)
+      throws Exception {
+    Context channelContext = new Context();
+    channelContext.put("capacity", "1");
+    channelContext.put("transactionCapacity", "1");
+    channelContext.put("keep-alive", "3");
+    Configurables.configure(channel, channelContext);
+    start(NetcatSourceConstants.MODE_SELECTOR,
+        NetcatSourceConstants.CONFIG_SELECTOR_THREADS, "1",
+        NetcatSourceConstants.CONFIG_BACKPRESSURE, String.valueOf(backpressure),
+        "max-line-length", "8");
+
+    Socket socket = new Socket("127.0.0.1", port);
+    try {
+      socket.getOutputStream().write("1\n2\n".getBytes(Charsets.UTF_8));
+      assertEquals("OK\n", readFully(socket, 3));
+      // the commit of 2 now waits for room in the channel
+      Thread.sleep(200);
+
+      long start = System.currentTimeMillis();
+      String response = send("0123456789");
+      assertTrue(response, response.startsWith("FAILED: "));
+      long elapsed = System.currentTimeMillis() - start;
+      assertTrue("answered after " + elapsed + " ms", elapsed < 1500);
+
+      assertEquals(listOf("1"), take(1));
+      assertEquals("OK\n", readFully(socket, 3));
+      assertEquals(listOf("2"), take(1));
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testChannelFullWithoutBackpressure() throws IOException {
+    Context channelContext = new Context();
+    channelContext.put("capacity", "2");
+    channelContext.put("transactionCapacity", "2");
+    channelContext.put("keep-alive", "0");
+    Configurables.configure(channel, channelContext);
+    start(NetcatSourceConstants.MODE_BLOCKING);
+    String response = send("1\n2\n3\n");
+    assertTrue(response, response.startsWith("OK\nOK\nFAILED: "));
+    assertEquals(listOf("1", "2"), take(2));
+  }
+
+  @Test
+  public void testAcceptorsBlocking() throws IOException {
+    testAcceptors(NetcatSourceConstants.MODE_BLOCKING);
+  }
+
+  @Test
+  public void testAcceptorsSelector() throws IOException {
+    testAcceptors(NetcatSourceConstants.MODE_SELECTOR);
+  }
+
+  private void testAcceptors(String mode) throws IOException {
+    start(mode, NetcatSourceConstants.CONFIG_ACCEPTORS, "4",
+        NetcatSourceConstants.CONFIG_SELECTOR_THREADS, "2");
+    if (System.getProperty("os.name").startsWith("Linux")
+        && !System.getProperty("java.specification.version").startsWith("1.")) {
+      assertEquals(4, source.getAcceptorCount());
+    } else {
+      assertTrue(source.getAcceptorCount() == 1 || source.getAcceptorCount() == 4);
+    }
+    for (int i = 0; i < 40; i++) {
+      assertEquals("OK\n", send("line-" + i + "\n"));
+    }
+    assertEquals(40, take().size());
+  }
+
+  @Test
+  public void testVarintFramingBlocking() throws IOException {
+    testVarintFraming(NetcatSourceConstants.MODE_BLOCKING);
+  }
+
+  @Test
+  public void testVarintFramingSelector() throws IOException {
+    testVarintFraming(NetcatSourceConstants.MODE_SELECTOR);
+  }
+
+  private void testVarintFraming(String mode) throws IOException {
+    start(mode, NetcatSourceConstants.CONFIG_FRAMING,
+        NetcatSourceConstants.FRAMING_VARINT,
+        NetcatSourceConstants.CONFIG_BATCH_SIZE, "10");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (String body : new String[] { "a\nb", "", "c" }) {
+      LengthPrefixFramerTest.writeVarint(out, body.length());
+      out.write(body.getBytes(Charsets.UTF_8));
+    }
+    // a large frame, bigger than the read buffer
+    LengthPrefixFramerTest.writeVarint(out, 100000);
+    out.write(new byte[100000]);
+
+    Socket socket = new Socket("127.0.0.1", port);
+    try {
+      socket.getOutputStream().write(out.toByteArray());
+      socket.shutdownOutput();
+      assertEquals("OK\nOK\nOK\nOK\n", readFully(socket, Integer.MAX_VALUE));
+    } finally {
+      socket.close();
+    }
+    List<String> bodies = take();
+    assertEquals(listOf("a\nb", "", "c"), bodies.subList(0, 3));
+    assertEquals(100000, bodies.get(3).length());
+  }
+
+  @Test
+  public void testBufferPoolBlocking() throws Exception {
+    testBufferPool(NetcatSourceConstants.MODE_BLOCKING);
+  }
+
+  @Test
+  public void testBufferPoolSelector() throws Exception {
+    testBufferPool(NetcatSourceConstants.MODE_SELECTOR);
+  }
+
+  /**
+   * With a linger the blocking handler reads through the socket's stream,
+   * straight into pooled heap buffers.
+   */
+  @Test
+  public void testBufferPoolLingerBlocking() throws Exception {
+    start(NetcatSourceConstants.MODE_BLOCKING,
+        NetcatSourceConstants.CONFIG_BATCH_SIZE, "100",
+        NetcatSourceConstants.CONFIG_BATCH_LINGER, "20");
+    BufferPool pool = source.getBufferPool();
+    assertFalse(pool.isDirect());
+    for (int i = 0; i < 10; i++) {
+      assertEquals("OK\nOK\n", send("a-" + i + "\nb-" + i + "\n"));
+    }
+    assertEquals(20, take().size());
+    for (int i = 0; i < 100 && pool.getInUseBytes() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, pool.getInUseBytes());
+    assertTrue(pool.getHits() > 0);
+  }
+
+  /**
+   * Idle connections hold no buffer, and closed ones give theirs back.
+   */
+  private void testBufferPool(String mode) throws Exception {
+    start(mode, NetcatSourceConstants.CONFIG_BUFFER_POOL_SIZE, "4");
+    BufferPool pool = source.getBufferPool();
+    for (int i = 0; i < 10; i++) {
+      assertEquals("OK\n", send("line-" + i + "\n"));
+    }
+    for (int i = 0; i < 100 && pool.getInUseBytes() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, pool.getInUseBytes());
+    assertTrue(pool.getAllocated() <= 4);
+    assertTrue(pool.getHits() > 0);
+
+    Socket idle = new Socket("127.0.0.1", port);
+    try {
+      idle.getOutputStream().write("x\n".getBytes(Charsets.UTF_8));
+      assertEquals("OK\n", readFully(idle, 3));
+      if (NetcatSourceConstants.MODE_SELECTOR.equals(mode)) {
+        assertEquals(0, pool.getInUseBytes());
+      } else {
+        assertEquals(pool.getBufferSize(), pool.getInUseBytes());
+      }
+    } finally {
+      idle.close();
+    }
+  }
+
+  @Test
+  public void testCountersBlocking() throws Exception {
+    testCounters(NetcatSourceConstants.MODE_BLOCKING);
+  }
+
+  @Test
+  public void testCountersSelector() throws Exception {
+    testCounters(NetcatSourceConstants.MODE_SELECTOR);
+  }
+
+  /**
+   * The source reports through its JMX-registered SourceCounter.
+   */
+  private void testCounters(String mode) throws Exception {
+    source.setName("netcat-" + mode);
+    start(mode);
+    NetcatSourceCounter counter = source.getSourceCounter();
+    assertEquals("OK\nOK\n", send("first\nsecond\n"));
+    for (int i = 0; i < 100 && counter.getSessionCompletedCount() == 0; i++) {
+      Thread.sleep(10);
+    }
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("org.apache.flume.source:type=netcat-"
+        + mode);
+    assertEquals(2L, server.getAttribute(name, "EventReceivedCount"));
+    assertEquals(2L, server.getAttribute(name, "EventAcceptedCount"));
+    assertEquals(2L, server.getAttribute(name, "AppendAcceptedCount"));
+    assertEquals(13L, server.getAttribute(name, "BytesReceivedCount"));
+    assertEquals(1L, server.getAttribute(name, "SessionCompletedCount"));
+    assertEquals(1L, server.getAttribute(name, "ConnectionAcceptedCount"));
+    assertEquals(13L, server.getAttribute(name, "ConnectionBytesMax"));
+    assertEquals(2L, server.getAttribute(name, "ConnectionEventsMax"));
+    assertTrue((Long) server.getAttribute(name, "CommitLatencyMicros99th")
+        <= counter.getCommitLatencyMicrosMax());
+    assertEquals(0L, server.getAttribute(name, "OpenConnectionCount"));
+    assertEquals(0L, server.getAttribute(name, "BufferPoolInUseBytes"));
+
+    Socket idle = new Socket("127.0.0.1", port);
+    try {
+      for (int i = 0; i < 100 && counter.getOpenConnectionCount() == 0; i++) {
+        Thread.sleep(10);
+      }
+      assertEquals(1, counter.getOpenConnectionCount());
+    } finally {
+      idle.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownMode() {
+    start("bogus");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLineFramingRejectsUtf16() {
+    start(NetcatSourceConstants.MODE_BLOCKING, "encoding", "UTF-16LE");
+  }
+
+  /**
+   * Sends the text, half-closes the socket and returns everything the
+   * source wrote back until it closed the connection.
+   */
+  private String send(String text) throws IOException {
+    Socket socket = new Socket("127.0.0.1", port);
+    try {
+      OutputStream out = socket.getOutputStream();
+      out.write(text.getBytes(Charsets.UTF_8));
+      out.flush();
+      socket.shutdownOutput();
+      return readFully(socket, Integer.MAX_VALUE);
+    } finally {
+      socket.close();
+    }
+  }
+
+  private static String readFully(Socket socket, int max) throws IOException {
+    socket.setSoTimeout(10000);
+    InputStream in = socket.getInputStream();
+    StringBuilder response = new StringBuilder();
+    int b;
+    while (response.length() < max && (b = in.read()) != -1) {
+      response.append((char) b);
+    }
+    return response.toString();
+  }
+
+  private static List<String> listOf(String... values) {
+    List<String> list = new ArrayList<String>();
+    Collections.addAll(list, values);
+    return list;
+  }
+
+  private List<String> take() {
+    return take(Integer.MAX_VALUE);
+  }
+
+  private List<String> take(int max) {
+    List<String> bodies = new ArrayList<String>();
+    Transaction tx = channel.getTransaction();
+    tx.begin();
+    Event event;
+    while (bodies.size() < max && (event = channel.take()) != null) {
+      bodies.add(new String(event.getBody(), Charsets.UTF_8));
+    }
+    tx.commit();
+    tx.close();
+    return bodies;
+  }
+}
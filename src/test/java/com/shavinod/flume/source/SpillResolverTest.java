@@ -0,0 +1,114 @@
+package com.shavinod.flume.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+
+public class SpillResolverTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+	private File file;
+	private SpillResolver resolver;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = folder.newFolder("spill");
+		file = new File(directory, "chunk-1.spill");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("hello world".getBytes(Charsets.UTF_8));
+		out.close();
+		resolver = new SpillResolver(directory);
+	}
+
+	@Test
+	public void testResolve() throws IOException {
+		ByteBuffer chunk = resolver.resolve(reference(file, 6, 5, 0, null));
+		byte[] bytes = new byte[chunk.remaining()];
+		chunk.get(bytes);
+		assertEquals("world", new String(bytes, Charsets.UTF_8));
+	}
+
+	@Test
+	public void testVerify() throws IOException {
+		Event reference = reference(file, 0, 5, 0, null);
+		assertTrue(resolver.verify(reference));
+		RandomAccessFile corrupt = new RandomAccessFile(file, "rw");
+		corrupt.write('j');
+		corrupt.close();
+		assertFalse(resolver.verify(reference));
+	}
+
+	@Test
+	public void testAcknowledgeRedelivered() throws IOException {
+		Event first = reference(file, 0, 6, 0, null);
+		Event last = reference(file, 6, 5, 1, 2);
+		assertFalse(resolver.acknowledge(first));
+		assertFalse(resolver.acknowledge(first));
+		assertTrue(file.exists());
+		assertTrue(resolver.acknowledge(last));
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void testSweep() throws IOException {
+		long old = System.currentTimeMillis() - 2 * 3600 * 1000;
+		File young = new File(directory, "chunk-2.spill");
+		young.createNewFile();
+		File other = new File(directory, "other");
+		other.createNewFile();
+		other.setLastModified(old);
+		assertFalse(resolver.acknowledge(reference(file, 0, 6, 0, null)));
+		file.setLastModified(old);
+
+		assertEquals(1, resolver.sweep(3600 * 1000));
+		assertFalse(file.exists());
+		assertTrue(young.exists());
+		assertTrue(other.exists());
+		assertEquals(0, resolver.sweep(3600 * 1000));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutsideDirectory() throws IOException {
+		File outside = folder.newFile("other");
+		resolver.resolve(reference(new File(directory, "../other"), 0, 0, 0, null));
+		outside.delete();
+	}
+
+	private static Event reference(File file, long offset, long length, int sequence, Integer chunks)
+			throws IOException {
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put(SpillResolver.PATH_HEADER, file.getPath());
+		headers.put(SpillResolver.OFFSET_HEADER, String.valueOf(offset));
+		headers.put(SpillResolver.LENGTH_HEADER, String.valueOf(length));
+		byte[] bytes = "hello world".getBytes(Charsets.UTF_8);
+		CRC32 crc = new CRC32();
+		crc.update(bytes, (int) offset, (int) length);
+		headers.put(SpillResolver.CHECKSUM_HEADER, String.valueOf(crc.getValue()));
+		headers.put(ChunkHttpSource.SEQUENCE_HEADER, String.valueOf(sequence));
+		if (chunks != null) {
+			headers.put(SpillResolver.CHUNKS_HEADER, String.valueOf(chunks));
+		}
+		return EventBuilder.withBody(new byte[0], headers);
+	}
+}
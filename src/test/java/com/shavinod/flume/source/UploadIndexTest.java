@@ -0,0 +1,111 @@
+package com.shavinod.flume.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.flume.source.http.HTTPBadRequestException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class UploadIndexTest {
+
+	private static final long DAY = 24 * 3600 * 1000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReload() throws IOException {
+		File file = new File(folder.getRoot(), "index");
+		UploadIndex index = new UploadIndex(file, DAY);
+		assertNull(index.begin("u1"));
+		index.commit("u1", 10, 2);
+		index.commit("u1", 20, 4);
+		index.end("u1");
+		index.close();
+
+		index = new UploadIndex(file, DAY);
+		UploadIndex.Entry entry = index.begin("u1");
+		assertEquals(20, entry.offset);
+		assertEquals(4, entry.sequence);
+		index.close();
+	}
+
+	@Test
+	public void testTornLineIgnored() throws IOException {
+		File file = new File(folder.getRoot(), "index");
+		long now = System.currentTimeMillis();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(("u1 10 2 " + now + "\nu1 20 4 " + now + "\nu2 5").getBytes(Charsets.UTF_8));
+		out.close();
+
+		UploadIndex index = new UploadIndex(file, DAY);
+		assertEquals(20, index.begin("u1").offset);
+		assertNull(index.begin("u2"));
+		index.close();
+		// compaction on load keeps one line per upload
+		assertEquals("u1 20 4 " + now + "\n", Files.toString(file, Charsets.UTF_8));
+	}
+
+	@Test
+	public void testRetention() throws IOException {
+		File file = new File(folder.getRoot(), "index");
+		long now = System.currentTimeMillis();
+		Files.write("old 10 1 " + (now - 2 * DAY) + "\nnew 10 1 " + now + "\n", file, Charsets.UTF_8);
+
+		UploadIndex index = new UploadIndex(file, DAY);
+		assertNull(index.begin("old"));
+		assertEquals(10, index.begin("new").offset);
+		index.close();
+	}
+
+	@Test(expected = HTTPBadRequestException.class)
+	public void testConcurrentRequestRejected() throws IOException {
+		UploadIndex index = new UploadIndex(new File(folder.getRoot(), "index"), DAY);
+		index.begin("u1");
+		index.begin("u1");
+	}
+
+	@Test
+	public void testMalformedIdRejected() throws IOException {
+		UploadIndex index = new UploadIndex(new File(folder.getRoot(), "index"), DAY);
+		try {
+			index.begin("a b\n");
+		} catch (HTTPBadRequestException e) {
+			assertTrue(e.getMessage().startsWith("Malformed upload id"));
+			return;
+		} finally {
+			index.close();
+		}
+		throw new AssertionError("malformed id accepted");
+	}
+
+	@Test(expected = IOException.class)
+	public void testCommitAfterClose() throws IOException {
+		UploadIndex index = new UploadIndex(new File(folder.getRoot(), "index"), DAY);
+		index.begin("u1");
+		index.close();
+		index.commit("u1", 10, 2);
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		File file = new File(folder.getRoot(), "index");
+		UploadIndex index = new UploadIndex(file, DAY);
+		for (int i = 0; i < 3000; i++) {
+			index.commit("u1", i, i);
+		}
+		index.close();
+		assertTrue(Files.readLines(file, Charsets.UTF_8).size() < 3000);
+		assertEquals(2999, new UploadIndex(file, DAY).begin("u1").offset);
+	}
+}
@@ -3,9 +3,12 @@ package com.shavinod.flume.stats;
 import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
 import org.junit.Test;
 
 import com.shavinod.flume.stats.CountingInterceptor;
@@ -19,33 +22,90 @@ public class CountingInterceptorTest {
 	@Test
 	public void testCollect() {
 		CountingInterceptor ci = new CountingInterceptor();
-		assertEquals(0, ci.collect());
+		assertEquals(0, ci.collect().getEvents());
 		
 		//collect method counts new events
 		ci.intercept((Event) null);
-		assertEquals(1, ci.collect());
-		assertEquals(0, ci.collect());
+		assertEquals(1, ci.collect().getEvents());
+		assertEquals(0, ci.collect().getEvents());
 		
 		ci.intercept((Event) null);
 		ci.intercept((Event) null);
-		assertEquals(2, ci.collect());
-		assertEquals(0, ci.collect());
+		assertEquals(2, ci.collect().getEvents());
+		assertEquals(0, ci.collect().getEvents());
 		
 		List<Event> events = new ArrayList<Event>();
 		
 		events.add(null);
 		ci.intercept(events);
 		events.clear();
-		assertEquals(1, ci.collect());
-		assertEquals(0, ci.collect());
+		assertEquals(1, ci.collect().getEvents());
+		assertEquals(0, ci.collect().getEvents());
 		
 		
 		events.add(null);
 		events.add(null);
 		ci.intercept(events);
 		events.clear();
-		assertEquals(2, ci.collect());
-		assertEquals(0, ci.collect());
+		assertEquals(2, ci.collect().getEvents());
+		assertEquals(0, ci.collect().getEvents());
+	}
+
+	/**
+	 * Verify that body bytes are counted alongside events and reset with them.
+	 */
+	@Test
+	public void testCollectBytes() {
+		CountingInterceptor ci = new CountingInterceptor();
+
+		ci.intercept(EventBuilder.withBody(new byte[10]));
+		ci.intercept((Event) null);
+		CountSnapshot counts = ci.collect();
+		assertEquals(2, counts.getEvents());
+		assertEquals(10, counts.getBytes());
+
+		List<Event> events = new ArrayList<Event>();
+		events.add(EventBuilder.withBody(new byte[3]));
+		events.add(EventBuilder.withBody(new byte[4]));
+		ci.intercept(events);
+		counts = ci.collect();
+		assertEquals(2, counts.getEvents());
+		assertEquals(7, counts.getBytes());
+
+		counts = ci.collect();
+		assertEquals(0, counts.getEvents());
+		assertEquals(0, counts.getBytes());
+	}
+
+	/**
+	 * Verify the per-header breakdown, including events without the header.
+	 */
+	@Test
+	public void testCollectDimensions() {
+		CountingInterceptor ci = new CountingInterceptor("host", 10);
+
+		ci.intercept(event("a", 1));
+		ci.intercept(event("b", 2));
+		List<Event> events = new ArrayList<Event>();
+		events.add(event("a", 3));
+		events.add(EventBuilder.withBody(new byte[4]));
+		ci.intercept(events);
+
+		CountSnapshot counts = ci.collect();
+		assertEquals(4, counts.getEvents());
+		assertEquals(10, counts.getBytes());
+		assertEquals(2, counts.getDimensions().size());
+		assertEquals(2, counts.getDimensions().get("a").getEvents());
+		assertEquals(4, counts.getDimensions().get("a").getBytes());
+		assertEquals(1, counts.getDimensions().get("b").getEvents());
+
+		assertEquals(0, ci.collect().getDimensions().size());
+	}
+
+	private static Event event(String host, int length) {
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("host", host);
+		return EventBuilder.withBody(new byte[length], headers);
 	}
 
 }
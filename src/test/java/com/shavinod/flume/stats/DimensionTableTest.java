@@ -0,0 +1,76 @@
+package com.shavinod.flume.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class DimensionTableTest {
+
+	private static void add(DimensionTable table, String value, long bytes) {
+		table.add(DimensionTable.hash(value), value, 1, bytes);
+	}
+
+	@Test
+	public void testCountsPerValue() {
+		DimensionTable table = new DimensionTable(10);
+		add(table, "a", 1);
+		add(table, "b", 2);
+		add(table, "a", 3);
+		Map<String, CountSnapshot> map = table.toMap();
+		assertEquals(2, map.size());
+		assertEquals(2, map.get("a").getEvents());
+		assertEquals(4, map.get("a").getBytes());
+		assertEquals(1, map.get("b").getEvents());
+	}
+
+	/**
+	 * Values past the cap go to the overflow bucket, known values keep counting.
+	 */
+	@Test
+	public void testCardinalityCap() {
+		DimensionTable table = new DimensionTable(2);
+		add(table, "a", 1);
+		add(table, "b", 1);
+		add(table, "c", 5);
+		add(table, "d", 5);
+		add(table, "a", 1);
+		assertEquals(2, table.size());
+		Map<String, CountSnapshot> map = table.toMap();
+		assertEquals(3, map.size());
+		assertEquals(2, map.get("a").getEvents());
+		assertNull(map.get("c"));
+		assertEquals(2, map.get(DimensionTable.OVERFLOW).getEvents());
+		assertEquals(10, map.get(DimensionTable.OVERFLOW).getBytes());
+	}
+
+	@Test
+	public void testMergeKeepsCap() {
+		DimensionTable left = new DimensionTable(2);
+		add(left, "a", 1);
+		add(left, "b", 1);
+		DimensionTable right = new DimensionTable(2);
+		add(right, "c", 1);
+		add(right, "a", 1);
+		DimensionTable merged = new DimensionTable(2);
+		left.mergeInto(merged);
+		right.mergeInto(merged);
+		Map<String, CountSnapshot> map = merged.toMap();
+		assertEquals(2, map.get("a").getEvents());
+		assertEquals(1, map.get(DimensionTable.OVERFLOW).getEvents());
+	}
+
+	@Test
+	public void testClear() {
+		DimensionTable table = new DimensionTable(1);
+		add(table, "a", 1);
+		add(table, "b", 1);
+		table.clear();
+		assertEquals(0, table.size());
+		assertEquals(0, table.toMap().size());
+		add(table, "b", 1);
+		assertEquals(1, table.toMap().get("b").getEvents());
+	}
+}
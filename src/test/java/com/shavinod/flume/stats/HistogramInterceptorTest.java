@@ -0,0 +1,41 @@
+package com.shavinod.flume.stats;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+
+public class HistogramInterceptorTest {
+
+	/**
+	 * Verify that body sizes and gaps are recorded and drained per collection.
+	 */
+	@Test
+	public void testCollect() {
+		HistogramInterceptor hi = new HistogramInterceptor();
+		hi.intercept(EventBuilder.withBody(new byte[100]));
+		List<Event> events = new ArrayList<Event>();
+		events.add(EventBuilder.withBody(new byte[10]));
+		events.add(EventBuilder.withBody(new byte[20]));
+		hi.intercept(events);
+
+		LogHistogram sizes = new LogHistogram();
+		LogHistogram gaps = new LogHistogram();
+		hi.collectBodySizes(sizes);
+		hi.collectInterArrivals(gaps);
+		assertEquals(3, sizes.getCount());
+		assertEquals(100, sizes.getMax());
+		assertEquals(20, sizes.valueAtPercentile(50));
+		// no gap before the first event, one before the batch, zero inside it
+		assertEquals(2, gaps.getCount());
+		assertEquals(0, gaps.valueAtPercentile(50));
+
+		sizes.reset();
+		hi.collectBodySizes(sizes);
+		assertEquals(0, sizes.getCount());
+	}
+}
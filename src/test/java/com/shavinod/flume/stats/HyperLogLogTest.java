@@ -0,0 +1,71 @@
+package com.shavinod.flume.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+	@Test
+	public void testEstimateWithinError() {
+		for (int n : new int[] { 10, 1000, 100000 }) {
+			HyperLogLog sketch = new HyperLogLog();
+			for (int i = 0; i < n; i++) {
+				sketch.offer("user" + i);
+				sketch.offer("user" + i);
+			}
+			assertWithin(n, sketch.estimate(), 0.05);
+		}
+	}
+
+	@Test
+	public void testMergeOfOverlappingSketches() {
+		HyperLogLog a = new HyperLogLog();
+		HyperLogLog b = new HyperLogLog();
+		for (int i = 0; i < 20000; i++) {
+			a.offer("ip" + i);
+			b.offer("ip" + (i + 10000));
+		}
+		a.merge(b);
+		assertWithin(30000, a.estimate(), 0.05);
+	}
+
+	/**
+	 * A sketch survives serialization and can be merged after the round trip.
+	 */
+	@Test
+	public void testBytesRoundTrip() {
+		HyperLogLog sketch = new HyperLogLog(10);
+		for (int i = 0; i < 5000; i++) {
+			sketch.offer(("key" + i).getBytes());
+		}
+		byte[] bytes = sketch.toBytes();
+		assertEquals(2 + 1024, bytes.length);
+		HyperLogLog copy = HyperLogLog.fromBytes(bytes);
+		assertEquals(sketch.estimate(), copy.estimate());
+		copy.merge(sketch);
+		assertEquals(sketch.estimate(), copy.estimate());
+	}
+
+	@Test
+	public void testDrainInto() {
+		HyperLogLog sketch = new HyperLogLog();
+		for (int i = 0; i < 100; i++) {
+			sketch.offer("k" + i);
+		}
+		HyperLogLog target = new HyperLogLog();
+		sketch.drainInto(target);
+		assertEquals(0, sketch.estimate());
+		assertWithin(100, target.estimate(), 0.05);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPrecisionMismatch() {
+		new HyperLogLog(10).merge(new HyperLogLog(12));
+	}
+
+	private static void assertWithin(long expected, long actual, double ratio) {
+		assertTrue(actual + " not within " + ratio + " of " + expected, Math.abs(actual - expected) <= expected * ratio);
+	}
+}
@@ -1,6 +1,12 @@
 package com.shavinod.flume.stats;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Test;
 
@@ -68,5 +74,74 @@ public class InterceptorRegistryTest {
 	public void testNullInstance() {
 		InterceptorRegistry.register(MockInterceptor.class, null);
 	}
-	
+
+	@Test
+	public void testComponents() {
+		MockInterceptor a = new MockInterceptor("a");
+		MockInterceptor b = new MockInterceptor("b");
+		InterceptorRegistry.register("r1", MockInterceptor.class, a);
+		InterceptorRegistry.register("r2", MockInterceptor.class, b);
+		assertEquals(2, InterceptorRegistry.getInstances(MockInterceptor.class).size());
+		assertEquals(2, InterceptorRegistry.getInstances(MockInterceptor.class, null).size());
+		Set<MockInterceptor> r1 = InterceptorRegistry.getInstances(MockInterceptor.class, Collections.singleton("r1"));
+		assertEquals(1, r1.size());
+		assertTrue(r1.contains(a));
+		assertEquals(2, InterceptorRegistry.getInstances(MockInterceptor.class, Arrays.asList("r1", "r2")).size());
+		assertEquals(0, InterceptorRegistry.getInstances(MockInterceptor.class, Collections.singleton("r3")).size());
+		InterceptorRegistry.deregister(a);
+		assertEquals(0, InterceptorRegistry.getInstances(MockInterceptor.class, Collections.singleton("r1")).size());
+		InterceptorRegistry.clear();
+	}
+
+	/**
+	 * A set handed out earlier is a snapshot and does not see later changes.
+	 */
+	@Test
+	public void testSnapshotIteration() {
+		MockInterceptor a = new MockInterceptor("a");
+		InterceptorRegistry.register(MockInterceptor.class, a);
+		Set<MockInterceptor> snapshot = InterceptorRegistry.getInstances(MockInterceptor.class);
+		InterceptorRegistry.register(MockInterceptor.class, new MockInterceptor("b"));
+		InterceptorRegistry.deregister(a);
+		assertEquals(1, snapshot.size());
+		assertTrue(snapshot.contains(a));
+		InterceptorRegistry.clear();
+	}
+
+	@Test
+	public void testConcurrentRegistration() throws InterruptedException {
+		final int threads = 8;
+		final int perThread = 100;
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final String component = "r" + (t % 2);
+			workers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < perThread; i++) {
+						InterceptorRegistry.register(component, MockInterceptor.class, new MockInterceptor("m"));
+					}
+				}
+			});
+			workers[t].start();
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		assertEquals(threads * perThread, InterceptorRegistry.getInstances(MockInterceptor.class).size());
+		InterceptorRegistry.clear();
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNullComponent() {
+		InterceptorRegistry.register(null, MockInterceptor.class, new MockInterceptor("a"));
+	}
+
 }
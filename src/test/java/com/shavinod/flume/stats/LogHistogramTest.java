@@ -0,0 +1,82 @@
+package com.shavinod.flume.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LogHistogramTest {
+
+	@Test
+	public void testSmallValuesAreExact() {
+		LogHistogram histogram = new LogHistogram();
+		for (int i = 1; i <= 10; i++) {
+			histogram.record(i);
+		}
+		assertEquals(10, histogram.getCount());
+		assertEquals(5, histogram.valueAtPercentile(50));
+		assertEquals(9, histogram.valueAtPercentile(90));
+		assertEquals(10, histogram.valueAtPercentile(100));
+		assertEquals(10, histogram.getMax());
+	}
+
+	/**
+	 * Every value maps to a bucket whose top is within 1/32 of the value.
+	 */
+	@Test
+	public void testRelativeError() {
+		long[] values = { 31, 32, 33, 1000, 65535, 1234567, Long.MAX_VALUE / 3, Long.MAX_VALUE };
+		for (long value : values) {
+			int bucket = LogHistogram.bucketOf(value);
+			assertTrue(bucket < LogHistogram.BUCKETS);
+			long top = LogHistogram.highestValueOf(bucket);
+			assertTrue(value + " above " + top, value <= top);
+			assertTrue(value + " too far from " + top, (top - value) <= value / 32);
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		LogHistogram histogram = new LogHistogram();
+		for (int i = 1; i <= 100000; i++) {
+			histogram.record(i);
+		}
+		assertWithin(50000, histogram.valueAtPercentile(50));
+		assertWithin(99000, histogram.valueAtPercentile(99));
+		assertWithin(99900, histogram.valueAtPercentile(99.9));
+		assertEquals(100000, histogram.getMax());
+	}
+
+	@Test
+	public void testMergeAndDrain() {
+		LogHistogram a = new LogHistogram();
+		LogHistogram b = new LogHistogram();
+		a.record(10);
+		b.record(2000);
+		a.merge(b);
+		assertEquals(2, a.getCount());
+		assertEquals(2000, a.getMax());
+
+		LogHistogram target = new LogHistogram();
+		a.drainInto(target);
+		assertEquals(0, a.getCount());
+		assertEquals(0, a.getMax());
+		assertEquals(2, target.getCount());
+		assertEquals(10, target.valueAtPercentile(50));
+	}
+
+	@Test
+	public void testEmpty() {
+		LogHistogram histogram = new LogHistogram();
+		assertEquals(0, histogram.valueAtPercentile(99));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegative() {
+		new LogHistogram().record(-1);
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue(actual + " not within 1/32 of " + expected, Math.abs(actual - expected) <= expected / 32);
+	}
+}
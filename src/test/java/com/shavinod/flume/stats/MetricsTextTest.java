@@ -0,0 +1,108 @@
+package com.shavinod.flume.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.apache.flume.event.EventBuilder;
+import org.junit.After;
+import org.junit.Test;
+
+public class MetricsTextTest {
+
+	@After
+	public void tearDown() {
+		InterceptorRegistry.clear();
+	}
+
+	private static String render(MetricsText text) {
+		int length = text.render();
+		return new String(text.buffer(), 0, length, Charset.forName("UTF-8"));
+	}
+
+	@Test
+	public void testSumsPerComponent() {
+		CountingInterceptor a = new CountingInterceptor("r1", null, 10);
+		CountingInterceptor b = new CountingInterceptor("r1", null, 10);
+		CountingInterceptor c = new CountingInterceptor("r2", null, 10);
+		a.initialize();
+		b.initialize();
+		c.initialize();
+		a.intercept(EventBuilder.withBody(new byte[3]));
+		b.intercept(EventBuilder.withBody(new byte[4]));
+		c.intercept(EventBuilder.withBody(new byte[5]));
+
+		String page = render(new MetricsText());
+		assertTrue(page, page.contains("# TYPE flume_stats_events_total counter\n"));
+		assertTrue(page, page.contains("flume_stats_events_total{component=\"r1\"} 2\n"));
+		assertTrue(page, page.contains("flume_stats_events_total{component=\"r2\"} 1\n"));
+		assertTrue(page, page.contains("flume_stats_bytes_total{component=\"r1\"} 7\n"));
+		assertTrue(page, page.contains("flume_stats_bytes_total{component=\"r2\"} 5\n"));
+		assertTrue(page, page.contains("flume_stats_event_rate{component=\"r1\",window=\"300s\"} "));
+		assertTrue(page, page.contains("flume_stats_byte_rate{component=\"r2\",window=\"1s\"} "));
+		assertEquals(1, occurrences(page, "flume_stats_events_total{component=\"r1\"}"));
+	}
+
+	@Test
+	public void testEscapesLabels() {
+		CountingInterceptor ci = new CountingInterceptor("a\"b\\c", null, 10);
+		ci.initialize();
+		String page = render(new MetricsText());
+		assertTrue(page, page.contains("{component=\"a\\\"b\\\\c\"} 0\n"));
+	}
+
+	/**
+	 * Characters outside the BMP are written as one 4-byte UTF-8 sequence,
+	 * not as two encoded surrogates.
+	 */
+	@Test
+	public void testNonBmpLabel() {
+		String component = "r\ud83d\ude00";
+		new CountingInterceptor(component, null, 10).initialize();
+		MetricsText text = new MetricsText();
+		int length = text.render();
+		byte[] expected = ("flume_stats_events_total{component=\"" + component + "\"} 0\n").getBytes(Charset
+				.forName("UTF-8"));
+		assertTrue(indexOf(text.buffer(), length, expected) >= 0);
+	}
+
+	private static int indexOf(byte[] bytes, int length, byte[] target) {
+		outer: for (int i = 0; i + target.length <= length; i++) {
+			for (int j = 0; j < target.length; j++) {
+				if (bytes[i + j] != target[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	@Test
+	public void testReusesBuffer() {
+		for (int i = 0; i < 200; i++) {
+			new CountingInterceptor("component-" + i, null, 10).initialize();
+		}
+		MetricsText text = new MetricsText();
+		String first = render(text);
+		byte[] buffer = text.buffer();
+		assertEquals(first, render(text).replaceAll("rate\\{([^}]*)\\} [0-9.]+", "rate{$1} 0.000"));
+		assertTrue(buffer == text.buffer());
+	}
+
+	@Test
+	public void testEmpty() {
+		String page = render(new MetricsText());
+		assertEquals("# TYPE flume_stats_events_total counter\n# TYPE flume_stats_bytes_total counter\n"
+				+ "# TYPE flume_stats_event_rate gauge\n# TYPE flume_stats_byte_rate gauge\n", page);
+	}
+
+	private static int occurrences(String s, String part) {
+		int count = 0;
+		for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + 1)) {
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,178 @@
+package com.shavinod.flume.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.flume.Channel;
+import org.apache.flume.ChannelSelector;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PeriodicCountingSourceTest {
+
+	private Channel channel;
+	private PeriodicCountingSource source;
+
+	@Before
+	public void setUp() {
+		channel = new MemoryChannel();
+		Context channelContext = new Context();
+		channelContext.put("keep-alive", "0");
+		Configurables.configure(channel, channelContext);
+		ChannelSelector selector = new ReplicatingChannelSelector();
+		selector.setChannels(Collections.singletonList(channel));
+		source = new PeriodicCountingSource();
+		source.setChannelProcessor(new ChannelProcessor(selector));
+	}
+
+	@After
+	public void tearDown() {
+		InterceptorRegistry.clear();
+	}
+
+	/**
+	 * Each run reports the interval ending at the last period boundary, once.
+	 */
+	@Test
+	public void testAlignedIntervals() {
+		CountingInterceptor ci = new CountingInterceptor();
+		ci.initialize();
+		ci.intercept(EventBuilder.withBody(new byte[5]));
+
+		PeriodicCountingSource.PeriodicHandler handler = new PeriodicCountingSource.PeriodicHandler(source, 60000);
+		long now = System.currentTimeMillis() / 60000 * 60000 + 1000;
+		handler.run(now);
+		List<Event> events = take();
+		assertEquals(1, events.size());
+		Event total = events.get(0);
+		assertEquals("1", total.getHeaders().get("count"));
+		assertEquals("5", total.getHeaders().get("bytes"));
+		long start = Long.parseLong(total.getHeaders().get("intervalStart"));
+		long end = Long.parseLong(total.getHeaders().get("intervalEnd"));
+		assertEquals(0, end % 60000);
+		assertEquals(60000, end - start);
+
+		// a second run within the same period is a catch-up run and is skipped
+		handler.run(now + 1);
+		assertEquals(0, take().size());
+
+		ci.intercept(EventBuilder.withBody(new byte[1]));
+		handler.flush(end + 10);
+		events = take();
+		assertEquals("1", events.get(0).getHeaders().get("count"));
+		assertEquals(end + "", events.get(0).getHeaders().get("intervalStart"));
+		assertEquals((end + 10) + "", events.get(0).getHeaders().get("intervalEnd"));
+	}
+
+	/**
+	 * A run firing just before its boundary by the wall clock reports that
+	 * boundary, rather than being taken for a catch-up run and shifting
+	 * every later report by one period.
+	 */
+	@Test
+	public void testEarlyRun() {
+		CountingInterceptor ci = new CountingInterceptor();
+		ci.initialize();
+		PeriodicCountingSource.PeriodicHandler handler = new PeriodicCountingSource.PeriodicHandler(source, 60000);
+		long boundary = System.currentTimeMillis() / 60000 * 60000;
+		handler.run(boundary + 2);
+		assertEquals(boundary + "", take().get(0).getHeaders().get("intervalEnd"));
+
+		ci.intercept(EventBuilder.withBody(new byte[1]));
+		handler.run(boundary + 60000 - 1);
+		List<Event> events = take();
+		assertEquals(1, events.size());
+		assertEquals(boundary + "", events.get(0).getHeaders().get("intervalStart"));
+		assertEquals((boundary + 60000) + "", events.get(0).getHeaders().get("intervalEnd"));
+		assertEquals("1", events.get(0).getHeaders().get("count"));
+	}
+
+	/**
+	 * A failure while collecting is logged rather than thrown, since it
+	 * would cancel the schedule.
+	 */
+	@Test
+	public void testCollectionFailureNotThrown() {
+		InterceptorRegistry.register(InterceptorRegistry.DEFAULT_COMPONENT, CountingInterceptor.class,
+				new CountingInterceptor() {
+					@Override
+					public CountSnapshot collect() {
+						throw new IllegalStateException("collect failed");
+					}
+				});
+		new PeriodicCountingSource.PeriodicHandler(source, 1000).run();
+		assertEquals(0, take().size());
+	}
+
+	@Test
+	public void testSourcesOption() {
+		new CountingInterceptor("r1", null, 1).initialize();
+		CountingInterceptor other = new CountingInterceptor("r2", null, 1);
+		other.initialize();
+		other.intercept(EventBuilder.withBody(new byte[1]));
+
+		PeriodicCountingSource.PeriodicHandler handler = new PeriodicCountingSource.PeriodicHandler(source, 1000,
+				Collections.singleton("r1"));
+		handler.run();
+		assertEquals("0", take().get(0).getHeaders().get("count"));
+	}
+
+	@Test
+	public void testBinaryFormat() {
+		CountingInterceptor ci = new CountingInterceptor();
+		ci.initialize();
+		ci.intercept(EventBuilder.withBody(new byte[3]));
+
+		PeriodicCountingSource.PeriodicHandler handler = new PeriodicCountingSource.PeriodicHandler(source, 1000);
+		handler.setBinary(true);
+		handler.run();
+		List<Event> events = take();
+		assertEquals(1, events.size());
+		assertTrue(StatsCodec.isEncoded(events.get(0)));
+		StatsReport report = StatsCodec.decode(events.get(0).getBody());
+		assertEquals(1, report.getTotal().getEvents());
+		assertEquals(3, report.getTotal().getBytes());
+		assertEquals(events.get(0).getHeaders().get("intervalEnd"), report.getIntervalEnd() + "");
+	}
+
+	@Test
+	public void testStopFlushes() {
+		CountingInterceptor ci = new CountingInterceptor();
+		ci.initialize();
+		Context context = new Context();
+		context.put("period", "3600000");
+		source.configure(context);
+		source.start();
+		ci.intercept(EventBuilder.withBody(new byte[2]));
+		source.stop();
+		List<Event> events = take();
+		assertEquals(1, events.size());
+		assertEquals("2", events.get(0).getHeaders().get("bytes"));
+	}
+
+	private List<Event> take() {
+		List<Event> events = new ArrayList<Event>();
+		Transaction tx = channel.getTransaction();
+		tx.begin();
+		Event event;
+		while ((event = channel.take()) != null) {
+			events.add(event);
+		}
+		tx.commit();
+		tx.close();
+		return events;
+	}
+}
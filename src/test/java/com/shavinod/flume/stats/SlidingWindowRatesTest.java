@@ -0,0 +1,75 @@
+package com.shavinod.flume.stats;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SlidingWindowRatesTest {
+
+	private static final double DELTA = 0.0001;
+
+	@Test
+	public void testRatesOverEachWindow() {
+		StripedCounter counter = new StripedCounter(2);
+		SlidingWindowRates windows = new SlidingWindowRates();
+		long start = 1000000L * 1000;
+		// 100 events and 1000 bytes every second for six minutes
+		for (int second = 0; second < 360; second++) {
+			windows.sample(start + second * 1000L, counter);
+			counter.add(100, 1000);
+		}
+		long now = start + 360 * 1000L;
+		WindowRate[] rates = windows.rates(now, counter.sum());
+		assertEquals(SlidingWindowRates.WINDOWS_SECONDS.length, rates.length);
+		for (WindowRate rate : rates) {
+			assertEquals(100.0, rate.getEventsPerSecond(), DELTA);
+			assertEquals(1000.0, rate.getBytesPerSecond(), DELTA);
+		}
+	}
+
+	/**
+	 * Reading is not destructive: two readers at the same instant agree.
+	 */
+	@Test
+	public void testReadersDoNotReset() {
+		StripedCounter counter = new StripedCounter(2);
+		SlidingWindowRates windows = new SlidingWindowRates();
+		windows.sample(10000, counter);
+		counter.add(50, 0);
+		CountSnapshot total = counter.sum();
+		assertEquals(25.0, windows.rate(1, 12000, total).getEventsPerSecond(), DELTA);
+		assertEquals(25.0, windows.rate(1, 12000, total).getEventsPerSecond(), DELTA);
+	}
+
+	/**
+	 * Rates use the real time between samples, not the nominal window.
+	 */
+	@Test
+	public void testLateSamplesUseElapsedTime() {
+		StripedCounter counter = new StripedCounter(2);
+		SlidingWindowRates windows = new SlidingWindowRates();
+		windows.sample(10000, counter);
+		counter.add(30, 0);
+		// only young samples exist, so the 60s window falls back to the oldest
+		assertEquals(10.0, windows.rate(60, 13000, counter.sum()).getEventsPerSecond(), DELTA);
+		windows.sample(13000, counter);
+		counter.add(10, 0);
+		assertEquals(4.0, windows.rate(1, 15500, counter.sum()).getEventsPerSecond(), DELTA);
+	}
+
+	@Test
+	public void testOneSamplePerSecond() {
+		StripedCounter counter = new StripedCounter(2);
+		SlidingWindowRates windows = new SlidingWindowRates();
+		windows.sample(10000, counter);
+		counter.add(10, 0);
+		windows.sample(10900, counter);
+		assertEquals(5.0, windows.rate(1, 12000, counter.sum()).getEventsPerSecond(), DELTA);
+	}
+
+	@Test
+	public void testEmpty() {
+		SlidingWindowRates windows = new SlidingWindowRates();
+		assertEquals(0.0, windows.rate(10, 1000, CountSnapshot.EMPTY).getEventsPerSecond(), DELTA);
+	}
+}
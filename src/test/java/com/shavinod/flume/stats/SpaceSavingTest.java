@@ -0,0 +1,142 @@
+package com.shavinod.flume.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SpaceSavingTest {
+
+	@Test
+	public void testExactBelowCapacity() {
+		SpaceSaving summary = new SpaceSaving(10);
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j <= i; j++) {
+				summary.offer("v" + i);
+			}
+		}
+		List<SpaceSaving.Entry> top = summary.top(3);
+		assertEquals(3, top.size());
+		assertEquals("v4", top.get(0).value);
+		assertEquals(5, top.get(0).count);
+		assertEquals(0, top.get(0).error);
+		assertEquals("v2", top.get(2).value);
+		assertEquals(15, summary.total());
+	}
+
+	/**
+	 * On a skewed stream with far more distinct values than counters, the
+	 * heavy hitters are found and every reported count brackets the truth.
+	 */
+	@Test
+	public void testHeavyHittersWithErrorBounds() {
+		SpaceSaving summary = new SpaceSaving(50);
+		Map<String, Long> truth = new HashMap<String, Long>();
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			String value = random.nextInt(4) == 0 ? "noise" + random.nextInt(10000) : "hot" + random.nextInt(5);
+			summary.offer(value);
+			Long count = truth.get(value);
+			truth.put(value, count == null ? 1 : count + 1);
+		}
+		List<SpaceSaving.Entry> top = summary.top(5);
+		for (SpaceSaving.Entry entry : top) {
+			assertTrue(entry.value, entry.value.startsWith("hot"));
+			long actual = truth.get(entry.value);
+			assertTrue(entry.count >= actual);
+			assertTrue(entry.count - entry.error <= actual);
+		}
+		assertEquals(100000, summary.total());
+	}
+
+	@Test
+	public void testMerge() {
+		SpaceSaving a = new SpaceSaving(3);
+		SpaceSaving b = new SpaceSaving(3);
+		for (int i = 0; i < 10; i++) {
+			a.offer("x");
+			b.offer("x");
+		}
+		b.offer("y");
+		SpaceSaving merged = new SpaceSaving(3);
+		a.mergeInto(merged);
+		b.mergeInto(merged);
+		assertEquals("x", merged.top(1).get(0).value);
+		assertEquals(20, merged.top(1).get(0).count);
+		assertEquals(21, merged.total());
+	}
+
+	/**
+	 * A value monitored in one full summary but evicted from the other may
+	 * have occurred there up to the other's smallest count; merging must
+	 * not lose those occurrences.
+	 */
+	@Test
+	public void testMergeFullSummaries() {
+		SpaceSaving a = new SpaceSaving(2);
+		for (int i = 0; i < 10; i++) {
+			a.offer("x");
+		}
+		a.offer("y");
+		SpaceSaving b = new SpaceSaving(2);
+		b.offer("x");
+		for (int i = 0; i < 5; i++) {
+			b.offer("z");
+		}
+		b.offer("w");
+		SpaceSaving merged = new SpaceSaving(2);
+		a.mergeInto(merged);
+		b.mergeInto(merged);
+		SpaceSaving.Entry x = merged.top(1).get(0);
+		assertEquals("x", x.value);
+		assertTrue(x.count >= 11);
+		assertTrue(x.count - x.error <= 11);
+		assertEquals(18, merged.total());
+	}
+
+	/**
+	 * Full stripes of a skewed stream merged together keep every reported
+	 * count within its error of the truth.
+	 */
+	@Test
+	public void testMergeErrorBounds() {
+		Map<String, Long> truth = new HashMap<String, Long>();
+		Random random = new Random(7);
+		SpaceSaving merged = new SpaceSaving(20);
+		for (int stripe = 0; stripe < 8; stripe++) {
+			SpaceSaving summary = new SpaceSaving(20);
+			for (int i = 0; i < 5000; i++) {
+				int rank = (int) Math.min(1000, 1 / (random.nextDouble() + 0.001));
+				String value = "v" + (rank + random.nextInt(3) * stripe);
+				summary.offer(value);
+				Long count = truth.get(value);
+				truth.put(value, count == null ? 1 : count + 1);
+			}
+			summary.mergeInto(merged);
+		}
+		for (SpaceSaving.Entry entry : merged.top(20)) {
+			long actual = truth.get(entry.value);
+			assertTrue(entry.value + " " + entry.count + " < " + actual, entry.count >= actual);
+			assertTrue(entry.value + " " + entry.count + "-" + entry.error + " > " + actual,
+					entry.count - entry.error <= actual);
+		}
+		assertEquals(40000, merged.total());
+	}
+
+	@Test
+	public void testClear() {
+		SpaceSaving summary = new SpaceSaving(2);
+		summary.offer("a");
+		summary.offer("b");
+		summary.offer("c");
+		summary.clear();
+		assertEquals(0, summary.top(2).size());
+		summary.offer("c");
+		assertEquals(1, summary.top(2).get(0).count);
+	}
+}
@@ -0,0 +1,164 @@
+package com.shavinod.flume.stats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+
+public class StatsCodecTest {
+
+	private static StatsReport sampleReport() {
+		StatsReport report = new StatsReport(1500000000000L, 1500000001000L);
+		report.setTotal(new CountSnapshot(1234, 56789));
+		report.setRates(new WindowRate[] { new WindowRate(1, 1234.5, 56789.25), new WindowRate(10, 1000, 50000) });
+		Map<String, CountSnapshot> hosts = new LinkedHashMap<String, CountSnapshot>();
+		hosts.put("web-1", new CountSnapshot(1000, 50000));
+		hosts.put("web\t2", new CountSnapshot(234, 6789));
+		report.addDimension("host", hosts);
+		report.addHistogram(new StatsReport.HistogramSummary("bodySize", 1234, 40, 90, 300, 1000, 4000));
+		report.addHeavyHitters(new StatsReport.HeavyHitters("tenant", 1234, Arrays.asList(
+				new StatsReport.HeavyHitter("a", 800, 0), new StatsReport.HeavyHitter("b", 300, 12))));
+		report.addDistinctCount(new StatsReport.DistinctCount("user", 4, 3, new HyperLogLog(4).toBytes()));
+		return report;
+	}
+
+	@Test
+	public void testRoundTrip() {
+		StatsReport decoded = StatsCodec.decode(StatsCodec.encode(sampleReport()));
+		assertEquals(1500000000000L, decoded.getIntervalStart());
+		assertEquals(1500000001000L, decoded.getIntervalEnd());
+		assertEquals(1234, decoded.getTotal().getEvents());
+		assertEquals(56789, decoded.getTotal().getBytes());
+		assertEquals(2, decoded.getRates().length);
+		assertEquals(1234.5, decoded.getRates()[0].getEventsPerSecond(), 0.001);
+		assertEquals(56789.25, decoded.getRates()[0].getBytesPerSecond(), 0.001);
+		assertEquals(10, decoded.getRates()[1].getWindowSeconds());
+		assertEquals(234, decoded.getDimensions().get("host").get("web\t2").getEvents());
+		StatsReport.HistogramSummary histogram = decoded.getHistograms().get(0);
+		assertEquals("bodySize", histogram.getName());
+		assertEquals(300, histogram.getP99());
+		assertEquals(4000, histogram.getMax());
+		List<StatsReport.HeavyHitter> hitters = decoded.getHeavyHitters().get(0).getHitters();
+		assertEquals("b", hitters.get(1).getValue());
+		assertEquals(300, hitters.get(1).getCount());
+		assertEquals(12, hitters.get(1).getError());
+		assertArrayEquals(new HyperLogLog(4).toBytes(), decoded.getDistinctCounts().get(0).getSketch());
+	}
+
+	/**
+	 * The binary payload is far smaller than the header events it replaces.
+	 */
+	@Test
+	public void testCompactness() {
+		StatsReport report = sampleReport();
+		int headerBytes = 0;
+		for (Event event : report.toEvents()) {
+			for (Map.Entry<String, String> header : event.getHeaders().entrySet()) {
+				headerBytes += header.getKey().length() + header.getValue().length();
+			}
+			headerBytes += event.getBody().length;
+		}
+		int binaryBytes = StatsCodec.encode(report).length;
+		assertTrue(binaryBytes + " vs " + headerBytes, binaryBytes * 4 < headerBytes);
+	}
+
+	@Test
+	public void testVarint() {
+		long[] values = { 0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE };
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (long value : values) {
+			StatsCodec.writeVarint(out, value);
+		}
+		ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+		for (long value : values) {
+			assertEquals(value, StatsCodec.readVarint(in));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTruncated() {
+		byte[] payload = StatsCodec.encode(sampleReport());
+		StatsCodec.decode(Arrays.copyOf(payload, payload.length - 3));
+	}
+
+	/**
+	 * Lengths and counts inside a record are bounded by the record, so a
+	 * corrupt one fails as a truncated payload instead of allocating.
+	 */
+	@Test
+	public void testOversizedInnerLength() {
+		// a DISTINCT record whose sketch claims 2^35 - 1 bytes
+		byte[] sketch = { 5, 8, 0, 4, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+		// a TOPK record whose hitter count is a negative long
+		byte[] topK = { 4, 12, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+				(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01 };
+		for (byte[] record : Arrays.asList(sketch, topK)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			out.write('F');
+			out.write('S');
+			out.write(StatsCodec.VERSION);
+			StatsCodec.writeVarint(out, 0);
+			StatsCodec.writeVarint(out, 0);
+			out.write(record, 0, record.length);
+			try {
+				StatsCodec.decode(out.toByteArray());
+				fail("Decoded a record with an oversized length");
+			} catch (IllegalArgumentException e) {
+				assertEquals("Truncated stats payload", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * A record from a newer writer is skipped, and the ones after it are
+	 * still read.
+	 */
+	@Test
+	public void testUnknownRecordSkipped() {
+		byte[] payload = StatsCodec.encode(sampleReport());
+		StatsReport decoded = StatsCodec.decode(payload);
+		byte[] unknown = { 99, 3, 1, 2, 3 };
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// header: magic, version and the two interval varints
+		int header = 3 + varintLength(decoded.getIntervalStart())
+				+ varintLength(decoded.getIntervalEnd() - decoded.getIntervalStart());
+		out.write(payload, 0, header);
+		out.write(unknown, 0, unknown.length);
+		out.write(payload, header, payload.length - header);
+		StatsReport withUnknown = StatsCodec.decode(out.toByteArray());
+		assertEquals(decoded.getTotal().getEvents(), withUnknown.getTotal().getEvents());
+		assertEquals(decoded.getHistograms().size(), withUnknown.getHistograms().size());
+		assertEquals(decoded.getDistinctCounts().size(), withUnknown.getDistinctCounts().size());
+	}
+
+	private static int varintLength(long value) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StatsCodec.writeVarint(out, value);
+		return out.size();
+	}
+
+	@Test
+	public void testTextSerializer() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StatsTextSerializer serializer = new StatsTextSerializer(out);
+		serializer.write(StatsCodec.toEvent(sampleReport()));
+		serializer.write(EventBuilder.withBody("plain".getBytes("UTF-8")));
+		serializer.flush();
+		String text = new String(out.toByteArray(), "UTF-8");
+		assertTrue(text.startsWith("1500000000000\t1500000001000\tcount\t\t\tevents\t1234\n"));
+		assertTrue(text.contains("\tdimension\thost\tweb\\t2\tevents\t234\n"));
+		assertTrue(text.contains("\ttopk\ttenant\tb\terror\t12\n"));
+		assertTrue(text.endsWith("plain\n"));
+	}
+}
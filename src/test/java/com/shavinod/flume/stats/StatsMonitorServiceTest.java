@@ -0,0 +1,80 @@
+package com.shavinod.flume.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.flume.Context;
+import org.apache.flume.event.EventBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatsMonitorServiceTest {
+
+	private StatsMonitorService service;
+
+	@Before
+	public void setUp() {
+		Context context = new Context();
+		context.put(StatsMonitorService.PORT_KEY, "0");
+		service = new StatsMonitorService();
+		service.configure(context);
+		service.start();
+	}
+
+	@After
+	public void tearDown() {
+		service.stop();
+		InterceptorRegistry.clear();
+	}
+
+	@Test
+	public void testServesMetrics() throws Exception {
+		CountingInterceptor ci = new CountingInterceptor("r1", null, 10);
+		ci.initialize();
+		ci.intercept(EventBuilder.withBody(new byte[8]));
+
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + service.getPort()
+				+ StatsMonitorService.PATH).openConnection();
+		assertEquals(200, connection.getResponseCode());
+		assertTrue(connection.getContentType().startsWith("text/plain"));
+		InputStream in = connection.getInputStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] chunk = new byte[1024];
+		for (int n; (n = in.read(chunk)) > 0;) {
+			out.write(chunk, 0, n);
+		}
+		in.close();
+		String page = out.toString("UTF-8");
+		assertTrue(page, page.contains("flume_stats_events_total{component=\"r1\"} 1\n"));
+		assertTrue(page, page.contains("flume_stats_bytes_total{component=\"r1\"} 8\n"));
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+		CountingInterceptor ci = new CountingInterceptor("r1", null, 10);
+		ci.initialize();
+		ci.intercept(EventBuilder.withBody(new byte[8]));
+		ci.intercept(EventBuilder.withBody(new byte[2]));
+
+		MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(StatsMBean.OBJECT_NAME);
+		assertEquals(2L, mbeans.getAttribute(name, "r1.Events"));
+		assertEquals(10L, mbeans.getAttribute(name, "r1.Bytes"));
+		assertTrue(mbeans.getAttribute(name, "r1.EventRate60s") instanceof Double);
+		assertEquals(2 + 2 * SlidingWindowRates.WINDOWS_SECONDS.length, mbeans.getMBeanInfo(name).getAttributes().length);
+
+		service.stop();
+		assertFalse(mbeans.isRegistered(name));
+	}
+}
@@ -0,0 +1,70 @@
+package com.shavinod.flume.stats;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Compares the throughput of StripedCounter with the AtomicInteger it
+ * replaced, with many threads adding while a collector keeps draining.
+ * 
+ * Skipped unless run with -Dstripedcounter.benchmark=true. The thread count
+ * and adds per thread default to 16 and 200000 and can be set with
+ * -Dstripedcounter.benchmark.threads and -Dstripedcounter.benchmark.adds.
+ */
+public class StripedCounterBenchmarkTest {
+
+	private static final int THREADS = Integer.getInteger("stripedcounter.benchmark.threads", 16);
+	private static final int ADDS_PER_THREAD = Integer.getInteger("stripedcounter.benchmark.adds", 200000);
+
+	@Test
+	public void testThroughput() throws Exception {
+		Assume.assumeTrue(Boolean.getBoolean("stripedcounter.benchmark"));
+		final StripedCounter counter = new StripedCounter();
+		final long[] collected = new long[1];
+		Runnable striped = new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < ADDS_PER_THREAD; i++) {
+					counter.add(1, 3);
+				}
+			}
+		};
+		Runnable collector = new Runnable() {
+			@Override
+			public void run() {
+				collected[0] += counter.snapshotAndReset().getEvents();
+			}
+		};
+		long stripedNanos = StripedCounterTest.hammer(striped, collector, THREADS);
+		collector.run();
+		assertEquals((long) THREADS * ADDS_PER_THREAD, collected[0]);
+
+		final AtomicInteger count = new AtomicInteger();
+		final long[] collectedCount = new long[1];
+		Runnable atomic = new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < ADDS_PER_THREAD; i++) {
+					count.incrementAndGet();
+				}
+			}
+		};
+		Runnable atomicCollector = new Runnable() {
+			@Override
+			public void run() {
+				collectedCount[0] += count.getAndSet(0);
+			}
+		};
+		long atomicNanos = StripedCounterTest.hammer(atomic, atomicCollector, THREADS);
+		atomicCollector.run();
+		assertEquals((long) THREADS * ADDS_PER_THREAD, collectedCount[0]);
+
+		long ops = (long) THREADS * ADDS_PER_THREAD;
+		System.out.println("StripedCounter: " + (ops * 1000000000L / Math.max(1, stripedNanos)) + " adds/s, "
+				+ "AtomicInteger: " + (ops * 1000000000L / Math.max(1, atomicNanos)) + " adds/s");
+	}
+}
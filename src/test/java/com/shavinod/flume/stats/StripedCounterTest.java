@@ -0,0 +1,127 @@
+package com.shavinod.flume.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class StripedCounterTest {
+
+	private static final int THREADS = 16;
+	private static final int ADDS_PER_THREAD = 200000;
+
+	@Test
+	public void testSnapshotAndReset() {
+		StripedCounter counter = new StripedCounter(4);
+		counter.add(1, 10);
+		counter.add(2, 5);
+		assertEquals(3, counter.sum().getEvents());
+		assertEquals(15, counter.sum().getBytes());
+
+		CountSnapshot counts = counter.snapshotAndReset();
+		assertEquals(3, counts.getEvents());
+		assertEquals(15, counts.getBytes());
+		assertEquals(0, counter.snapshotAndReset().getEvents());
+	}
+
+	@Test
+	public void testStripesArePowerOfTwo() {
+		assertEquals(1, new StripedCounter(0).stripes());
+		assertEquals(8, new StripedCounter(5).stripes());
+		assertEquals(64, new StripedCounter(1000).stripes());
+	}
+
+	@Test
+	public void testDimensionTablesAllocatedOnFirstUse() {
+		StripedCounter counter = new StripedCounter(8, 1000);
+		counter.add(1, 1);
+		assertEquals(0, counter.dimensionTables());
+		assertTrue(counter.snapshotAndReset().getDimensions().isEmpty());
+
+		counter.add(1, 4, DimensionTable.hash("a"), "a");
+		assertEquals(1, counter.dimensionTables());
+		assertEquals(4, counter.snapshotAndReset().getDimensions().get("a").getBytes());
+		// the merged table is reused, and cleared between snapshots
+		assertTrue(counter.snapshotAndReset().getDimensions().isEmpty());
+	}
+
+	@Test
+	public void testNoOverflowPastIntRange() {
+		StripedCounter counter = new StripedCounter(1);
+		counter.add(Integer.MAX_VALUE, Integer.MAX_VALUE);
+		counter.add(Integer.MAX_VALUE, Integer.MAX_VALUE);
+		assertEquals(2L * Integer.MAX_VALUE, counter.sum().getEvents());
+	}
+
+	/**
+	 * Hammer the striped counter from many threads while a collector keeps
+	 * draining. No event or byte may be lost by the concurrent snapshots.
+	 */
+	@Test
+	public void testConcurrentSnapshots() throws Exception {
+		final StripedCounter counter = new StripedCounter();
+		final long[] collected = new long[2];
+		Runnable striped = new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < ADDS_PER_THREAD; i++) {
+					counter.add(1, 3);
+				}
+			}
+		};
+		Runnable collector = new Runnable() {
+			@Override
+			public void run() {
+				CountSnapshot counts = counter.snapshotAndReset();
+				collected[0] += counts.getEvents();
+				collected[1] += counts.getBytes();
+			}
+		};
+		hammer(striped, collector, THREADS);
+		collector.run();
+		assertEquals((long) THREADS * ADDS_PER_THREAD, collected[0]);
+		assertEquals(3L * THREADS * ADDS_PER_THREAD, collected[1]);
+	}
+
+	/**
+	 * Runs the writer on the given number of threads at once, calling the
+	 * collector about every millisecond until they are all done.
+	 * 
+	 * @return the nanoseconds the writers took
+	 */
+	static long hammer(Runnable writer, Runnable collector, int threadCount) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threadCount);
+		Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			final Runnable work = writer;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						work.run();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		while (done.getCount() > 0) {
+			collector.run();
+			Thread.sleep(1);
+		}
+		long elapsed = System.nanoTime() - begin;
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return elapsed;
+	}
+}